@@ -52,6 +52,7 @@ dependencies {
 
 tasks.withType<Javadoc> {
     exclude("org.cadixdev.$artifactId.jdt.".replace('.', '/'))
+    exclude("org/eclipse/")
 }
 
 // Patched ImportRewrite from JDT
@@ -85,6 +86,11 @@ val renames = listOf(
         "org.eclipse.jdt.internal.core.dom.rewrite.imports" to "org.cadixdev.$artifactId.jdt.internal.rewrite.imports",
 )
 
+// Patched JDT classes that replace the original ones, so they keep their package
+val replacements = listOf(
+        "org/eclipse/jdt/core/dom/CompilationUnitResolver.java",
+)
+
 fun createRenameTask(prefix: String, inputDir: File, outputDir: File, renames: List<Pair<String, String>>): Task
         = task<Copy>("${prefix}renameJdt") {
     destinationDir = file(outputDir)
@@ -94,6 +100,9 @@ fun createRenameTask(prefix: String, inputDir: File, outputDir: File, renames: L
             into("${new.replace('.', '/')}/")
         }
     }
+    from(inputDir) {
+        include(replacements)
+    }
 
     filter { renames.fold(it) { s, (from, to) -> s.replace(from, to) } }
 }
@@ -108,8 +117,18 @@ tasks.jar.configure {
     manifest.attributes(mapOf("Automatic-Module-Name" to "org.cadixdev.$artifactId"))
 }
 
+// The JDT jar is signed, which forbids loading the patched classes into its packages
+val unsignedJdt = task<Jar>("unsignedJdt") {
+    archiveFileName.set("jdt-unsigned.jar")
+    destinationDirectory.set(layout.buildDirectory.dir("jdt"))
+    from(Callable { zipTree(configurations["jdt"].files.first { it.name.startsWith("org.eclipse.jdt.core-") }) }) {
+        exclude("META-INF/MANIFEST.MF", "META-INF/*.SF", "META-INF/*.RSA", "META-INF/*.DSA")
+    }
+}
+
 tasks.withType<Test> {
     useJUnitPlatform()
+    classpath = sourceSets["test"].output + sourceSets["main"].output + files(unsignedJdt) + configurations["testRuntimeClasspath"]
 }
 
 tasks.withType<JavaCompile> {
@@ -149,6 +168,7 @@ artifacts {
 license {
     setHeader(file("HEADER"))
     exclude("org.cadixdev.$artifactId.jdt.".replace('.', '/'))
+    exclude("org/eclipse/")
 }
 
 tasks.withType<GenerateModuleMetadata> {
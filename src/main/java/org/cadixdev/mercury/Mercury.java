@@ -10,6 +10,11 @@
 
 package org.cadixdev.mercury;
 
+import org.cadixdev.mercury.analysis.ConcurrentInheritanceCache;
+import org.cadixdev.mercury.analysis.ReferenceIndex;
+import org.cadixdev.mercury.analysis.SourceSummary;
+import org.cadixdev.mercury.classpath.ClassPathIndex;
+import org.cadixdev.mercury.classpath.ClassPathNameEnvironment;
 import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jdt.core.dom.AST;
 import org.eclipse.jdt.core.dom.ASTParser;
@@ -17,20 +22,28 @@
 import org.eclipse.jdt.core.dom.FileASTRequestor;
 import org.eclipse.jdt.core.dom.IBinding;
 import org.eclipse.jdt.core.dom.ITypeBinding;
+import org.eclipse.jface.text.Document;
 
+import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
 
 public final class Mercury {
@@ -57,13 +70,95 @@ public final class Mercury {
      * for member mappings if this is true.
      */
     private boolean flexibleAnonymousClassMemberLookups = false;
+    /**
+     * Mercury will only pass the class path entries the sources may reference
+     * to JDT if this is true. The sources are scanned for package, import and
+     * qualified names, which are resolved transitively through the classes
+     * of the {@link ClassPathIndex}.
+     */
+    private boolean classPathFiltering = false;
+    /**
+     * Mercury's remapper will only resolve bindings for names that may be
+     * affected by the mappings if this is true, instead of resolving the
+     * binding of every name in the source files.
+     */
+    private boolean lazyBindingResolution = false;
+    /**
+     * Mercury will scan the source files before parsing them if this is
+     * true, and skip files that no processor may need to process (see
+     * {@link SourceProcessor#shouldProcess(SourceSummary)}). Skipped files are
+     * copied to the output directory unchanged. The remaining files are only
+     * passed to the processors that may need to process them.
+     */
+    private boolean filePruning = false;
+    /**
+     * Mercury will check that the types imported by the source files can be
+     * found on the class path or the source path before parsing them if this
+     * is true. Missing types are reported up front, unless
+     * {@link #gracefulClasspathChecks} is enabled.
+     */
+    private boolean classPathCheck = false;
+    /**
+     * Mercury will disable bindings recovery if this is true and the
+     * {@link #classPathCheck} finds no missing types, which makes resolving
+     * bindings faster. The check only covers imported types, so this should
+     * only be enabled if the sources reference no missing types otherwise,
+     * e.g. by their fully qualified name.
+     */
+    private boolean trustClassPathCheck = false;
+    /**
+     * Mercury's inheritance provider will read the inheritance of library
+     * classes directly from the class files on the class path if this is
+     * true, instead of creating JDT bindings for them. Classes declared in
+     * the source files, and classes not found on the class path, are still
+     * provided from their bindings.
+     */
+    private boolean classFileInheritance = false;
 
     private final List<Path> classPath = new ArrayList<>();
     private final List<Path> sourcePath = new ArrayList<>();
 
-    private final Map<Object, Object> context = new HashMap<>();
+    /**
+     * The file used to persist the {@link ClassPathIndex} between runs, or
+     * {@code null} if the index should only be kept in memory.
+     */
+    private Path classPathIndexFile;
+    private ClassPathIndex classPathIndex;
+
+    /**
+     * The file the {@link ReferenceIndex} of each run is written to, or
+     * {@code null} if no reference index should be written. The references
+     * are recorded by the remapper, so with {@link #lazyBindingResolution}
+     * or {@link #filePruning} only the references it resolves are included.
+     */
+    private Path referenceIndexFile;
+
+    /**
+     * The maximum number of classes kept by the {@link ConcurrentInheritanceCache}
+     * of each run, or {@code 0} if the cache should not be bounded.
+     */
+    private int inheritanceCacheSize = 0;
+
+    /**
+     * Notified of each output file once it has been written, or {@code null}.
+     */
+    private OutputListener outputListener;
+
+    private final Map<Object, Object> context = new ConcurrentHashMap<>();
     private Path sourceDir;
     private Path outputDir;
+    private Collection<Path> sourceFiles;
+    private List<PendingOutput> pendingOutputs;
+    // The processors of pruned runs for files not processed by all of them
+    private Map<String, List<SourceProcessor>> fileProcessors;
+
+    /**
+     * The environment used to {@link #rewrite(Path, String, char[]) rewrite
+     * single source files}, which is kept between calls while the
+     * configuration does not change.
+     */
+    private SingleFileEnvironment singleFileEnvironment;
+    private boolean singleFile;
 
     private final List<SourceProcessor> processors = new ArrayList<>();
 
@@ -127,6 +222,54 @@ public void setFlexibleAnonymousClassMemberLookups(final boolean enable) {
         this.flexibleAnonymousClassMemberLookups = enable;
     }
 
+    public boolean isClassPathFiltering() {
+        return this.classPathFiltering;
+    }
+
+    public void setClassPathFiltering(final boolean enable) {
+        this.classPathFiltering = enable;
+    }
+
+    public boolean isLazyBindingResolution() {
+        return this.lazyBindingResolution;
+    }
+
+    public void setLazyBindingResolution(final boolean enable) {
+        this.lazyBindingResolution = enable;
+    }
+
+    public boolean isFilePruning() {
+        return this.filePruning;
+    }
+
+    public void setFilePruning(final boolean enable) {
+        this.filePruning = enable;
+    }
+
+    public boolean isClassPathCheck() {
+        return this.classPathCheck;
+    }
+
+    public void setClassPathCheck(final boolean enable) {
+        this.classPathCheck = enable;
+    }
+
+    public boolean isTrustClassPathCheck() {
+        return this.trustClassPathCheck;
+    }
+
+    public void setTrustClassPathCheck(final boolean enable) {
+        this.trustClassPathCheck = enable;
+    }
+
+    public boolean isClassFileInheritance() {
+        return this.classFileInheritance;
+    }
+
+    public void setClassFileInheritance(final boolean enable) {
+        this.classFileInheritance = enable;
+    }
+
     public List<Path> getClassPath() {
         return this.classPath;
     }
@@ -135,6 +278,41 @@ public List<Path> getSourcePath() {
         return this.sourcePath;
     }
 
+    public Path getClassPathIndexFile() {
+        return this.classPathIndexFile;
+    }
+
+    public void setClassPathIndexFile(Path classPathIndexFile) {
+        this.classPathIndexFile = classPathIndexFile;
+    }
+
+    public Path getReferenceIndexFile() {
+        return this.referenceIndexFile;
+    }
+
+    public void setReferenceIndexFile(Path referenceIndexFile) {
+        this.referenceIndexFile = referenceIndexFile;
+    }
+
+    /**
+     * Gets the index of the current {@link #getClassPath() class path}. The
+     * index is built on first use, and rebuilt only if the class path changes.
+     *
+     * @return The class path index
+     * @throws IOException If an I/O error occurs while indexing the class path
+     */
+    public ClassPathIndex getClassPathIndex() throws IOException {
+        if (this.classPathIndex == null || !this.classPathIndex.getClassPath().equals(this.classPath)) {
+            if (this.classPathIndex != null) {
+                this.classPathIndex.close();
+            }
+            this.classPathIndex = this.classPathIndexFile != null
+                    ? ClassPathIndex.load(this.classPathIndexFile, this.classPath)
+                    : ClassPathIndex.create(this.classPath);
+        }
+        return this.classPathIndex;
+    }
+
     public List<SourceProcessor> getProcessors() {
         return this.processors;
     }
@@ -147,10 +325,38 @@ public Path getOutputDir() {
         return this.outputDir;
     }
 
+    public int getInheritanceCacheSize() {
+        return this.inheritanceCacheSize;
+    }
+
+    public void setInheritanceCacheSize(final int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must not be negative: " + size);
+        }
+        this.inheritanceCacheSize = size;
+    }
+
+    public OutputListener getOutputListener() {
+        return this.outputListener;
+    }
+
+    public void setOutputListener(OutputListener outputListener) {
+        this.outputListener = outputListener;
+    }
+
     public Map<Object, Object> getContext() {
         return this.context;
     }
 
+    /**
+     * Creates the binding of the given class in the environment of the
+     * current run. This is not possible while
+     * {@link #rewrite(Path, String, char[]) rewriting a single file}, which is
+     * parsed on its own.
+     *
+     * @param className The binary name of the class
+     * @return The type binding, or empty if it cannot be created
+     */
     public Optional<ITypeBinding> createTypeBinding(String className) {
         if (isAnonymousOrLocalType(className)) {
             // TODO: Anonymous or local types are currently not supported
@@ -158,6 +364,10 @@ public Optional<ITypeBinding> createTypeBinding(String className) {
             // to know in advance. Since it may return incorrect results, abort early.
             return Optional.empty();
         }
+        if (this.singleFile) {
+            // Bindings can only be created while a batch of files is parsed
+            return Optional.empty();
+        }
 
         IBinding binding = this.requestor.createBindings(new String[]{'L' + className.replace('.', '/') + ';'})[0];
         return binding != null && binding.getKind() == IBinding.TYPE ? Optional.of((ITypeBinding) binding) : Optional.empty();
@@ -201,69 +411,415 @@ public void rewrite(Path sourceDir, Path outputDir) throws Exception {
         }
     }
 
+    /**
+     * Rewrites only the given source files from the source directory. The
+     * other source files in the directory are still available to resolve
+     * references, but are not processed or written to the output directory.
+     *
+     * @param sourceDir The source directory
+     * @param outputDir The output directory
+     * @param sourceFiles The source files to rewrite
+     * @throws Exception If an error occurs while rewriting
+     */
+    public void rewrite(Path sourceDir, Path outputDir, Collection<Path> sourceFiles) throws Exception {
+        if (this.sourceDir != null) {
+            throw new IllegalStateException("Instance is currently processing: " + this.sourceDir);
+        }
+
+        try {
+            this.sourceDir = Objects.requireNonNull(sourceDir, "sourceDir");
+            this.outputDir = Objects.requireNonNull(outputDir, "outputDir");
+            this.sourceFiles = Objects.requireNonNull(sourceFiles, "sourceFiles");
+            run();
+        } finally {
+            cleanup();
+        }
+    }
+
+    /**
+     * Rewrites a single source file in memory, with the same processors and
+     * source path context as a full run over the source directory. The
+     * parser environment is prepared on the first call and reused by later
+     * calls for the same source directory and configuration. Each call is a
+     * separate run: the processors are {@link SourceProcessor#initialize(Mercury)
+     * initialized} and {@link SourceProcessor#finish(Mercury) finished} for
+     * every source file.
+     *
+     * <p>Since the source file is parsed on its own, types it does not
+     * reference can only be looked up from class files, see
+     * {@link #createTypeBinding(String)}.</p>
+     *
+     * @param sourceDir The source directory the source file belongs to
+     * @param unitName The path of the source file, relative to the source
+     *     directory (e.g. {@code com/example/Test.java})
+     * @param source The contents of the source file
+     * @return The rewritten source file
+     * @throws Exception If an error occurs while rewriting
+     */
+    public String rewrite(Path sourceDir, String unitName, char[] source) throws Exception {
+        if (this.sourceDir != null) {
+            throw new IllegalStateException("Instance is currently processing: " + this.sourceDir);
+        }
+
+        try {
+            this.sourceDir = Objects.requireNonNull(sourceDir, "sourceDir");
+            this.singleFile = true;
+
+            SingleFileEnvironment environment = this.singleFileEnvironment;
+            if (environment == null || !environment.matches(this)) {
+                environment = new SingleFileEnvironment(this);
+                this.singleFileEnvironment = environment;
+            }
+
+            boolean analysis = false;
+            boolean rewrite = false;
+            for (SourceProcessor processor : this.processors) {
+                if ((processor.getFlags() & SourceProcessor.FLAG_ANALYSIS) != 0) {
+                    analysis = true;
+                } else {
+                    rewrite = true;
+                }
+            }
+            boolean deferred = analysis && rewrite;
+            if (deferred) {
+                this.pendingOutputs = new ArrayList<>();
+            }
+
+            for (SourceProcessor processor : this.processors) {
+                processor.initialize(this);
+            }
+
+            // Parse the source file from memory, other source files are
+            // still resolved from the source path
+            Path sourceFile = sourceDir.resolve(unitName);
+            ASTParser parser = environment.createParser();
+            parser.setUnitName(sourceFile.toString());
+            parser.setSource(source);
+            CompilationUnit ast = (CompilationUnit) parser.createAST(null);
+
+            RewriteContext context = new RewriteContext(this, sourceFile, ast, getPrimaryType(sourceFile), null);
+            context.setDocument(new Document(new String(source)));
+            try {
+                context.process(this.processors);
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to process: " + sourceFile, e);
+            }
+
+            if (deferred) {
+                for (SourceProcessor processor : this.processors) {
+                    if ((processor.getFlags() & SourceProcessor.FLAG_ANALYSIS) != 0) {
+                        processor.finish(this);
+                    }
+                }
+                this.pendingOutputs = null;
+            }
+
+            String result = context.rewriteSource();
+
+            for (SourceProcessor processor : this.processors) {
+                if (!deferred || (processor.getFlags() & SourceProcessor.FLAG_ANALYSIS) == 0) {
+                    processor.finish(this);
+                }
+            }
+            return result;
+        } finally {
+            cleanup();
+        }
+    }
+
+    /**
+     * Checks if the {@link SourceProcessor#FLAG_ANALYSIS analysis processors}
+     * of the current run have not finished yet. Rewritten source files are
+     * only written once the analysis is complete.
+     *
+     * @return {@code true} if the analysis is not complete yet
+     */
+    public boolean isAnalyzing() {
+        return this.pendingOutputs != null;
+    }
+
+    void defer(PendingOutput output) {
+        this.pendingOutputs.add(output);
+    }
+
     private void cleanup() {
         this.sourceDir = null;
+        this.singleFile = false;
         this.outputDir = null;
+        this.sourceFiles = null;
+        this.pendingOutputs = null;
+        this.fileProcessors = null;
         this.context.clear();
+
+        // Jars stay mapped while the single file environment is kept
+        if (this.classPathIndex != null && this.singleFileEnvironment == null) {
+            this.classPathIndex.close();
+        }
     }
 
     private void run() throws Exception {
         ASTParser parser = ASTParser.newParser(AST.getJLSLatest());
 
-        // Set Java version
-        Map<String, String> options = JavaCore.getOptions();
-        JavaCore.setComplianceOptions(this.sourceCompatibility, options);
-        parser.setCompilerOptions(options);
-
         // Collect processor flags
         int flags = 0;
+        boolean ignoreMethodBodies = !this.processors.isEmpty();
+        boolean ignoreJavadoc = !this.processors.isEmpty();
+        boolean analysis = false;
+        boolean rewrite = false;
         for (SourceProcessor processor : this.processors) {
-            flags |= processor.getFlags();
+            int processorFlags = processor.getFlags();
+            flags |= processorFlags;
+            ignoreMethodBodies &= (processorFlags & SourceProcessor.FLAG_IGNORE_METHOD_BODIES) != 0;
+            ignoreJavadoc &= (processorFlags & SourceProcessor.FLAG_IGNORE_JAVADOC) != 0;
+            if ((processorFlags & SourceProcessor.FLAG_ANALYSIS) != 0) {
+                analysis = true;
+            } else {
+                rewrite = true;
+            }
+        }
+
+        // Set Java version
+        parser.setCompilerOptions(getCompilerOptions(this.sourceCompatibility, ignoreJavadoc));
+
+        // Hold back the output until the analysis is complete
+        boolean deferred = analysis && rewrite;
+        if (deferred) {
+            this.pendingOutputs = new ArrayList<>();
         }
 
-        if ((flags & SourceProcessor.FLAG_RESOLVE_BINDINGS) != 0) {
+        boolean resolveBindings = (flags & SourceProcessor.FLAG_RESOLVE_BINDINGS) != 0;
+        if (resolveBindings) {
             // Resolve references
             parser.setResolveBindings(true);
-            parser.setBindingsRecovery(true);
         }
 
-        // Set environment
-        String[] sourcePath = toArray(this.sourcePath.stream());
-        parser.setEnvironment(toArray(this.classPath.stream()), sourcePath, getEncodings(sourcePath), true);
+        if (ignoreMethodBodies) {
+            // Only declarations are needed
+            parser.setIgnoreMethodBodies(true);
+        }
 
         // Walk directory to find source files
-        String[] sourceFiles = toArray(Files.walk(this.sourceDir, FileVisitOption.FOLLOW_LINKS)
-                .filter(p -> p.getFileName() != null && p.getFileName().toString().endsWith(JAVA_EXTENSION)));
+        String[] sourceFiles = toArray(this.sourceFiles != null ? this.sourceFiles.stream() : findSourceFiles(this.sourceDir));
+
+        if (this.referenceIndexFile != null) {
+            this.context.put(ReferenceIndex.Builder.class, new ReferenceIndex.Builder(this.sourceDir));
+        }
 
         for (SourceProcessor processor : this.processors) {
             processor.initialize(this);
         }
 
+        List<Path> classPath = this.classPath;
+        List<Path> sourcePathEntries = this.sourcePath;
+        boolean bindingsRecovery = true;
+        if (this.classPathFiltering || this.filePruning || this.classPathCheck) {
+            SourceSummary[] summaries = new SourceSummary[sourceFiles.length];
+            for (int i = 0; i < sourceFiles.length; i++) {
+                summaries[i] = scan(Paths.get(sourceFiles[i]));
+            }
+
+            if (this.classPathCheck) {
+                Set<String> missingTypes = findMissingTypes(summaries);
+                if (missingTypes.isEmpty()) {
+                    // There is nothing to recover from, unless types are referenced without imports
+                    bindingsRecovery = !this.trustClassPathCheck;
+                } else if (!this.gracefulClasspathChecks) {
+                    throw new IllegalStateException("Missing types on the class path: " + String.join(", ", missingTypes));
+                }
+            }
+
+            if (this.classPathFiltering) {
+                classPath = filterClassPath(summaries);
+            }
+
+            if (this.filePruning) {
+                sourceFiles = prune(sourceFiles, summaries);
+            }
+        }
+
+        if (resolveBindings) {
+            parser.setBindingsRecovery(bindingsRecovery);
+        }
+
+        // Skipped files may still be referenced by the remaining ones
+        if ((this.filePruning || this.sourceFiles != null) && !sourcePathEntries.contains(this.sourceDir)) {
+            sourcePathEntries = new ArrayList<>(sourcePathEntries);
+            sourcePathEntries.add(this.sourceDir);
+        }
+
+        // Set environment
+        String[] sourcePath = toArray(sourcePathEntries.stream());
+        parser.setEnvironment(toArray(classPath.stream()), sourcePath, getEncodings(sourcePath), true);
+
         // Parse source files
-        parser.createASTs(sourceFiles, getEncodings(sourceFiles), EMPTY_STRING_ARRAY, this.requestor, null);
+        String[] files = sourceFiles;
+        Runnable parse = () -> parser.createASTs(files, getEncodings(files), EMPTY_STRING_ARRAY, this.requestor, null);
+        if (resolveBindings && !classPath.isEmpty()) {
+            // Serve the classes from the memory-mapped jars, instead of letting JDT open them again
+            ClassPathNameEnvironment.run(getClassPathIndex(), classPath, parse);
+        } else {
+            parse.run();
+        }
+
+        if (deferred) {
+            for (SourceProcessor processor : this.processors) {
+                if ((processor.getFlags() & SourceProcessor.FLAG_ANALYSIS) != 0) {
+                    processor.finish(this);
+                }
+            }
+
+            List<PendingOutput> outputs = this.pendingOutputs;
+            this.pendingOutputs = null;
+            for (PendingOutput output : outputs) {
+                output.write(null);
+            }
+        }
 
         for (SourceProcessor processor : this.processors) {
-            processor.finish(this);
+            if (!deferred || (processor.getFlags() & SourceProcessor.FLAG_ANALYSIS) == 0) {
+                processor.finish(this);
+            }
+        }
+
+        ReferenceIndex.Builder references = ReferenceIndex.Builder.get(this).orElse(null);
+        if (references != null) {
+            references.write(this.referenceIndexFile);
         }
     }
 
+    private static Map<String, String> getCompilerOptions(String sourceCompatibility, boolean ignoreJavadoc) {
+        Map<String, String> options = JavaCore.getOptions();
+        JavaCore.setComplianceOptions(sourceCompatibility, options);
+        if (ignoreJavadoc) {
+            // Doc comments are kept as plain comments, without tags or bindings
+            options.put(JavaCore.COMPILER_DOC_COMMENT_SUPPORT, JavaCore.DISABLED);
+        }
+        return options;
+    }
+
+    private static Stream<Path> findSourceFiles(Path dir) throws IOException {
+        return Files.walk(dir, FileVisitOption.FOLLOW_LINKS)
+                .filter(p -> p.getFileName() != null && p.getFileName().toString().endsWith(JAVA_EXTENSION));
+    }
+
+    private List<Path> filterClassPath(SourceSummary[] summaries) throws IOException {
+        Set<String> packages = new HashSet<>();
+        for (SourceSummary summary : summaries) {
+            summary.collectReferencedPackages(packages);
+        }
+
+        // Types from the source path may reference the class path as well
+        for (Path path : this.sourcePath) {
+            if (Files.isDirectory(path) && !path.equals(this.sourceDir)) {
+                try (Stream<Path> files = findSourceFiles(path)) {
+                    for (Path file : (Iterable<Path>) files::iterator) {
+                        scan(file).collectReferencedPackages(packages);
+                    }
+                }
+            }
+        }
+
+        return getClassPathIndex().findRequiredEntries(packages);
+    }
+
+    private Set<String> findMissingTypes(SourceSummary[] summaries) throws IOException {
+        TypeLookup lookup = new TypeLookup(getClassPathIndex(), getSourceRoots());
+        Set<String> missing = new TreeSet<>();
+        for (SourceSummary summary : summaries) {
+            for (String name : summary.getImports()) {
+                if (name.endsWith(".*")) {
+                    // On-demand imports may name either a package or a type
+                    name = name.substring(0, name.length() - 2);
+                    if (!lookup.hasPackage(name) && !lookup.hasType(name)) {
+                        missing.add(name + ".*");
+                    }
+                } else if (!lookup.hasType(name)) {
+                    missing.add(name);
+                }
+            }
+
+            for (String name : summary.getStaticImports()) {
+                // Static imports name a member of the type, or all of them
+                String type = name.substring(0, name.lastIndexOf('.'));
+                if (!lookup.hasType(type)) {
+                    missing.add(type);
+                }
+            }
+        }
+        return missing;
+    }
+
+    private List<Path> getSourceRoots() {
+        List<Path> roots = new ArrayList<>();
+        roots.add(this.sourceDir);
+        for (Path path : this.sourcePath) {
+            if (Files.isDirectory(path) && !path.equals(this.sourceDir)) {
+                roots.add(path);
+            }
+        }
+        return roots;
+    }
+
+    private String[] prune(String[] sourceFiles, SourceSummary[] summaries) throws IOException {
+        List<String> result = new ArrayList<>(sourceFiles.length);
+        this.fileProcessors = new HashMap<>();
+        for (int i = 0; i < sourceFiles.length; i++) {
+            List<SourceProcessor> processors = getProcessors(summaries[i]);
+            if (!processors.isEmpty()) {
+                result.add(sourceFiles[i]);
+                if (processors.size() < this.processors.size()) {
+                    this.fileProcessors.put(sourceFiles[i], processors);
+                }
+            } else if (this.outputDir != null) {
+                // Copy original source file
+                Path sourceFile = Paths.get(sourceFiles[i]);
+                Path outputFile = RewriteContext.resolveOutputFile(this.outputDir, summaries[i].getPackageName(), getPrimaryType(sourceFile));
+                Files.createDirectories(outputFile.getParent());
+                Files.copy(sourceFile, outputFile, StandardCopyOption.REPLACE_EXISTING);
+                if (this.outputListener != null) {
+                    this.outputListener.written(outputFile);
+                }
+            }
+        }
+        return result.toArray(EMPTY_STRING_ARRAY);
+    }
+
+    private List<SourceProcessor> getProcessors(SourceSummary summary) {
+        List<SourceProcessor> processors = new ArrayList<>(this.processors.size());
+        for (SourceProcessor processor : this.processors) {
+            if (processor.shouldProcess(summary)) {
+                processors.add(processor);
+            }
+        }
+        return processors;
+    }
+
+    private SourceSummary scan(Path sourceFile) throws IOException {
+        return SourceSummary.scan(new String(Files.readAllBytes(sourceFile), this.encoding));
+    }
+
     private SourceContext createContext(String sourceFilePath, CompilationUnit ast) {
         Path sourceFile = Paths.get(sourceFilePath);
-        String fileName = sourceFile.getFileName().toString();
-        String primaryType = fileName.substring(0, fileName.length() - JAVA_EXTENSION.length());
+        String primaryType = getPrimaryType(sourceFile);
 
         if (this.outputDir != null) {
-            return new RewriteContext(this, sourceFile, ast, primaryType);
+            return new RewriteContext(this, sourceFile, ast, primaryType, this.outputDir);
         } else {
             return new SourceContext(this, sourceFile, ast, primaryType);
         }
     }
 
+    static String getPrimaryType(Path sourceFile) {
+        String fileName = sourceFile.getFileName().toString();
+        return fileName.substring(0, fileName.length() - JAVA_EXTENSION.length());
+    }
+
     void accept(String sourceFilePath, CompilationUnit ast) {
         SourceContext context = createContext(sourceFilePath, ast);
+        List<SourceProcessor> processors = this.fileProcessors != null ? this.fileProcessors.get(sourceFilePath) : null;
 
         try {
-            context.process(this.processors);
+            context.process(processors != null ? processors : this.processors);
         } catch (Exception e) {
             throw new RuntimeException("Failed to process: " + sourceFilePath, e);
         }
@@ -284,6 +840,92 @@ private String[] getEncodings(String[] files) {
         return encodings;
     }
 
+    private static final class SingleFileEnvironment {
+
+        private final Path sourceDir;
+        private final String sourceCompatibility;
+        private final Charset encoding;
+        private final List<Path> classPath;
+        private final List<Path> sourcePath;
+        private final List<SourceProcessor> processors;
+
+        private final Map<String, String> options;
+        private final int flags;
+        private final String[] classPathEntries;
+        private final String[] sourcePathEntries;
+        private final String[] sourcePathEncodings;
+
+        private SingleFileEnvironment(Mercury mercury) {
+            this.sourceDir = mercury.sourceDir;
+            this.sourceCompatibility = mercury.sourceCompatibility;
+            this.encoding = mercury.encoding;
+            this.classPath = new ArrayList<>(mercury.classPath);
+            this.sourcePath = new ArrayList<>(mercury.sourcePath);
+            this.processors = new ArrayList<>(mercury.processors);
+
+            int flags = 0;
+            boolean ignoreJavadoc = !this.processors.isEmpty();
+            for (SourceProcessor processor : this.processors) {
+                int processorFlags = processor.getFlags();
+                flags |= processorFlags;
+                ignoreJavadoc &= (processorFlags & SourceProcessor.FLAG_IGNORE_JAVADOC) != 0;
+            }
+            this.flags = flags;
+            this.options = getCompilerOptions(this.sourceCompatibility, ignoreJavadoc);
+
+            // The other source files may be referenced by the rewritten one
+            List<Path> sourcePathEntries = new ArrayList<>(this.sourcePath);
+            if (!sourcePathEntries.contains(this.sourceDir)) {
+                sourcePathEntries.add(this.sourceDir);
+            }
+
+            this.classPathEntries = toArray(this.classPath.stream());
+            this.sourcePathEntries = toArray(sourcePathEntries.stream());
+            this.sourcePathEncodings = mercury.getEncodings(this.sourcePathEntries);
+        }
+
+        private boolean matches(Mercury mercury) {
+            return this.sourceDir.equals(mercury.sourceDir)
+                    && this.sourceCompatibility.equals(mercury.sourceCompatibility)
+                    && this.encoding.equals(mercury.encoding)
+                    && this.classPath.equals(mercury.classPath)
+                    && this.sourcePath.equals(mercury.sourcePath)
+                    && this.processors.equals(mercury.processors);
+        }
+
+        private ASTParser createParser() {
+            ASTParser parser = ASTParser.newParser(AST.getJLSLatest());
+            parser.setCompilerOptions(this.options);
+
+            if ((this.flags & SourceProcessor.FLAG_RESOLVE_BINDINGS) != 0) {
+                parser.setResolveBindings(true);
+                parser.setBindingsRecovery(true);
+            }
+
+            parser.setEnvironment(this.classPathEntries, this.sourcePathEntries, this.sourcePathEncodings, true);
+            return parser;
+        }
+
+    }
+
+    /**
+     * Listens for the output files of a run, e.g. to pass them on while the
+     * remaining source files are still being processed.
+     */
+    @FunctionalInterface
+    public interface OutputListener {
+
+        /**
+         * Called once the given output file has been written. Output files
+         * are written one at a time, from the thread that runs Mercury.
+         *
+         * @param outputFile The output file
+         * @throws IOException If an I/O error occurs
+         */
+        void written(Path outputFile) throws IOException;
+
+    }
+
     private class Requestor extends FileASTRequestor {
 
         @Override
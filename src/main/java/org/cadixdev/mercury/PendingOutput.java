@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+import org.eclipse.jface.text.Document;
+import org.eclipse.text.edits.MultiTextEdit;
+import org.eclipse.text.edits.TextEdit;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * A rewritten source file that has not been written yet. Only the edits
+ * to the original source file are kept, so the AST can be released while
+ * the output is pending.
+ */
+final class PendingOutput {
+
+    private final Path sourceFile;
+    private final Path outputFile;
+    private final Charset encoding;
+    private final TextEdit edit;
+    private final List<RewriteContext.DeferredEdit> deferredEdits;
+    private final Mercury.OutputListener listener;
+
+    PendingOutput(Path sourceFile, Path outputFile, Charset encoding, TextEdit edit, List<RewriteContext.DeferredEdit> deferredEdits,
+            Mercury.OutputListener listener) {
+        this.sourceFile = sourceFile;
+        this.outputFile = outputFile;
+        this.encoding = encoding;
+        this.edit = edit;
+        this.deferredEdits = deferredEdits;
+        this.listener = listener;
+    }
+
+    /**
+     * Writes the output file.
+     *
+     * @param document The original source file, or {@code null} if it should
+     *     be loaded when needed
+     * @throws Exception If an error occurs while writing the output file
+     */
+    void write(Document document) throws Exception {
+        TextEdit edit = this.edit;
+        if (this.deferredEdits != null) {
+            if (document == null) {
+                document = load();
+            }
+            for (RewriteContext.DeferredEdit deferredEdit : this.deferredEdits) {
+                edit = RewriteContext.combineEdit(edit, deferredEdit.compute(document));
+            }
+        }
+
+        Files.createDirectories(this.outputFile.getParent());
+
+        if (edit == null || edit instanceof MultiTextEdit && !edit.hasChildren()) {
+            // Copy original source file
+            Files.copy(this.sourceFile, this.outputFile, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            // Save the rewritten source file
+            if (document == null) {
+                document = load();
+            }
+            edit.apply(document, TextEdit.NONE);
+
+            try (OutputStreamWriter writer = new OutputStreamWriter(Files.newOutputStream(this.outputFile), this.encoding)) {
+                writer.write(document.get());
+            }
+        }
+
+        if (this.listener != null) {
+            this.listener.written(this.outputFile);
+        }
+    }
+
+    private Document load() throws IOException {
+        return new Document(new String(Files.readAllBytes(this.sourceFile), this.encoding));
+    }
+
+}
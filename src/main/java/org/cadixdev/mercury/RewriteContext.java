@@ -14,30 +14,52 @@
 
 import org.cadixdev.mercury.jdt.rewrite.imports.ImportRewrite;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.jdt.core.dom.ASTNode;
 import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.ImportDeclaration;
+import org.eclipse.jdt.core.dom.Name;
+import org.eclipse.jdt.core.dom.SimpleName;
 import org.eclipse.jdt.core.dom.rewrite.ASTRewrite;
 import org.eclipse.jface.text.Document;
 import org.eclipse.text.edits.MultiTextEdit;
+import org.eclipse.text.edits.ReplaceEdit;
 import org.eclipse.text.edits.TextEdit;
 
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.StringJoiner;
 
 public final class RewriteContext extends SourceContext {
 
+    private final Path outputDir;
+
     private TextEdit edit;
     private ASTRewrite rewrite;
     private ImportRewrite importRewrite;
+    private Map<SimpleName, String> renames;
+    private List<DeferredEdit> deferredEdits;
 
-    RewriteContext(Mercury mercury, Path sourceFile, CompilationUnit compilationUnit, String primaryType) {
+    RewriteContext(Mercury mercury, Path sourceFile, CompilationUnit compilationUnit, String primaryType, Path outputDir) {
         super(mercury, sourceFile, compilationUnit, primaryType);
+        this.outputDir = outputDir;
+    }
+
+    /**
+     * Gets the directory the rewritten source file will be written to. This
+     * is the {@link Mercury#getOutputDir() output directory} of Mercury,
+     * unless the context was created as a {@link #createTarget(Path) target}.
+     *
+     * @return The output directory, or {@code null} if a single source file
+     *     is {@link Mercury#rewrite(Path, String, char[]) rewritten in memory}
+     */
+    public Path getOutputDir() {
+        return this.outputDir;
     }
 
     public void setPackageName(String packageName) {
@@ -66,6 +88,59 @@ public ImportRewrite createImportRewrite() {
         return this.importRewrite;
     }
 
+    /**
+     * Changes the identifier of the given name. Renames are applied as plain
+     * text replacements, which is much cheaper than rewriting the AST. They
+     * are only passed to the {@link ASTRewrite} if the source file has
+     * structural changes as well, since those may move or remove the
+     * renamed nodes. Names in import declarations are always changed through
+     * the {@link ASTRewrite}, so the edits of the {@link ImportRewrite} in the
+     * same part of the source file are analyzed together with them.
+     *
+     * @param node The name to rename
+     * @param identifier The new identifier
+     */
+    public void rename(SimpleName node, String identifier) {
+        if (isInImport(node)) {
+            createASTRewrite().set(node, SimpleName.IDENTIFIER_PROPERTY, Objects.requireNonNull(identifier, "identifier"), null);
+            return;
+        }
+
+        if (this.renames == null) {
+            this.renames = new IdentityHashMap<>();
+        }
+
+        this.renames.put(Objects.requireNonNull(node, "node"), Objects.requireNonNull(identifier, "identifier"));
+    }
+
+    /**
+     * Gets the identifier of the given name, including changes made by
+     * {@link #rename(SimpleName, String)} or the {@link ASTRewrite}.
+     *
+     * @param node The name
+     * @return The current identifier
+     */
+    public String getIdentifier(SimpleName node) {
+        if (this.renames != null) {
+            String identifier = this.renames.get(node);
+            if (identifier != null) {
+                return identifier;
+            }
+        }
+
+        if (this.rewrite != null) {
+            return (String) this.rewrite.get(node, SimpleName.IDENTIFIER_PROPERTY);
+        }
+        return node.getIdentifier();
+    }
+
+    private static boolean isInImport(ASTNode node) {
+        while (node instanceof Name) {
+            node = node.getParent();
+        }
+        return node instanceof ImportDeclaration;
+    }
+
     public void addEdit(TextEdit edit) {
         if (this.edit == null) {
             this.edit = new MultiTextEdit();
@@ -74,24 +149,57 @@ public void addEdit(TextEdit edit) {
         this.edit.addChild(Objects.requireNonNull(edit, "edit"));
     }
 
-    private TextEdit rewrite() throws CoreException, IOException {
-        if (this.rewrite == null && this.importRewrite == null && this.edit == null) {
-            return null;
+    /**
+     * Adds edits that are computed right before the source file is written,
+     * once all {@link SourceProcessor#FLAG_ANALYSIS analysis processors} have
+     * finished. The AST is no longer available at that point, so the
+     * deferred edit should only keep the state it needs.
+     *
+     * @param edit The deferred edit
+     */
+    public void afterAnalysis(DeferredEdit edit) {
+        if (this.deferredEdits == null) {
+            this.deferredEdits = new ArrayList<>();
         }
 
+        this.deferredEdits.add(Objects.requireNonNull(edit, "edit"));
+    }
+
+    private TextEdit rewrite() throws CoreException, IOException {
         TextEdit edit = null;
+        if (this.renames != null) {
+            if (this.rewrite != null) {
+                // Structural changes may move or remove the renamed nodes
+                for (Map.Entry<SimpleName, String> rename : this.renames.entrySet()) {
+                    this.rewrite.set(rename.getKey(), SimpleName.IDENTIFIER_PROPERTY, rename.getValue(), null);
+                }
+            } else {
+                edit = new MultiTextEdit();
+                for (Map.Entry<SimpleName, String> rename : this.renames.entrySet()) {
+                    SimpleName node = rename.getKey();
+                    edit.addChild(new ReplaceEdit(node.getStartPosition(), node.getLength(), rename.getValue()));
+                }
+            }
+        }
+
         if (this.rewrite != null) {
             edit = this.rewrite.rewriteAST(loadDocument(), null);
         }
 
-        if (this.importRewrite != null) {
+        // Only analyze the imports if they have actually changed
+        if (this.importRewrite != null && this.importRewrite.hasRecordedChanges()) {
             edit = combineEdit(edit, this.importRewrite.rewriteImports(loadDocument(), null));
         }
 
-        return combineEdit(edit, this.edit);
+        edit = combineEdit(edit, this.edit);
+        if (edit instanceof MultiTextEdit && !edit.hasChildren()) {
+            // Nothing changed, the source file can be copied
+            return null;
+        }
+        return edit;
     }
 
-    private static TextEdit combineEdit(TextEdit before, TextEdit edit) {
+    static TextEdit combineEdit(TextEdit before, TextEdit edit) {
         if (before == null) {
             return edit;
         }
@@ -106,17 +214,12 @@ private static TextEdit combineEdit(TextEdit before, TextEdit edit) {
         return before;
     }
 
-    @Override
-    void process(List<SourceProcessor> processors) throws Exception {
-        super.process(processors);
-
-        Path outputDir = getMercury().getOutputDir();
-
-        String path = this.primaryType + JAVA_EXTENSION;
-        if (!this.packageName.isEmpty()) {
+    static Path resolveOutputFile(Path outputDir, String packageName, String primaryType) {
+        String path = primaryType + JAVA_EXTENSION;
+        if (!packageName.isEmpty()) {
             StringJoiner joiner = new StringJoiner(outputDir.getFileSystem().getSeparator());
 
-            for (String part : this.packageName.split("\\.")) {
+            for (String part : packageName.split("\\.")) {
                 joiner.add(part);
             }
             joiner.add(path);
@@ -124,23 +227,61 @@ void process(List<SourceProcessor> processors) throws Exception {
             path = joiner.toString();
         }
 
-        Path outputFile = outputDir.resolve(path);
-        Files.createDirectories(outputFile.getParent());
+        return outputDir.resolve(path);
+    }
 
-        TextEdit edit = rewrite();
-        if (edit == null) {
-            // Copy original source file
-            Files.copy(getSourceFile(), outputFile, StandardCopyOption.REPLACE_EXISTING);
-            return;
+    @Override
+    void process(List<SourceProcessor> processors) throws Exception {
+        super.process(processors);
+        if (this.outputDir != null) {
+            write();
         }
+    }
 
-        // Save the rewritten source file
+    String rewriteSource() throws Exception {
         Document document = loadDocument();
-        edit.apply(document, TextEdit.NONE);
+        TextEdit edit = rewrite();
+        if (this.deferredEdits != null) {
+            for (DeferredEdit deferredEdit : this.deferredEdits) {
+                edit = combineEdit(edit, deferredEdit.compute(document));
+            }
+        }
+
+        if (edit != null) {
+            edit.apply(document, TextEdit.NONE);
+        }
+        return document.get();
+    }
+
+    void write() throws Exception {
+        Path outputFile = resolveOutputFile(this.outputDir, this.packageName, this.primaryType);
 
-        try (OutputStreamWriter writer = new OutputStreamWriter(Files.newOutputStream(outputFile), getMercury().getEncoding())) {
-            writer.write(document.get());
+        TextEdit edit = rewrite();
+        PendingOutput output = new PendingOutput(getSourceFile(), outputFile, getMercury().getEncoding(), edit, this.deferredEdits,
+                getMercury().getOutputListener());
+        if (getMercury().isAnalyzing()) {
+            getMercury().defer(output);
+        } else {
+            output.write(edit != null || this.deferredEdits != null ? loadDocument() : null);
         }
     }
 
+    /**
+     * Edits to a source file that depend on the results of the analysis
+     * processors.
+     */
+    @FunctionalInterface
+    public interface DeferredEdit {
+
+        /**
+         * Computes the edits to the original source file.
+         *
+         * @param document The original source file
+         * @return The edits, or {@code null} if nothing changes
+         * @throws Exception If an error occurs while computing the edits
+         */
+        TextEdit compute(Document document) throws Exception;
+
+    }
+
 }
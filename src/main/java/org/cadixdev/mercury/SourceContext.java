@@ -10,7 +10,9 @@
 
 package org.cadixdev.mercury;
 
+import org.cadixdev.mercury.util.BindingNames;
 import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.ITypeBinding;
 import org.eclipse.jdt.core.dom.PackageDeclaration;
 import org.eclipse.jface.text.Document;
 
@@ -18,6 +20,7 @@
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 
 public class SourceContext {
@@ -31,6 +34,8 @@ public class SourceContext {
     String primaryType;
 
     private Document document;
+    private List<RewriteContext> targets;
+    private BindingNames bindingNames = new BindingNames();
 
     SourceContext(Mercury mercury, Path sourceFile, CompilationUnit compilationUnit, String primaryType) {
         this.mercury = mercury;
@@ -70,6 +75,28 @@ public final String getQualifiedPrimaryType() {
         }
     }
 
+    /**
+     * Gets the binary name of a type binding from this compilation unit.
+     * The name is cached for all processors.
+     *
+     * @param binding The type binding
+     * @return The binary name, or {@code null} if the type has none
+     */
+    public final String getBinaryName(ITypeBinding binding) {
+        return this.bindingNames.getBinaryName(binding);
+    }
+
+    /**
+     * Gets the internal name of a type binding from this compilation unit.
+     * The name is cached for all processors.
+     *
+     * @param binding The type binding
+     * @return The internal name, or {@code null} if the type has no binary name
+     */
+    public final String getInternalName(ITypeBinding binding) {
+        return this.bindingNames.getInternalName(binding);
+    }
+
     public final Document loadDocument() throws IOException {
         if (this.document == null) {
             this.document = new Document(new String(Files.readAllBytes(this.sourceFile), this.mercury.getEncoding()));
@@ -77,10 +104,40 @@ public final Document loadDocument() throws IOException {
         return this.document;
     }
 
+    void setDocument(Document document) {
+        this.document = document;
+    }
+
+    /**
+     * Creates an additional {@link RewriteContext} for the same compilation
+     * unit, which is written to the given output directory once all
+     * processors are done. This allows rewriting a source file in several
+     * different ways while only parsing it once.
+     *
+     * @param outputDir The output directory for the target
+     * @return The rewrite context for the target
+     */
+    public final RewriteContext createTarget(Path outputDir) {
+        RewriteContext target = new RewriteContext(this.mercury, this.sourceFile, this.compilationUnit,
+                Mercury.getPrimaryType(this.sourceFile), outputDir);
+        target.bindingNames = this.bindingNames;
+        if (this.targets == null) {
+            this.targets = new ArrayList<>();
+        }
+        this.targets.add(target);
+        return target;
+    }
+
     void process(List<SourceProcessor> processors) throws Exception {
         for (SourceProcessor processor : processors) {
             processor.process(this);
         }
+
+        if (this.targets != null) {
+            for (RewriteContext target : this.targets) {
+                target.write();
+            }
+        }
     }
 
 }
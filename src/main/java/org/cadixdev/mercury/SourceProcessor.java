@@ -10,9 +10,31 @@
 
 package org.cadixdev.mercury;
 
+import org.cadixdev.mercury.analysis.SourceSummary;
+
 public interface SourceProcessor {
 
     int FLAG_RESOLVE_BINDINGS = 1 << 0;
+    /**
+     * Indicates that the processor only needs the declarations of the source
+     * files. Method bodies are only skipped if all processors set this flag,
+     * in which case local and anonymous classes are not part of the AST.
+     */
+    int FLAG_IGNORE_METHOD_BODIES = 1 << 1;
+    /**
+     * Indicates that the processor analyses the source files for the other
+     * processors. In a run with both analysis and other processors, the
+     * analysis processors are finished before any rewritten source file is
+     * written, so the other processors can defer work that depends on the
+     * analysis with {@link RewriteContext#afterAnalysis(RewriteContext.DeferredEdit)}.
+     */
+    int FLAG_ANALYSIS = 1 << 2;
+    /**
+     * Indicates that the processor does not need the contents of Javadoc
+     * comments. Doc comments are only parsed into tags if at least one
+     * processor does not set this flag.
+     */
+    int FLAG_IGNORE_JAVADOC = 1 << 3;
 
     default int getFlags() {
         return 0;
@@ -21,6 +43,20 @@ default int getFlags() {
     default void initialize(Mercury mercury) throws Exception {
     }
 
+    /**
+     * Checks if the processor may need to process the source file with the
+     * given summary. This is only called if {@link Mercury#isFilePruning()
+     * file pruning} is enabled, and must be conservative: files that no
+     * processor wants to process are not parsed at all, and the remaining
+     * files are not passed to processors that do not want to process them.
+     *
+     * @param summary The summary of the source file
+     * @return {@code true} if the file may need to be processed
+     */
+    default boolean shouldProcess(SourceSummary summary) {
+        return true;
+    }
+
     void process(SourceContext context) throws Exception;
 
     default void finish(Mercury mercury) throws Exception {
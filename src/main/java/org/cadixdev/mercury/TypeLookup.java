@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+import static org.cadixdev.mercury.Mercury.JAVA_EXTENSION;
+
+import org.cadixdev.mercury.classpath.ClassPathIndex;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks whether types named in the source files exist on the class path,
+ * in the source roots or in the Java platform, without parsing anything.
+ */
+final class TypeLookup {
+
+    private static final ClassLoader PLATFORM_LOADER = ClassLoader.getSystemClassLoader().getParent();
+
+    private final ClassPathIndex classPath;
+    private final List<Path> sourceRoots;
+    private final Map<String, Boolean> types = new HashMap<>();
+
+    TypeLookup(ClassPathIndex classPath, List<Path> sourceRoots) {
+        this.classPath = classPath;
+        this.sourceRoots = sourceRoots;
+    }
+
+    /**
+     * Checks whether the given package exists. Platform packages cannot be
+     * listed, so packages in the {@code java} and {@code javax} namespaces
+     * are assumed to exist.
+     *
+     * @param packageName The dot separated package name
+     * @return {@code true} if the package exists
+     */
+    boolean hasPackage(String packageName) {
+        if (packageName.startsWith("java.") || packageName.startsWith("javax.") || this.classPath.hasPackage(packageName)) {
+            return true;
+        }
+
+        String path = packageName.replace('.', '/');
+        for (Path root : this.sourceRoots) {
+            if (Files.isDirectory(root.resolve(path))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the given type exists. Since it is not known which part
+     * of the name is the package, every split point is tried, with the
+     * remaining parts as nested types.
+     *
+     * @param typeName The fully qualified, dot separated type name
+     * @return {@code true} if the type exists
+     * @throws IOException If an error occurs while reading the class path
+     */
+    boolean hasType(String typeName) throws IOException {
+        Boolean result = this.types.get(typeName);
+        if (result == null) {
+            result = findType(typeName);
+            this.types.put(typeName, result);
+        }
+        return result;
+    }
+
+    private boolean findType(String typeName) throws IOException {
+        for (int pos = typeName.lastIndexOf('.'); pos != -1; pos = typeName.lastIndexOf('.', pos - 1)) {
+            String packagePath = typeName.substring(0, pos).replace('.', '/');
+            String nestedName = typeName.substring(pos + 1);
+            String binaryName = packagePath + '/' + nestedName.replace('.', '$');
+
+            if (this.classPath.hasClass(binaryName)
+                    || PLATFORM_LOADER != null && PLATFORM_LOADER.getResource(binaryName + ".class") != null) {
+                return true;
+            }
+
+            int end = nestedName.indexOf('.');
+            String topLevelName = end == -1 ? nestedName : nestedName.substring(0, end);
+            for (Path root : this.sourceRoots) {
+                if (Files.isRegularFile(root.resolve(packagePath).resolve(topLevelName + JAVA_EXTENSION))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+}
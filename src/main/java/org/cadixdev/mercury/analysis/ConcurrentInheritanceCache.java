@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.analysis;
+
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe cache for an {@link InheritanceProvider}. Each class is only
+ * provided once by the underlying provider, even if several threads request
+ * it at the same time. Other classes can be provided concurrently.
+ *
+ * <p>The cache can optionally be bounded, in which case the classes that
+ * were provided first are evicted once the cache is full. Classes that are
+ * still being provided are never evicted, so the cache may temporarily
+ * exceed its maximum size.</p>
+ */
+public final class ConcurrentInheritanceCache implements InheritanceProvider {
+
+    private final InheritanceProvider provider;
+    private final int maximumSize;
+
+    private final ConcurrentHashMap<String, FutureTask<Optional<ClassInfo>>> classes = new ConcurrentHashMap<>();
+    // One entry for each class added to the cache, in insertion order
+    private final Queue<Entry> order = new ConcurrentLinkedQueue<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a new cache.
+     *
+     * @param provider The underlying provider
+     * @param maximumSize The maximum number of cached classes, or {@code 0}
+     *     if the cache should not be bounded
+     */
+    public ConcurrentInheritanceCache(InheritanceProvider provider, int maximumSize) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("maximumSize must not be negative: " + maximumSize);
+        }
+
+        this.provider = Objects.requireNonNull(provider, "provider");
+        this.maximumSize = maximumSize;
+    }
+
+    @Override
+    public Optional<ClassInfo> provide(String klass) {
+        return provide(klass, null);
+    }
+
+    @Override
+    public Optional<ClassInfo> provide(String klass, Object context) {
+        FutureTask<Optional<ClassInfo>> task = this.classes.get(klass);
+        if (task != null) {
+            this.hits.increment();
+        } else {
+            FutureTask<Optional<ClassInfo>> newTask = new FutureTask<>(() -> context != null
+                    ? this.provider.provide(klass, context)
+                    : this.provider.provide(klass));
+            task = this.classes.putIfAbsent(klass, newTask);
+            if (task != null) {
+                // Another thread is providing the class already
+                this.hits.increment();
+            } else {
+                task = newTask;
+                this.misses.increment();
+                task.run();
+                if (this.maximumSize != 0) {
+                    this.order.add(new Entry(klass, task));
+                    evict();
+                }
+            }
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while providing " + klass, e);
+        } catch (ExecutionException e) {
+            // Allow the class to be provided again
+            this.classes.remove(klass, task);
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Failed to provide " + klass, cause);
+        }
+    }
+
+    private void evict() {
+        Iterator<Entry> iterator = this.order.iterator();
+        while (this.classes.size() > this.maximumSize && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (!entry.task.isDone()) {
+                // Other threads may be waiting for the class
+                continue;
+            }
+
+            iterator.remove();
+            // The class may have been removed or provided again in the meantime
+            if (this.classes.remove(entry.klass, entry.task)) {
+                this.evictions.increment();
+            }
+        }
+    }
+
+    public int getMaximumSize() {
+        return this.maximumSize;
+    }
+
+    public int size() {
+        return this.classes.size();
+    }
+
+    /**
+     * Gets the number of requests that were answered from the cache,
+     * including those that waited for another thread to provide the class.
+     *
+     * @return The number of cache hits
+     */
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    /**
+     * Gets the number of requests that had to be passed to the underlying
+     * provider.
+     *
+     * @return The number of cache misses
+     */
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return this.evictions.sum();
+    }
+
+    public void invalidate() {
+        this.classes.clear();
+        this.order.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "ConcurrentInheritanceCache{size=" + size() + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount() + '}';
+    }
+
+    private static final class Entry {
+
+        private final String klass;
+        private final FutureTask<Optional<ClassInfo>> task;
+
+        private Entry(String klass, FutureTask<Optional<ClassInfo>> task) {
+            this.klass = klass;
+            this.task = task;
+        }
+
+    }
+
+}
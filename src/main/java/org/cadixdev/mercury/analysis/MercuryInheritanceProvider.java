@@ -10,31 +10,55 @@
 
 package org.cadixdev.mercury.analysis;
 
-import org.cadixdev.bombe.analysis.CachingInheritanceProvider;
 import org.cadixdev.bombe.analysis.InheritanceProvider;
 import org.cadixdev.bombe.analysis.InheritanceType;
 import org.cadixdev.bombe.type.signature.FieldSignature;
+import org.cadixdev.bombe.type.signature.MemberSignature;
 import org.cadixdev.bombe.type.signature.MethodSignature;
 import org.cadixdev.mercury.Mercury;
+import org.cadixdev.mercury.classpath.ClassFileReader;
+import org.cadixdev.mercury.util.BindingNames;
 import org.cadixdev.mercury.util.BombeBindings;
+import org.eclipse.jdt.core.dom.IBinding;
 import org.eclipse.jdt.core.dom.ITypeBinding;
 import org.eclipse.jdt.core.dom.IVariableBinding;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class MercuryInheritanceProvider implements InheritanceProvider {
 
     private final Mercury mercury;
+    // The provided class infos are cached for the run, and hold on to their bindings anyway
+    private final BindingNames names = new BindingNames();
 
+    /**
+     * Gets the inheritance provider shared by all processors of the current
+     * run. The classes are cached in a {@link ConcurrentInheritanceCache},
+     * bounded by the {@link Mercury#getInheritanceCacheSize() cache size}.
+     *
+     * @param mercury The Mercury instance
+     * @return The inheritance provider
+     */
     public static InheritanceProvider get(Mercury mercury) {
         return (InheritanceProvider) mercury.getContext().computeIfAbsent(InheritanceProvider.class,
-                i -> new CachingInheritanceProvider(new MercuryInheritanceProvider(mercury)));
+                i -> new ConcurrentInheritanceCache(new MercuryInheritanceProvider(mercury), mercury.getInheritanceCacheSize()));
     }
 
     private MercuryInheritanceProvider(Mercury mercury) {
@@ -43,33 +67,79 @@ private MercuryInheritanceProvider(Mercury mercury) {
 
     @Override
     public Optional<ClassInfo> provide(String klass) {
+        if (this.mercury.isClassFileInheritance() && !isSourceClass(klass)) {
+            ClassInfo info = readClassFile(klass);
+            if (info != null) {
+                return Optional.of(info);
+            }
+        }
         return this.mercury.createTypeBinding(klass).map(this::provide);
     }
 
     @Override
     public Optional<ClassInfo> provide(String klass, Object context) {
         if (context instanceof ITypeBinding) {
+            ITypeBinding binding = (ITypeBinding) context;
+            if (this.mercury.isClassFileInheritance() && !binding.isFromSource()) {
+                ClassInfo info = readClassFile(klass);
+                if (info != null) {
+                    return Optional.of(info);
+                }
+            }
+
             // Avoid looking up binding if it is provided in context
-            return Optional.of(provide((ITypeBinding) context));
+            return Optional.of(provide(binding));
         } else {
             return provide(klass);
         }
     }
 
+    private boolean isSourceClass(String klass) {
+        int end = klass.indexOf('$');
+        String path = (end == -1 ? klass : klass.substring(0, end)) + Mercury.JAVA_EXTENSION;
+
+        Path sourceDir = this.mercury.getSourceDir();
+        if (sourceDir != null && Files.isRegularFile(sourceDir.resolve(path))) {
+            return true;
+        }
+        for (Path root : this.mercury.getSourcePath()) {
+            if (Files.isRegularFile(root.resolve(path))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ClassInfo readClassFile(String klass) {
+        try {
+            byte[] bytes = this.mercury.getClassPathIndex().readClass(klass).orElse(null);
+            return bytes != null ? new ClassFileInfo(new ClassFileReader(bytes)).lazy() : null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read class file of " + klass, e);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Invalid class file of " + klass, e);
+        }
+    }
+
     public ClassInfo provide(ITypeBinding binding) {
-        return new BindingClassInfo(binding.getErasure()).lazy();
+        return new BindingClassInfo(this.names, binding.getErasure()).lazy();
     }
 
     private static class BindingClassInfo extends ClassInfo.Abstract {
 
+        private final BindingNames names;
         private final ITypeBinding binding;
 
-        private BindingClassInfo(ITypeBinding binding) {
+        private BindingClassInfo(BindingNames names, ITypeBinding binding) {
+            this.names = names;
             this.binding = binding;
         }
 
-        private static String getInternalName(ITypeBinding binding) {
-            return binding.getBinaryName().replace('.', '/');
+        private String getInternalName(ITypeBinding binding) {
+            // The class infos may be used by several threads
+            synchronized (this.names) {
+                return this.names.getInternalName(binding);
+            }
         }
 
         @Override
@@ -91,14 +161,13 @@ public String getSuperName() {
         @Override
         public List<String> getInterfaces() {
             return Collections.unmodifiableList(Arrays.stream(this.binding.getInterfaces())
-                    .map(BindingClassInfo::getInternalName)
+                    .map(this::getInternalName)
                     .collect(Collectors.toList()));
         }
 
         @Override
         public Map<FieldSignature, InheritanceType> getFields() {
-            return Collections.unmodifiableMap(Arrays.stream(this.binding.getDeclaredFields())
-                    .collect(Collectors.toMap(BombeBindings::convertSignature, f -> InheritanceType.fromModifiers(f.getModifiers()))));
+            return new MemberMap<>(this.binding.getDeclaredFields(), IVariableBinding::getName, BombeBindings::convertSignature);
         }
 
         @Override
@@ -109,8 +178,7 @@ public Map<String, InheritanceType> getFieldsByName() {
 
         @Override
         public Map<MethodSignature, InheritanceType> getMethods() {
-            return Collections.unmodifiableMap(Arrays.stream(this.binding.getDeclaredMethods())
-                    .collect(Collectors.toMap(BombeBindings::convertSignature, m -> InheritanceType.fromModifiers(m.getModifiers()))));
+            return new MemberMap<>(this.binding.getDeclaredMethods(), BombeBindings::getBinaryName, BombeBindings::convertSignature);
         }
 
         private void provideParent(InheritanceProvider provider, ITypeBinding parent, Collection<ClassInfo> parents) {
@@ -135,4 +203,149 @@ public void provideParents(InheritanceProvider provider, Collection<ClassInfo> p
 
     }
 
+    /**
+     * The inheritance of a library class, read from its class file. Unlike
+     * bindings, class files contain synthetic members and static
+     * initializers, which are skipped.
+     */
+    private static class ClassFileInfo extends ClassInfo.Abstract {
+
+        private static final int ACC_INTERFACE = 0x0200;
+        private static final int ACC_SYNTHETIC = 0x1000;
+
+        private final ClassFileReader reader;
+
+        private ClassFileInfo(ClassFileReader reader) {
+            this.reader = reader;
+        }
+
+        private static boolean isDeclared(ClassFileReader.Member member) {
+            return (member.getAccess() & ACC_SYNTHETIC) == 0 && !member.getName().equals("<clinit>");
+        }
+
+        @Override
+        public String getName() {
+            return this.reader.getClassName();
+        }
+
+        @Override
+        public boolean isInterface() {
+            return (this.reader.getAccess() & ACC_INTERFACE) != 0;
+        }
+
+        @Override
+        public String getSuperName() {
+            // Like bindings, interfaces have no super class
+            String superName = isInterface() ? null : this.reader.getSuperName();
+            return superName != null ? superName : "";
+        }
+
+        @Override
+        public List<String> getInterfaces() {
+            return this.reader.getInterfaces();
+        }
+
+        @Override
+        public Map<FieldSignature, InheritanceType> getFields() {
+            return Collections.unmodifiableMap(this.reader.getFields().stream()
+                    .filter(ClassFileInfo::isDeclared)
+                    .collect(Collectors.toMap(f -> FieldSignature.of(f.getName(), f.getDescriptor()),
+                            f -> InheritanceType.fromModifiers(f.getAccess()), (a, b) -> a, LinkedHashMap::new)));
+        }
+
+        @Override
+        public Map<String, InheritanceType> getFieldsByName() {
+            return Collections.unmodifiableMap(this.reader.getFields().stream()
+                    .filter(ClassFileInfo::isDeclared)
+                    .collect(Collectors.toMap(ClassFileReader.Member::getName,
+                            f -> InheritanceType.fromModifiers(f.getAccess()), (a, b) -> a, LinkedHashMap::new)));
+        }
+
+        @Override
+        public Map<MethodSignature, InheritanceType> getMethods() {
+            return Collections.unmodifiableMap(this.reader.getMethods().stream()
+                    .filter(ClassFileInfo::isDeclared)
+                    .collect(Collectors.toMap(m -> MethodSignature.of(m.getName(), m.getDescriptor()),
+                            m -> InheritanceType.fromModifiers(m.getAccess()), (a, b) -> a, LinkedHashMap::new)));
+        }
+
+    }
+
+    /**
+     * The declared members of a class by their signature. Converting the
+     * signature of a member is expensive, and the mappings usually only
+     * query a few members of a class, so the members are indexed by name
+     * and only the signatures of members with the queried name are
+     * converted. All signatures are only converted when the map is iterated.
+     */
+    private static final class MemberMap<B extends IBinding, S extends MemberSignature> extends AbstractMap<S, InheritanceType> {
+
+        private final B[] members;
+        private final Function<B, String> name;
+        private final Function<B, S> signature;
+
+        private Map<String, List<B>> byName;
+        private final Map<B, S> signatures = new IdentityHashMap<>();
+        private Set<Entry<S, InheritanceType>> entries;
+
+        private MemberMap(B[] members, Function<B, String> name, Function<B, S> signature) {
+            this.members = members;
+            this.name = name;
+            this.signature = signature;
+        }
+
+        private S getSignature(B member) {
+            return this.signatures.computeIfAbsent(member, this.signature);
+        }
+
+        @Override
+        public synchronized InheritanceType get(Object key) {
+            if (!(key instanceof MemberSignature)) {
+                return null;
+            }
+
+            if (this.byName == null) {
+                this.byName = new HashMap<>();
+                for (B member : this.members) {
+                    this.byName.computeIfAbsent(this.name.apply(member), n -> new ArrayList<>(1)).add(member);
+                }
+            }
+
+            List<B> candidates = this.byName.get(((MemberSignature) key).getName());
+            if (candidates != null) {
+                for (B candidate : candidates) {
+                    if (getSignature(candidate).equals(key)) {
+                        return InheritanceType.fromModifiers(candidate.getModifiers());
+                    }
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            // Every member has an entry, so the signatures are not needed
+            return this.members.length == 0;
+        }
+
+        @Override
+        public synchronized Set<Entry<S, InheritanceType>> entrySet() {
+            if (this.entries == null) {
+                Map<S, InheritanceType> result = new LinkedHashMap<>();
+                for (B member : this.members) {
+                    // Keep the first member with the signature, like get
+                    result.putIfAbsent(getSignature(member), InheritanceType.fromModifiers(member.getModifiers()));
+                }
+                this.entries = Collections.unmodifiableMap(result).entrySet();
+            }
+            return this.entries;
+        }
+
+    }
+
 }
@@ -0,0 +1,536 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.analysis;
+
+import org.cadixdev.mercury.Mercury;
+import org.eclipse.jdt.core.dom.IBinding;
+import org.eclipse.jdt.core.dom.IMethodBinding;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+import org.eclipse.jdt.core.dom.IVariableBinding;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * An index of the classes and members referenced by each source file,
+ * recorded by the remapper while it resolves the bindings of a run.
+ *
+ * <p>Symbols are identified by the internal name of a class
+ * ({@code com/example/Outer$Inner}), or by the internal name of the
+ * declaring class followed by the name and descriptor of a member
+ * ({@code com/example/Test.field:I} and {@code com/example/Test.method(I)V}).
+ * Source files are identified by their path relative to the source
+ * directory, separated with {@code /}.</p>
+ *
+ * <p>The index is stored with its symbols sorted, so it can be queried
+ * with a binary search without decoding it entirely. It is read into a heap
+ * buffer rather than memory mapped, since a mapping cannot be released
+ * explicitly and would prevent rewriting the file on some platforms.</p>
+ *
+ * <p>If the remapper only resolved the names that may be changed by its
+ * mappings, the index is {@linkplain #isFiltered() filtered}, and only
+ * contains the references with these names.</p>
+ */
+public final class ReferenceIndex {
+
+    private static final int MAGIC = 0x4D524546; // MREF
+    private static final int VERSION = 2;
+
+    private static final int FLAG_FILTERED = 1;
+
+    private static final int HEADER_SIZE = 20;
+    private static final int SYMBOL_SIZE = 12;
+
+    public static ReferenceIndex open(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a reference index: " + file);
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported reference index version " + buffer.getInt(4) + ": " + file);
+        }
+        return new ReferenceIndex(buffer);
+    }
+
+    private final ByteBuffer buffer;
+    private final int flags;
+    private final int fileCount;
+    private final int symbolCount;
+    private final int symbolsOffset;
+    private final int referencesOffset;
+    private final int stringsOffset;
+
+    private ReferenceIndex(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.fileCount = buffer.getInt(8);
+        this.symbolCount = buffer.getInt(12);
+        this.flags = buffer.getInt(16);
+        this.symbolsOffset = HEADER_SIZE + this.fileCount * 4;
+
+        int references = 0;
+        if (this.symbolCount > 0) {
+            int last = this.symbolsOffset + (this.symbolCount - 1) * SYMBOL_SIZE;
+            references = buffer.getInt(last + 4) + buffer.getInt(last + 8);
+        }
+
+        this.referencesOffset = this.symbolsOffset + this.symbolCount * SYMBOL_SIZE;
+        this.stringsOffset = this.referencesOffset + references * 4;
+    }
+
+    /**
+     * Checks if only the references with names that may be changed by the
+     * mappings of the run were recorded.
+     *
+     * @return {@code true} if the references were filtered by name
+     */
+    public boolean isFiltered() {
+        return (this.flags & FLAG_FILTERED) != 0;
+    }
+
+    /**
+     * Gets all source files in the index.
+     *
+     * @return The source files
+     */
+    public List<String> getFiles() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                if (index < 0 || index >= size()) {
+                    throw new IndexOutOfBoundsException(Integer.toString(index));
+                }
+                return getFile(index);
+            }
+
+            @Override
+            public int size() {
+                return ReferenceIndex.this.fileCount;
+            }
+        };
+    }
+
+    /**
+     * Finds the source files that reference the given symbol.
+     *
+     * @param symbol The class or member symbol
+     * @return The source files referencing the symbol
+     */
+    public List<String> findFiles(String symbol) {
+        byte[] key = symbol.getBytes(StandardCharsets.UTF_8);
+        int i = lowerBound(key);
+        if (i == this.symbolCount || compare(i, key, false) != 0) {
+            return Collections.emptyList();
+        }
+
+        List<String> result = new ArrayList<>();
+        collectFiles(i, result);
+        return result;
+    }
+
+    /**
+     * Finds the source files that reference any symbol starting with the
+     * given prefix. For example, {@code com/example/Test.} matches all
+     * members of a class.
+     *
+     * @param prefix The prefix of the symbols
+     * @return The source files referencing a matching symbol
+     */
+    public Set<String> findFilesByPrefix(String prefix) {
+        byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+        Set<String> result = new TreeSet<>();
+        for (int i = lowerBound(key); i < this.symbolCount && compare(i, key, true) == 0; i++) {
+            collectFiles(i, result);
+        }
+        return result;
+    }
+
+    /**
+     * Finds the source files that reference any symbol with one of the given
+     * simple names, i.e. the simple name of a class or the name of a member.
+     * Unlike the other lookups, this checks every symbol in the index.
+     *
+     * @param names The simple names
+     * @return The source files referencing a symbol with one of the names
+     */
+    public Set<String> findFilesByName(Set<String> names) {
+        Set<String> result = new TreeSet<>();
+        if (names.isEmpty()) {
+            return result;
+        }
+
+        for (int i = 0; i < this.symbolCount; i++) {
+            if (names.contains(getSimpleName(getSymbol(i)))) {
+                collectFiles(i, result);
+            }
+        }
+        return result;
+    }
+
+    private static String getSimpleName(String symbol) {
+        int member = symbol.indexOf('.');
+        if (member >= 0) {
+            int end = member + 1;
+            while (end < symbol.length() && symbol.charAt(end) != ':' && symbol.charAt(end) != '(') {
+                end++;
+            }
+            return symbol.substring(member + 1, end);
+        }
+        return symbol.substring(Math.max(symbol.lastIndexOf('/'), symbol.lastIndexOf('$')) + 1);
+    }
+
+    private void collectFiles(int symbol, Collection<String> result) {
+        int entry = this.symbolsOffset + symbol * SYMBOL_SIZE;
+        int first = this.buffer.getInt(entry + 4);
+        int count = this.buffer.getInt(entry + 8);
+        for (int i = 0; i < count; i++) {
+            result.add(getFile(this.buffer.getInt(this.referencesOffset + (first + i) * 4)));
+        }
+    }
+
+    private int lowerBound(byte[] key) {
+        int low = 0;
+        int high = this.symbolCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(mid, key, false) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compares the symbol at the given index with the key, by the unsigned
+     * values of their UTF-8 bytes.
+     */
+    private int compare(int symbol, byte[] key, boolean prefix) {
+        int offset = this.stringsOffset + this.buffer.getInt(this.symbolsOffset + symbol * SYMBOL_SIZE);
+        int length = this.buffer.getInt(offset);
+        offset += 4;
+
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int c = Integer.compare(this.buffer.get(offset + i) & 0xFF, key[i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return prefix && length >= key.length ? 0 : Integer.compare(length, key.length);
+    }
+
+    private String getSymbol(int symbol) {
+        return readString(this.buffer.getInt(this.symbolsOffset + symbol * SYMBOL_SIZE));
+    }
+
+    private String getFile(int index) {
+        return readString(this.buffer.getInt(HEADER_SIZE + index * 4));
+    }
+
+    private String readString(int offset) {
+        offset += this.stringsOffset;
+        byte[] bytes = new byte[this.buffer.getInt(offset)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = this.buffer.get(offset + 4 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int compareUnsigned(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            int c = Integer.compare(a[i] & 0xFF, b[i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(a.length, b.length);
+    }
+
+    /**
+     * Collects the references of the source files in a run, and writes them
+     * as a {@link ReferenceIndex}.
+     */
+    public static final class Builder {
+
+        /**
+         * Gets the builder of the current run of the given Mercury instance.
+         *
+         * @param mercury The Mercury instance
+         * @return The builder, or empty if no reference index is written
+         */
+        public static Optional<Builder> get(Mercury mercury) {
+            return Optional.ofNullable((Builder) mercury.getContext().get(Builder.class));
+        }
+
+        private final Path sourceDir;
+        private final List<String> files = new ArrayList<>();
+        private final Map<String, Integer> fileIndices = new HashMap<>();
+        private final Map<String, List<Integer>> references = new HashMap<>();
+        private boolean filtered;
+
+        public Builder(Path sourceDir) {
+            this.sourceDir = sourceDir;
+        }
+
+        /**
+         * Marks the index as {@linkplain ReferenceIndex#isFiltered() filtered}.
+         */
+        public void setFiltered() {
+            this.filtered = true;
+        }
+
+        /**
+         * Adds a source file to the index.
+         *
+         * @param sourceFile The source file
+         * @return The index of the source file, used to add references
+         */
+        public int addFile(Path sourceFile) {
+            return addFile(this.sourceDir.relativize(sourceFile).toString().replace(sourceFile.getFileSystem().getSeparator(), "/"));
+        }
+
+        private int addFile(String name) {
+            return this.fileIndices.computeIfAbsent(name, n -> {
+                this.files.add(n);
+                return this.files.size() - 1;
+            });
+        }
+
+        /**
+         * Adds a reference from a source file to the class or member of the
+         * given binding. Bindings of packages, local variables and parameters
+         * are ignored.
+         *
+         * @param file The index of the source file
+         * @param binding The binding of the reference
+         */
+        public void addReference(int file, IBinding binding) {
+            String symbol = getSymbol(binding);
+            if (symbol != null) {
+                addReference(file, symbol);
+            }
+        }
+
+        public void addReference(int file, String symbol) {
+            List<Integer> files = this.references.computeIfAbsent(symbol, s -> new ArrayList<>());
+            // References are usually added for one file at a time
+            if (files.isEmpty() || files.get(files.size() - 1) != file) {
+                files.add(file);
+            }
+        }
+
+        /**
+         * Adds the references of the given source files from an existing
+         * index, e.g. to keep the references of files that were not
+         * processed again.
+         *
+         * @param index The existing index
+         * @param files The source files to add the references of
+         */
+        public void addAll(ReferenceIndex index, Predicate<String> files) {
+            if (index.isFiltered()) {
+                this.filtered = true;
+            }
+
+            int[] fileIndices = new int[index.fileCount];
+            for (int i = 0; i < fileIndices.length; i++) {
+                String name = index.getFile(i);
+                fileIndices[i] = files.test(name) ? addFile(name) : -1;
+            }
+
+            for (int i = 0; i < index.symbolCount; i++) {
+                int entry = index.symbolsOffset + i * SYMBOL_SIZE;
+                int first = index.buffer.getInt(entry + 4);
+                int count = index.buffer.getInt(entry + 8);
+
+                String symbol = null;
+                for (int j = 0; j < count; j++) {
+                    int file = fileIndices[index.buffer.getInt(index.referencesOffset + (first + j) * 4)];
+                    if (file >= 0) {
+                        if (symbol == null) {
+                            symbol = index.getSymbol(i);
+                        }
+                        addReference(file, symbol);
+                    }
+                }
+            }
+        }
+
+        private static String getSymbol(IBinding binding) {
+            switch (binding.getKind()) {
+                case IBinding.TYPE:
+                    return getInternalName((ITypeBinding) binding);
+                case IBinding.METHOD: {
+                    IMethodBinding method = ((IMethodBinding) binding).getMethodDeclaration();
+                    String owner = method.getDeclaringClass() != null ? getInternalName(method.getDeclaringClass()) : null;
+                    if (owner == null) {
+                        return null;
+                    }
+
+                    StringBuilder symbol = new StringBuilder(owner).append('.')
+                            .append(method.isConstructor() ? "<init>" : method.getName()).append('(');
+                    for (ITypeBinding parameter : method.getParameterTypes()) {
+                        if (!appendDescriptor(symbol, parameter)) {
+                            return null;
+                        }
+                    }
+                    symbol.append(')');
+                    return appendDescriptor(symbol, method.getReturnType()) ? symbol.toString() : null;
+                }
+                case IBinding.VARIABLE: {
+                    IVariableBinding variable = ((IVariableBinding) binding).getVariableDeclaration();
+                    if (!variable.isField() || variable.getDeclaringClass() == null) {
+                        return null;
+                    }
+
+                    String owner = getInternalName(variable.getDeclaringClass());
+                    if (owner == null) {
+                        return null;
+                    }
+
+                    StringBuilder symbol = new StringBuilder(owner).append('.').append(variable.getName()).append(':');
+                    return appendDescriptor(symbol, variable.getType()) ? symbol.toString() : null;
+                }
+                default:
+                    return null;
+            }
+        }
+
+        private static String getInternalName(ITypeBinding binding) {
+            if (binding.isArray()) {
+                binding = binding.getElementType();
+            }
+            if (binding.isPrimitive() || binding.isTypeVariable() || binding.isCapture() || binding.isWildcardType()) {
+                return null;
+            }
+
+            String name = binding.getErasure().getBinaryName();
+            return name != null ? name.replace('.', '/') : null;
+        }
+
+        private static boolean appendDescriptor(StringBuilder builder, ITypeBinding binding) {
+            if (binding.isPrimitive()) {
+                builder.append(binding.getBinaryName());
+                return true;
+            }
+            if (binding.isArray()) {
+                for (int i = 0; i < binding.getDimensions(); i++) {
+                    builder.append('[');
+                }
+                return appendDescriptor(builder, binding.getElementType());
+            }
+
+            String name = binding.getErasure().getBinaryName();
+            if (name == null) {
+                return false;
+            }
+            builder.append('L').append(name.replace('.', '/')).append(';');
+            return true;
+        }
+
+        /**
+         * Writes the collected references to the given file. The index is
+         * written to a temporary file first, and then moved into place.
+         *
+         * @param file The file to write the index to
+         * @throws IOException If an I/O error occurs while writing the index
+         */
+        public void write(Path file) throws IOException {
+            byte[][] symbols = new byte[this.references.size()][];
+            int[][] indices = new int[symbols.length][];
+
+            List<Map.Entry<byte[], List<Integer>>> entries = new ArrayList<>(symbols.length);
+            for (Map.Entry<String, List<Integer>> entry : this.references.entrySet()) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey().getBytes(StandardCharsets.UTF_8), entry.getValue()));
+            }
+            entries.sort((a, b) -> compareUnsigned(a.getKey(), b.getKey()));
+
+            for (int i = 0; i < symbols.length; i++) {
+                symbols[i] = entries.get(i).getKey();
+                indices[i] = entries.get(i).getValue().stream().mapToInt(Integer::intValue).sorted().distinct().toArray();
+            }
+
+            byte[][] files = new byte[this.files.size()][];
+            for (int i = 0; i < files.length; i++) {
+                files[i] = this.files.get(i).getBytes(StandardCharsets.UTF_8);
+            }
+
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(files.length);
+                out.writeInt(symbols.length);
+                out.writeInt(this.filtered ? FLAG_FILTERED : 0);
+
+                // Offsets into the string table, which starts with the files
+                int offset = 0;
+                for (byte[] name : files) {
+                    out.writeInt(offset);
+                    offset += 4 + name.length;
+                }
+
+                int first = 0;
+                for (int i = 0; i < symbols.length; i++) {
+                    out.writeInt(offset);
+                    out.writeInt(first);
+                    out.writeInt(indices[i].length);
+                    offset += 4 + symbols[i].length;
+                    first += indices[i].length;
+                }
+
+                for (int[] symbolIndices : indices) {
+                    for (int index : symbolIndices) {
+                        out.writeInt(index);
+                    }
+                }
+
+                for (byte[] name : files) {
+                    out.writeInt(name.length);
+                    out.write(name);
+                }
+                for (byte[] symbol : symbols) {
+                    out.writeInt(symbol.length);
+                    out.write(symbol);
+                }
+            }
+
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+    }
+
+}
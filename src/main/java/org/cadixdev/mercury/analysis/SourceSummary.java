@@ -0,0 +1,452 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A summary of a Java source file, produced by a lightweight lexer without
+ * parsing the file. The summary is only an approximation, and should be used
+ * for conservative decisions.
+ */
+public final class SourceSummary {
+
+    static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const",
+            "continue", "default", "do", "double", "else", "enum", "extends", "false", "final", "finally",
+            "float", "for", "goto", "if", "implements", "import", "instanceof", "int", "interface", "long",
+            "native", "new", "null", "package", "private", "protected", "public", "return", "short", "static",
+            "strictfp", "super", "switch", "synchronized", "this", "throw", "throws", "transient", "true", "try",
+            "void", "volatile", "while"
+    ));
+
+    private static final Set<String> TYPE_KEYWORDS = new HashSet<>(Arrays.asList(
+            "class", "interface", "enum", "record"
+    ));
+
+    private static final String PACKAGE = "package";
+    private static final String IMPORT = "import";
+    private static final String STATIC = "static";
+
+    private static final String LITERAL = "\"";
+    private static final String NUMBER = "0";
+
+    public static SourceSummary scan(CharSequence source) {
+        return new Scanner(source).scan();
+    }
+
+    private final String packageName;
+    private final List<String> imports;
+    private final List<String> staticImports;
+    private final Set<String> qualifiedNames;
+    private final Set<String> identifiers;
+    private final List<String> typeNames;
+
+    private SourceSummary(String packageName, List<String> imports, List<String> staticImports,
+            Set<String> qualifiedNames, Set<String> identifiers, List<String> typeNames) {
+        this.packageName = packageName;
+        this.imports = Collections.unmodifiableList(imports);
+        this.staticImports = Collections.unmodifiableList(staticImports);
+        this.qualifiedNames = Collections.unmodifiableSet(qualifiedNames);
+        this.identifiers = Collections.unmodifiableSet(identifiers);
+        this.typeNames = Collections.unmodifiableList(typeNames);
+    }
+
+    /**
+     * Gets the name of the package declared in the source file.
+     *
+     * @return The package name, or an empty string for the default package
+     */
+    public String getPackageName() {
+        return this.packageName;
+    }
+
+    /**
+     * Gets the non-static imports, as written in the source file. On-demand
+     * imports end with {@code .*}.
+     *
+     * @return The imports
+     */
+    public List<String> getImports() {
+        return this.imports;
+    }
+
+    public List<String> getStaticImports() {
+        return this.staticImports;
+    }
+
+    /**
+     * Gets the dotted names starting with a lower case identifier used
+     * outside of the package and import declarations, including those in
+     * Javadoc comments, which may be fully qualified type references.
+     *
+     * @return The qualified names
+     */
+    public Set<String> getQualifiedNames() {
+        return this.qualifiedNames;
+    }
+
+    /**
+     * Gets all identifiers used in the source file, including those in
+     * Javadoc comments. Keywords are not included.
+     *
+     * @return The identifiers
+     */
+    public Set<String> getIdentifiers() {
+        return this.identifiers;
+    }
+
+    /**
+     * Gets the simple names of the top-level types declared in the source
+     * file. Nested types are not included.
+     *
+     * @return The type names
+     */
+    public List<String> getTypeNames() {
+        return this.typeNames;
+    }
+
+    /**
+     * Collects the names of all packages the source file may reference. Since
+     * it is not known which part of a qualified name is the package, all
+     * prefixes of imports and qualified names are included.
+     *
+     * @param packages The set to add the dot separated package names to
+     */
+    public void collectReferencedPackages(Set<String> packages) {
+        packages.add(this.packageName);
+        for (String name : this.imports) {
+            addPrefixes(name, packages);
+        }
+        for (String name : this.staticImports) {
+            addPrefixes(name, packages);
+        }
+        for (String name : this.qualifiedNames) {
+            addPrefixes(name, packages);
+        }
+    }
+
+    private static void addPrefixes(String name, Set<String> packages) {
+        for (int i = name.indexOf('.'); i != -1; i = name.indexOf('.', i + 1)) {
+            packages.add(name.substring(0, i));
+        }
+        if (!name.endsWith(".*")) {
+            packages.add(name);
+        }
+    }
+
+    static boolean isIdentifier(String token) {
+        return Character.isJavaIdentifierStart(token.charAt(0)) && !KEYWORDS.contains(token);
+    }
+
+    private static final class Scanner {
+
+        private final CharSequence source;
+        private final int length;
+        private int pos;
+
+        private String packageName = "";
+        private final List<String> imports = new ArrayList<>();
+        private final List<String> staticImports = new ArrayList<>();
+        private final Set<String> qualifiedNames = new HashSet<>();
+        private final Set<String> identifiers = new HashSet<>();
+        private final List<String> typeNames = new ArrayList<>();
+
+        private final StringBuilder sequence = new StringBuilder();
+        private int sequenceParts;
+        private boolean sequenceDot;
+
+        private Scanner(CharSequence source) {
+            this.source = source;
+            this.length = source.length();
+        }
+
+        SourceSummary scan() {
+            int depth = 0;
+            String previous = null;
+
+            for (String token = next(); token != null; previous = token, token = next()) {
+                if (depth == 0 && !".".equals(previous)) {
+                    if (token.equals(PACKAGE)) {
+                        flushSequence();
+                        this.packageName = readName(false);
+                        continue;
+                    }
+                    if (token.equals(IMPORT)) {
+                        flushSequence();
+                        readImport();
+                        continue;
+                    }
+                    if (previous != null && TYPE_KEYWORDS.contains(previous) && isIdentifier(token)) {
+                        this.typeNames.add(token);
+                    }
+                }
+
+                switch (token) {
+                    case "{":
+                        depth++;
+                        break;
+                    case "}":
+                        depth--;
+                        break;
+                }
+
+                updateSequence(token);
+            }
+
+            flushSequence();
+            return new SourceSummary(this.packageName, this.imports, this.staticImports, this.qualifiedNames, this.identifiers,
+                    this.typeNames);
+        }
+
+        private void readImport() {
+            int start = this.pos;
+            String token = next();
+            if (STATIC.equals(token)) {
+                this.staticImports.add(readName(true));
+            } else {
+                this.pos = start;
+                this.imports.add(readName(true));
+            }
+        }
+
+        private String readName(boolean allowWildcard) {
+            StringBuilder name = new StringBuilder();
+            for (String token = next(); token != null && !token.equals(";"); token = next()) {
+                if (token.equals(".") || isIdentifier(token) || allowWildcard && token.equals("*")) {
+                    name.append(token);
+                } else if (token.equals("@")) {
+                    // Skip annotation on package declaration, e.g. in package-info.java
+                    next();
+                }
+            }
+            return name.toString();
+        }
+
+        private void updateSequence(String token) {
+            if (token.equals(".")) {
+                if (this.sequenceParts > 0 && !this.sequenceDot) {
+                    this.sequenceDot = true;
+                } else {
+                    flushSequence();
+                }
+            } else if (isIdentifier(token)) {
+                if (this.sequenceDot) {
+                    this.sequence.append('.').append(token);
+                    this.sequenceParts++;
+                    this.sequenceDot = false;
+                } else {
+                    flushSequence();
+                    if (Character.isLowerCase(token.charAt(0))) {
+                        this.sequence.append(token);
+                        this.sequenceParts = 1;
+                    }
+                }
+            } else {
+                flushSequence();
+            }
+        }
+
+        private void flushSequence() {
+            if (this.sequenceParts > 1) {
+                this.qualifiedNames.add(this.sequence.toString());
+            }
+            this.sequence.setLength(0);
+            this.sequenceParts = 0;
+            this.sequenceDot = false;
+        }
+
+        private String next() {
+            while (this.pos < this.length) {
+                char c = this.source.charAt(this.pos);
+
+                if (Character.isWhitespace(c)) {
+                    this.pos++;
+                    continue;
+                }
+
+                if (c == '/' && this.pos + 1 < this.length) {
+                    char n = this.source.charAt(this.pos + 1);
+                    if (n == '/') {
+                        skipLineComment();
+                        continue;
+                    }
+                    if (n == '*') {
+                        skipBlockComment();
+                        continue;
+                    }
+                }
+
+                if (c == '"') {
+                    skipStringLiteral();
+                    return LITERAL;
+                }
+
+                if (c == '\'') {
+                    skipCharLiteral();
+                    return LITERAL;
+                }
+
+                if (Character.isJavaIdentifierStart(c)) {
+                    int start = this.pos++;
+                    while (this.pos < this.length && Character.isJavaIdentifierPart(this.source.charAt(this.pos))) {
+                        this.pos++;
+                    }
+                    String identifier = this.source.subSequence(start, this.pos).toString();
+                    if (!KEYWORDS.contains(identifier)) {
+                        this.identifiers.add(identifier);
+                    }
+                    return identifier;
+                }
+
+                if (Character.isDigit(c)) {
+                    skipNumber();
+                    return NUMBER;
+                }
+
+                this.pos++;
+                return String.valueOf(c);
+            }
+
+            return null;
+        }
+
+        private void skipLineComment() {
+            while (this.pos < this.length && this.source.charAt(this.pos) != '\n') {
+                this.pos++;
+            }
+        }
+
+        private void skipBlockComment() {
+            this.pos += 2;
+            // Javadoc comments may contain references, e.g. in @link tags
+            boolean javadoc = this.pos < this.length && this.source.charAt(this.pos) == '*';
+            int nameStart = -1;
+
+            while (this.pos + 1 < this.length && !(this.source.charAt(this.pos) == '*' && this.source.charAt(this.pos + 1) == '/')) {
+                if (javadoc) {
+                    char c = this.source.charAt(this.pos);
+                    if (nameStart == -1) {
+                        if (Character.isJavaIdentifierStart(c)) {
+                            nameStart = this.pos;
+                        }
+                    } else if (c != '.' && !Character.isJavaIdentifierPart(c)) {
+                        addJavadocName(this.source.subSequence(nameStart, this.pos).toString());
+                        nameStart = -1;
+                    }
+                }
+                this.pos++;
+            }
+
+            if (nameStart != -1) {
+                addJavadocName(this.source.subSequence(nameStart, this.pos).toString());
+            }
+            this.pos = Math.min(this.length, this.pos + 2);
+        }
+
+        private void addJavadocName(String name) {
+            // Dotted names may be fully qualified references, e.g. {@link com.example.Type}
+            StringBuilder qualifiedName = new StringBuilder();
+            int parts = 0;
+            for (String part : name.split("\\.")) {
+                if (part.isEmpty() || !Character.isJavaIdentifierStart(part.charAt(0))) {
+                    break;
+                }
+
+                this.identifiers.add(part);
+                if (parts++ > 0) {
+                    qualifiedName.append('.');
+                }
+                qualifiedName.append(part);
+            }
+
+            if (parts > 1 && Character.isLowerCase(qualifiedName.charAt(0))) {
+                this.qualifiedNames.add(qualifiedName.toString());
+            }
+        }
+
+        private boolean isTextBlock() {
+            return this.pos + 2 < this.length
+                    && this.source.charAt(this.pos + 1) == '"'
+                    && this.source.charAt(this.pos + 2) == '"';
+        }
+
+        private void skipStringLiteral() {
+            if (isTextBlock()) {
+                this.pos += 3;
+                while (this.pos < this.length) {
+                    char c = this.source.charAt(this.pos);
+                    if (c == '\\') {
+                        this.pos += 2;
+                    } else if (c == '"' && isTextBlock()) {
+                        this.pos += 3;
+                        return;
+                    } else {
+                        this.pos++;
+                    }
+                }
+                return;
+            }
+
+            this.pos++;
+            while (this.pos < this.length) {
+                char c = this.source.charAt(this.pos);
+                if (c == '\\') {
+                    this.pos += 2;
+                } else {
+                    this.pos++;
+                    if (c == '"' || c == '\n') {
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void skipCharLiteral() {
+            this.pos++;
+            while (this.pos < this.length) {
+                char c = this.source.charAt(this.pos);
+                if (c == '\\') {
+                    this.pos += 2;
+                } else {
+                    this.pos++;
+                    if (c == '\'' || c == '\n') {
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void skipNumber() {
+            while (this.pos < this.length) {
+                char c = this.source.charAt(this.pos);
+                if (Character.isLetterOrDigit(c) || c == '_' || c == '.') {
+                    this.pos++;
+                } else if ((c == '+' || c == '-') && isExponent(this.source.charAt(this.pos - 1))) {
+                    this.pos++;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        private static boolean isExponent(char c) {
+            return c == 'e' || c == 'E' || c == 'p' || c == 'P';
+        }
+
+    }
+
+}
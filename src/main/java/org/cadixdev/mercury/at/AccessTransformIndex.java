@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.at;
+
+import static org.cadixdev.mercury.util.BombeBindings.convertSignature;
+
+import org.cadixdev.at.AccessTransform;
+import org.cadixdev.at.AccessTransformSet;
+import org.cadixdev.bombe.type.signature.MethodSignature;
+import org.cadixdev.mercury.analysis.SourceSummary;
+import org.eclipse.jdt.core.dom.IMethodBinding;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+import org.eclipse.jdt.core.dom.Modifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * A read-only snapshot of an {@link AccessTransformSet}, taken before a run.
+ * Unlike {@link AccessTransformSet#getOrCreateClass(String)}, lookups never
+ * add classes to the set, so classes without access transforms are answered
+ * with a single hash lookup.
+ *
+ * <p>Access transforms are inherited by overriding methods. Instead of
+ * completing the set with the inheritance of each class, the overridden
+ * methods are found with the bindings, and only for methods with the name
+ * of a transformed method.</p>
+ */
+final class AccessTransformIndex {
+
+    private final Map<String, ClassTransforms> classes = new HashMap<>();
+    // The binary names of the classes, and of their possible top-level classes
+    private final Set<String> topLevelClasses = new HashSet<>();
+    // The names of all transformed methods, or null if a class transforms all of its methods
+    private final Set<String> methodNames;
+
+    AccessTransformIndex(AccessTransformSet ats) {
+        // Copy the transforms, since the classes of the set may be changed during the run
+        ats.getClasses().forEach((name, classSet) -> this.classes.put(name, new ClassTransforms(classSet)));
+        for (String name : this.classes.keySet()) {
+            // Top-level class names may contain $ as well
+            this.topLevelClasses.add(name);
+            for (int i = name.indexOf('$'); i > 0; i = name.indexOf('$', i + 1)) {
+                this.topLevelClasses.add(name.substring(0, i));
+            }
+        }
+
+        Set<String> methodNames = new HashSet<>();
+        for (ClassTransforms classSet : this.classes.values()) {
+            if (!classSet.allMethods.isEmpty()) {
+                methodNames = null;
+                break;
+            }
+            for (MethodSignature signature : classSet.methods.keySet()) {
+                methodNames.add(signature.getName());
+            }
+        }
+        this.methodNames = methodNames;
+    }
+
+    /**
+     * Checks if the source file with the given summary may contain a
+     * declaration with an access transform. This is the case if it declares
+     * a class with access transforms, or a nested class of one, or if it
+     * mentions the name of a transformed method that may be inherited by an
+     * overriding method.
+     *
+     * @param summary The summary of the source file
+     * @return {@code true} if the file may need to be transformed
+     */
+    boolean mayTransform(SourceSummary summary) {
+        String prefix = summary.getPackageName().isEmpty() ? "" : summary.getPackageName() + '.';
+        for (String typeName : summary.getTypeNames()) {
+            if (this.topLevelClasses.contains(prefix + typeName)) {
+                return true;
+            }
+        }
+
+        if (this.methodNames == null) {
+            // Any method may inherit the transforms of all methods
+            return true;
+        }
+        for (String identifier : summary.getIdentifiers()) {
+            if (this.methodNames.contains(identifier)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the access transforms of the given class.
+     *
+     * @param className The binary name of the class
+     * @return The access transforms, or {@code null} if there are none
+     */
+    ClassTransforms getClass(String className) {
+        return this.classes.get(className);
+    }
+
+    /**
+     * Gets the access transform of the given method, including the access
+     * transforms of the methods it overrides.
+     *
+     * @param className The binary name of the declaring class
+     * @param binding The method binding
+     * @param binaryNames The function to get the binary names of the
+     *     parent classes with
+     * @return The access transform
+     */
+    AccessTransform getMethod(String className, IMethodBinding binding, Function<ITypeBinding, String> binaryNames) {
+        ClassTransforms classSet = this.classes.get(className);
+        boolean inherited = canOverride(binding)
+                && (this.methodNames == null || this.methodNames.contains(binding.getName()));
+        if (classSet == null && !inherited) {
+            return AccessTransform.EMPTY;
+        }
+
+        AccessTransform transform = classSet != null ? classSet.getMethod(convertSignature(binding)) : AccessTransform.EMPTY;
+        if (inherited) {
+            for (Map.Entry<String, MethodSignature> entry : findOverriddenMethods(binding, binaryNames).entrySet()) {
+                ClassTransforms parent = this.classes.get(entry.getKey());
+                if (parent != null) {
+                    transform = transform.merge(parent.getMethod(entry.getValue()));
+                }
+            }
+        }
+        return transform;
+    }
+
+    private static boolean canOverride(IMethodBinding binding) {
+        int modifiers = binding.getModifiers();
+        return !binding.isConstructor() && !Modifier.isStatic(modifiers) && !Modifier.isPrivate(modifiers);
+    }
+
+    /**
+     * Finds the methods overridden by the given method in all super classes
+     * and interfaces of its declaring class.
+     *
+     * @param binding The method binding
+     * @param binaryNames The function to get the binary names of the
+     *     parent classes with
+     * @return The signatures of the overridden methods, by the binary name of
+     *     their declaring class
+     */
+    static Map<String, MethodSignature> findOverriddenMethods(IMethodBinding binding, Function<ITypeBinding, String> binaryNames) {
+        Map<String, MethodSignature> overridden = new LinkedHashMap<>();
+        if (canOverride(binding)) {
+            collectOverriddenMethods(binding, binding.getDeclaringClass(), binaryNames, new HashSet<>(), overridden);
+        }
+        return overridden;
+    }
+
+    private static void collectOverriddenMethods(IMethodBinding method, ITypeBinding type, Function<ITypeBinding, String> binaryNames,
+            Set<String> visited, Map<String, MethodSignature> overridden) {
+        List<ITypeBinding> parents = new ArrayList<>();
+        if (type.getSuperclass() != null) {
+            parents.add(type.getSuperclass());
+        }
+        parents.addAll(Arrays.asList(type.getInterfaces()));
+
+        for (ITypeBinding parent : parents) {
+            String name = binaryNames.apply(parent.getErasure());
+            if (name == null || !visited.add(name)) {
+                continue;
+            }
+
+            for (IMethodBinding parentMethod : parent.getDeclaredMethods()) {
+                if (method.overrides(parentMethod)) {
+                    overridden.put(name, convertSignature(parentMethod.getMethodDeclaration()));
+                }
+            }
+
+            collectOverriddenMethods(method, parent, binaryNames, visited, overridden);
+        }
+    }
+
+    /**
+     * The access transforms of a single class, copied from an
+     * {@link AccessTransformSet.Class}.
+     */
+    static final class ClassTransforms {
+
+        private final AccessTransform transform;
+        private final Map<String, AccessTransform> fields = new HashMap<>();
+        private final AccessTransform allFields;
+        private final Map<MethodSignature, AccessTransform> methods = new HashMap<>();
+        private final AccessTransform allMethods;
+
+        private ClassTransforms(AccessTransformSet.Class classSet) {
+            this.transform = classSet.get();
+            for (String name : classSet.getFields().keySet()) {
+                this.fields.put(name, classSet.getField(name));
+            }
+            this.allFields = classSet.allFields();
+            for (MethodSignature signature : classSet.getMethods().keySet()) {
+                this.methods.put(signature, classSet.getMethod(signature));
+            }
+            this.allMethods = classSet.allMethods();
+        }
+
+        AccessTransform get() {
+            return this.transform;
+        }
+
+        AccessTransform getField(String name) {
+            return this.fields.getOrDefault(name, this.allFields);
+        }
+
+        AccessTransform getMethod(MethodSignature signature) {
+            return this.methods.getOrDefault(signature, this.allMethods);
+        }
+
+    }
+
+}
@@ -16,15 +16,22 @@
 import org.cadixdev.at.AccessTransform;
 import org.cadixdev.at.AccessTransformSet;
 import org.cadixdev.at.ModifierChange;
-import org.cadixdev.bombe.analysis.InheritanceProvider;
 import org.cadixdev.bombe.type.signature.MethodSignature;
+import org.cadixdev.mercury.Mercury;
 import org.cadixdev.mercury.RewriteContext;
+import org.cadixdev.mercury.SourceContext;
 import org.cadixdev.mercury.SourceRewriter;
-import org.cadixdev.mercury.analysis.MercuryInheritanceProvider;
+import org.cadixdev.mercury.analysis.SourceSummary;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTParser;
 import org.eclipse.jdt.core.dom.ASTVisitor;
 import org.eclipse.jdt.core.dom.AbstractTypeDeclaration;
 import org.eclipse.jdt.core.dom.AnnotationTypeDeclaration;
 import org.eclipse.jdt.core.dom.BodyDeclaration;
+import org.eclipse.jdt.core.dom.CompilationUnit;
 import org.eclipse.jdt.core.dom.EnumDeclaration;
 import org.eclipse.jdt.core.dom.FieldDeclaration;
 import org.eclipse.jdt.core.dom.IExtendedModifier;
@@ -33,11 +40,18 @@
 import org.eclipse.jdt.core.dom.IVariableBinding;
 import org.eclipse.jdt.core.dom.MethodDeclaration;
 import org.eclipse.jdt.core.dom.Modifier;
+import org.eclipse.jdt.core.dom.NodeFinder;
 import org.eclipse.jdt.core.dom.TypeDeclaration;
 import org.eclipse.jdt.core.dom.VariableDeclarationFragment;
+import org.eclipse.jdt.core.dom.rewrite.ASTRewrite;
 import org.eclipse.jdt.core.dom.rewrite.ListRewrite;
+import org.eclipse.jface.text.Document;
+import org.eclipse.text.edits.TextEdit;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
 
 public final class AccessTransformerRewriter implements SourceRewriter {
 
@@ -46,111 +60,181 @@ public static SourceRewriter create(AccessTransformSet ats) {
     }
 
     private final AccessTransformSet ats;
+    // The snapshot of the access transformers used outside of analysis runs
+    private AccessTransformIndex index;
 
     private AccessTransformerRewriter(AccessTransformSet ats) {
         this.ats = ats;
     }
 
     @Override
-    public int getFlags() {
-        return FLAG_RESOLVE_BINDINGS;
+    public void initialize(Mercury mercury) {
+        // The access transformers may still change during the analysis
+        this.index = mercury.isAnalyzing() ? null : new AccessTransformIndex(this.ats);
     }
 
     @Override
-    public void rewrite(RewriteContext context) {
-        context.getCompilationUnit().accept(new Visitor(context, this.ats));
+    public boolean shouldProcess(SourceSummary summary) {
+        return this.index == null || this.index.mayTransform(summary);
     }
 
-    private static class Visitor extends ASTVisitor {
+    @Override
+    public int getFlags() {
+        // Local and anonymous classes are only part of the AST with method bodies
+        for (String name : this.ats.getClasses().keySet()) {
+            if (isLocalOrAnonymousClass(name)) {
+                return FLAG_RESOLVE_BINDINGS | FLAG_IGNORE_JAVADOC;
+            }
+        }
+        return FLAG_RESOLVE_BINDINGS | FLAG_IGNORE_METHOD_BODIES | FLAG_IGNORE_JAVADOC;
+    }
 
-        private final RewriteContext context;
-        private final AccessTransformSet ats;
-        private final InheritanceProvider inheritanceProvider;
+    private static boolean isLocalOrAnonymousClass(String name) {
+        int i = name.indexOf('$') + 1;
+        while (i > 0 && i < name.length()) {
+            if (Character.isDigit(name.charAt(i))) {
+                return true;
+            }
+            i = name.indexOf('$', i) + 1;
+        }
+        return false;
+    }
 
-        private Visitor(RewriteContext context, AccessTransformSet ats) {
-            this.context = context;
-            this.ats = ats;
-            this.inheritanceProvider = MercuryInheritanceProvider.get(context.getMercury());
+    @Override
+    public void rewrite(RewriteContext context) {
+        if (!context.getMercury().isAnalyzing()) {
+            if (this.index == null) {
+                this.index = new AccessTransformIndex(this.ats);
+            }
+            context.getCompilationUnit().accept(new Visitor(context, this.index, null));
+            return;
         }
 
-        private void transform(BodyDeclaration declaration, AccessTransform transform) {
-            if (transform.isEmpty()) {
-                return;
+        // The access transformers may still change until the analysis is
+        // complete, so only the declarations are collected for now
+        List<PendingTransform> transforms = new ArrayList<>();
+        context.getCompilationUnit().accept(new Visitor(context, null, transforms));
+        if (!transforms.isEmpty()) {
+            AccessTransformSet ats = this.ats;
+            String sourceCompatibility = context.getMercury().getSourceCompatibility();
+            context.afterAnalysis(document -> transform(document, ats, transforms, sourceCompatibility));
+        }
+    }
+
+    private static TextEdit transform(Document document, AccessTransformSet ats, List<PendingTransform> transforms,
+            String sourceCompatibility) throws JavaModelException {
+        if (transforms.stream().allMatch(transform -> transform.resolve(ats).isEmpty())) {
+            return null;
+        }
+
+        // The declarations can be found again without resolving any bindings
+        ASTParser parser = ASTParser.newParser(AST.getJLSLatest());
+        Map<String, String> options = JavaCore.getOptions();
+        JavaCore.setComplianceOptions(sourceCompatibility, options);
+        parser.setCompilerOptions(options);
+        parser.setSource(document.get().toCharArray());
+        CompilationUnit compilationUnit = (CompilationUnit) parser.createAST(null);
+
+        ASTRewrite rewrite = ASTRewrite.create(compilationUnit.getAST());
+        for (PendingTransform transform : transforms) {
+            ASTNode node = NodeFinder.perform(compilationUnit, transform.startPosition, transform.length);
+            if (node instanceof BodyDeclaration) {
+                transform(() -> rewrite, (BodyDeclaration) node, transform.resolve(ats));
             }
+        }
+        return rewrite.rewriteAST(document, null);
+    }
 
-            Modifier accessModifier = null;
+    private static void transform(Supplier<ASTRewrite> rewrite, BodyDeclaration declaration, AccessTransform transform) {
+        if (transform.isEmpty()) {
+            return;
+        }
 
-            AccessChange accessChange = transform.getAccess();
-            ModifierChange finalChange = transform.getFinal();
+        Modifier accessModifier = null;
 
-            @SuppressWarnings("unchecked")
-            List<IExtendedModifier> modifiers = declaration.modifiers();
-            for (IExtendedModifier em : modifiers) {
-                if (!em.isModifier()) {
-                    continue;
-                }
+        AccessChange accessChange = transform.getAccess();
+        ModifierChange finalChange = transform.getFinal();
 
-                Modifier m = (Modifier) em;
-                int modifier = m.getKeyword().toFlagValue();
-                switch (modifier) {
-                    case Modifier.PUBLIC:
-                    case Modifier.PROTECTED:
-                    case Modifier.PRIVATE:
-                        switch (accessChange) {
-                            case NONE:
-                                accessModifier = m;
-                                continue;
-                            case PACKAGE_PRIVATE:
-                                this.context.createASTRewrite().remove(m, null);
-                                accessChange = AccessChange.NONE;
-                                continue;
-                            default:
-                                this.context.createASTRewrite().set(m, Modifier.KEYWORD_PROPERTY,
-                                        Modifier.ModifierKeyword.fromFlagValue(accessChange.getModifier()), null);
-                                accessModifier = m;
-                                accessChange = AccessChange.NONE;
-                                continue;
-                        }
-                    case Modifier.FINAL:
-                        switch (finalChange) {
-                            case REMOVE:
-                                this.context.createASTRewrite().remove(m, null);
-                                // fallthrough
-                            case ADD:
-                                finalChange = ModifierChange.NONE;
-                                continue;
-                            default:
-                                continue;
-                        }
-                }
+        @SuppressWarnings("unchecked")
+        List<IExtendedModifier> modifiers = declaration.modifiers();
+        for (IExtendedModifier em : modifiers) {
+            if (!em.isModifier()) {
+                continue;
             }
 
-            if (accessChange == AccessChange.NONE && finalChange == ModifierChange.NONE) {
-                return;
+            Modifier m = (Modifier) em;
+            int modifier = m.getKeyword().toFlagValue();
+            switch (modifier) {
+                case Modifier.PUBLIC:
+                case Modifier.PROTECTED:
+                case Modifier.PRIVATE:
+                    switch (accessChange) {
+                        case NONE:
+                            accessModifier = m;
+                            continue;
+                        case PACKAGE_PRIVATE:
+                            rewrite.get().remove(m, null);
+                            accessChange = AccessChange.NONE;
+                            continue;
+                        default:
+                            rewrite.get().set(m, Modifier.KEYWORD_PROPERTY,
+                                    Modifier.ModifierKeyword.fromFlagValue(accessChange.getModifier()), null);
+                            accessModifier = m;
+                            accessChange = AccessChange.NONE;
+                            continue;
+                    }
+                case Modifier.FINAL:
+                    switch (finalChange) {
+                        case REMOVE:
+                            rewrite.get().remove(m, null);
+                            // fallthrough
+                        case ADD:
+                            finalChange = ModifierChange.NONE;
+                            continue;
+                        default:
+                            continue;
+                    }
             }
+        }
 
-            ListRewrite rewrite = this.context.createASTRewrite().getListRewrite(declaration, declaration.getModifiersProperty());
-            if (accessChange != AccessChange.NONE) {
-                accessModifier = declaration.getAST().newModifier(Modifier.ModifierKeyword.fromFlagValue(accessChange.getModifier()));
-                rewrite.insertFirst(accessModifier, null);
-            }
+        if (accessChange == AccessChange.NONE && finalChange == ModifierChange.NONE) {
+            return;
+        }
 
-            if (finalChange != ModifierChange.NONE) {
-                Modifier finalModifier = declaration.getAST().newModifier(Modifier.ModifierKeyword.FINAL_KEYWORD);
-                if (accessModifier != null) {
-                    rewrite.insertAfter(finalModifier, accessModifier, null);
-                } else {
-                    rewrite.insertFirst(finalModifier, null);
-                }
+        ListRewrite listRewrite = rewrite.get().getListRewrite(declaration, declaration.getModifiersProperty());
+        if (accessChange != AccessChange.NONE) {
+            accessModifier = declaration.getAST().newModifier(Modifier.ModifierKeyword.fromFlagValue(accessChange.getModifier()));
+            listRewrite.insertFirst(accessModifier, null);
+        }
+
+        if (finalChange != ModifierChange.NONE) {
+            Modifier finalModifier = declaration.getAST().newModifier(Modifier.ModifierKeyword.FINAL_KEYWORD);
+            if (accessModifier != null) {
+                listRewrite.insertAfter(finalModifier, accessModifier, null);
+            } else {
+                listRewrite.insertFirst(finalModifier, null);
             }
         }
+    }
+
+    private static class Visitor extends ASTVisitor {
+
+        private final RewriteContext context;
+        private final AccessTransformIndex index;
+        private final List<PendingTransform> transforms;
 
-        private AccessTransformSet.Class findClass(ITypeBinding declaringClass) {
+        private Visitor(RewriteContext context, AccessTransformIndex index, List<PendingTransform> transforms) {
+            this.context = context;
+            this.index = index;
+            this.transforms = transforms;
+        }
+
+        private AccessTransformIndex.ClassTransforms findClass(ITypeBinding declaringClass) {
             if (declaringClass == null) {
                 return null;
             }
 
-            return this.ats.getClass(declaringClass.getBinaryName()).orElse(null);
+            return this.index.getClass(this.context.getBinaryName(declaringClass));
         }
 
         private void visitDeclaration(AbstractTypeDeclaration declaration) {
@@ -161,9 +245,17 @@ private void visitDeclaration(AbstractTypeDeclaration declaration) {
                 }
                 throw new IllegalStateException("No binding for type declaration " + declaration.getName() + " in class " + this.context.getQualifiedPrimaryType());
             }
-            AccessTransformSet.Class classSet = findClass(binding);
+            if (this.transforms != null) {
+                String className = this.context.getBinaryName(binding);
+                if (className != null) {
+                    this.transforms.add(PendingTransform.ofClass(declaration, className));
+                }
+                return;
+            }
+
+            AccessTransformIndex.ClassTransforms classSet = findClass(binding);
             if (classSet != null) {
-                transform(declaration, classSet.get());
+                transform(this.context::createASTRewrite, declaration, classSet.get());
             }
         }
 
@@ -188,6 +280,8 @@ public boolean visit(AnnotationTypeDeclaration node) {
         @Override
         public boolean visit(FieldDeclaration node) {
             AccessTransform transform = AccessTransform.EMPTY;
+            String className = null;
+            List<String> fields = new ArrayList<>();
 
             @SuppressWarnings("unchecked")
             List<VariableDeclarationFragment> fragments = node.fragments();
@@ -200,13 +294,28 @@ public boolean visit(FieldDeclaration node) {
                     throw new IllegalStateException("No binding for field node " + fragment.getName() + " in class " + this.context.getQualifiedPrimaryType());
                 }
 
-                AccessTransformSet.Class classSet = findClass(binding.getDeclaringClass());
+                if (this.transforms != null) {
+                    if (binding.getDeclaringClass() != null) {
+                        className = this.context.getBinaryName(binding.getDeclaringClass());
+                        fields.add(binding.getName());
+                    }
+                    continue;
+                }
+
+                AccessTransformIndex.ClassTransforms classSet = findClass(binding.getDeclaringClass());
                 if (classSet != null) {
                     transform = transform.merge(classSet.getField(binding.getName()));
                 }
             }
 
-            transform(node, transform);
+            if (this.transforms != null) {
+                if (className != null) {
+                    this.transforms.add(PendingTransform.ofFields(node, className, fields));
+                }
+                return true;
+            }
+
+            transform(this.context::createASTRewrite, node, transform);
             return true;
         }
 
@@ -225,15 +334,90 @@ public boolean visit(MethodDeclaration node) {
                 return true;
             }
 
-            AccessTransformSet.Class classSet = this.ats.getOrCreateClass(declaringClass.getBinaryName());
-            classSet.complete(this.inheritanceProvider, declaringClass);
+            String className = this.context.getBinaryName(declaringClass);
+            if (className == null) {
+                return true;
+            }
 
-            MethodSignature signature = convertSignature(binding);
-            transform(node, classSet.getMethod(signature));
+            if (this.transforms != null) {
+                this.transforms.add(PendingTransform.ofMethod(node, className, binding, this.context));
+                return true;
+            }
+
+            AccessTransform transform = this.index.getMethod(className, binding, this.context::getBinaryName);
+            transform(this.context::createASTRewrite, node, transform);
 
             return true;
         }
 
     }
 
+    /**
+     * A declaration to transform once the access transformers are complete.
+     * Only the position of the declaration and the names needed to look up
+     * its access transform are kept.
+     */
+    private static final class PendingTransform {
+
+        static PendingTransform ofClass(ASTNode node, String className) {
+            return new PendingTransform(node, className, null, null, null);
+        }
+
+        static PendingTransform ofFields(ASTNode node, String className, List<String> fields) {
+            return new PendingTransform(node, className, fields, null, null);
+        }
+
+        static PendingTransform ofMethod(MethodDeclaration node, String className, IMethodBinding binding, SourceContext context) {
+            // Access transforms are inherited by overriding methods, which
+            // can only be looked up while the bindings are available
+            Map<String, MethodSignature> overridden = AccessTransformIndex.findOverriddenMethods(binding, context::getBinaryName);
+            return new PendingTransform(node, className, null, convertSignature(binding), overridden);
+        }
+
+        private final int startPosition;
+        private final int length;
+        private final String className;
+        private final List<String> fields;
+        private final MethodSignature method;
+        private final Map<String, MethodSignature> overridden;
+
+        private PendingTransform(ASTNode node, String className, List<String> fields, MethodSignature method,
+                Map<String, MethodSignature> overridden) {
+            this.startPosition = node.getStartPosition();
+            this.length = node.getLength();
+            this.className = className;
+            this.fields = fields;
+            this.method = method;
+            this.overridden = overridden;
+        }
+
+        AccessTransform resolve(AccessTransformSet ats) {
+            AccessTransformSet.Class classSet = ats.getClass(this.className).orElse(null);
+
+            if (this.fields != null) {
+                AccessTransform transform = AccessTransform.EMPTY;
+                if (classSet != null) {
+                    for (String field : this.fields) {
+                        transform = transform.merge(classSet.getField(field));
+                    }
+                }
+                return transform;
+            }
+
+            if (this.method != null) {
+                AccessTransform transform = classSet != null ? classSet.getMethod(this.method) : AccessTransform.EMPTY;
+                for (Map.Entry<String, MethodSignature> entry : this.overridden.entrySet()) {
+                    AccessTransformSet.Class parent = ats.getClass(entry.getKey()).orElse(null);
+                    if (parent != null) {
+                        transform = transform.merge(parent.getMethod(entry.getValue()));
+                    }
+                }
+                return transform;
+            }
+
+            return classSet != null ? classSet.get() : AccessTransform.EMPTY;
+        }
+
+    }
+
 }
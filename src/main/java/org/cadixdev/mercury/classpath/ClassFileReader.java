@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.classpath;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A minimal reader for class files, which only parses the parts of the
+ * class file format needed by Mercury.
+ */
+public final class ClassFileReader {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private final ByteBuffer buffer;
+    private final int[] offsets;
+    private final byte[] tags;
+    // The offset of the access flags, right after the constant pool
+    private final int header;
+
+    /**
+     * Creates a reader for the given class file, parsing its constant pool.
+     *
+     * @param bytes The bytes of the class file
+     * @throws IllegalArgumentException If the bytes are not a valid class file
+     */
+    public ClassFileReader(byte[] bytes) {
+        this.buffer = ByteBuffer.wrap(bytes);
+        try {
+            if (this.buffer.getInt(0) != MAGIC) {
+                throw new IllegalArgumentException("Not a class file");
+            }
+
+            int count = Short.toUnsignedInt(this.buffer.getShort(8));
+            this.offsets = new int[count];
+            this.tags = new byte[count];
+
+            int pos = 10;
+            for (int i = 1; i < count; i++) {
+                int tag = this.buffer.get(pos);
+                this.tags[i] = (byte) tag;
+                this.offsets[i] = pos + 1;
+
+                switch (tag) {
+                    case CONSTANT_UTF8:
+                        pos += 3 + Short.toUnsignedInt(this.buffer.getShort(pos + 1));
+                        break;
+                    case CONSTANT_CLASS:
+                    case CONSTANT_STRING:
+                    case CONSTANT_METHOD_TYPE:
+                    case CONSTANT_MODULE:
+                    case CONSTANT_PACKAGE:
+                        pos += 3;
+                        break;
+                    case CONSTANT_METHOD_HANDLE:
+                        pos += 4;
+                        break;
+                    case CONSTANT_INTEGER:
+                    case CONSTANT_FLOAT:
+                    case CONSTANT_FIELDREF:
+                    case CONSTANT_METHODREF:
+                    case CONSTANT_INTERFACE_METHODREF:
+                    case CONSTANT_NAME_AND_TYPE:
+                    case CONSTANT_DYNAMIC:
+                    case CONSTANT_INVOKE_DYNAMIC:
+                        pos += 5;
+                        break;
+                    case CONSTANT_LONG:
+                    case CONSTANT_DOUBLE:
+                        pos += 9;
+                        i++; // Takes up two entries
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown constant pool tag " + tag);
+                }
+            }
+            this.header = pos;
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated class file", e);
+        }
+    }
+
+    String readUtf8(int index) {
+        if (index <= 0 || index >= this.tags.length || this.tags[index] != CONSTANT_UTF8) {
+            throw new IllegalArgumentException("Invalid constant pool index " + index);
+        }
+
+        int offset = this.offsets[index];
+        int length = Short.toUnsignedInt(this.buffer.getShort(offset));
+        // Class files use modified UTF-8, which only differs for characters
+        // that never appear in class names
+        return new String(this.buffer.array(), offset + 2, length, StandardCharsets.UTF_8);
+    }
+
+    private String readClassName(int index) {
+        if (index <= 0 || index >= this.tags.length || this.tags[index] != CONSTANT_CLASS) {
+            throw new IllegalArgumentException("Invalid constant pool index " + index);
+        }
+        return readUtf8(Short.toUnsignedInt(this.buffer.getShort(this.offsets[index])));
+    }
+
+    private int readUnsignedShort(int offset) {
+        try {
+            return Short.toUnsignedInt(this.buffer.getShort(offset));
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated class file", e);
+        }
+    }
+
+    public int getAccess() {
+        return readUnsignedShort(this.header);
+    }
+
+    /**
+     * Gets the internal name of the class.
+     *
+     * @return The slash separated class name
+     */
+    public String getClassName() {
+        return readClassName(readUnsignedShort(this.header + 2));
+    }
+
+    /**
+     * Gets the internal name of the super class.
+     *
+     * @return The slash separated super class name, or {@code null} for
+     *     {@code java/lang/Object} and modules
+     */
+    public String getSuperName() {
+        int index = readUnsignedShort(this.header + 4);
+        return index != 0 ? readClassName(index) : null;
+    }
+
+    public List<String> getInterfaces() {
+        int count = readUnsignedShort(this.header + 6);
+        List<String> interfaces = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            interfaces.add(readClassName(readUnsignedShort(this.header + 8 + i * 2)));
+        }
+        return Collections.unmodifiableList(interfaces);
+    }
+
+    private int getFieldsOffset() {
+        return this.header + 8 + readUnsignedShort(this.header + 6) * 2;
+    }
+
+    public List<Member> getFields() {
+        return readMembers(getFieldsOffset());
+    }
+
+    public List<Member> getMethods() {
+        return readMembers(skipMembers(getFieldsOffset()));
+    }
+
+    private int skipMembers(int offset) {
+        int count = readUnsignedShort(offset);
+        int pos = offset + 2;
+        for (int i = 0; i < count; i++) {
+            pos = skipAttributes(pos + 6);
+        }
+        return pos;
+    }
+
+    private int skipAttributes(int offset) {
+        int count = readUnsignedShort(offset);
+        int pos = offset + 2;
+        for (int i = 0; i < count; i++) {
+            try {
+                pos += 6 + this.buffer.getInt(pos + 2);
+            } catch (IndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Truncated class file", e);
+            }
+        }
+        return pos;
+    }
+
+    private List<Member> readMembers(int offset) {
+        int count = readUnsignedShort(offset);
+        List<Member> members = new ArrayList<>(count);
+        int pos = offset + 2;
+        for (int i = 0; i < count; i++) {
+            members.add(new Member(readUnsignedShort(pos), readUtf8(readUnsignedShort(pos + 2)), readUtf8(readUnsignedShort(pos + 4))));
+            pos = skipAttributes(pos + 6);
+        }
+        return Collections.unmodifiableList(members);
+    }
+
+    /**
+     * Collects the packages of all classes referenced by the class file,
+     * including those only used in descriptors and generic signatures.
+     *
+     * @param packages The set to add the slash separated package names to
+     */
+    public void collectReferencedPackages(Set<String> packages) {
+        for (int i = 1; i < this.tags.length; i++) {
+            switch (this.tags[i]) {
+                case CONSTANT_CLASS: {
+                    String name = readUtf8(Short.toUnsignedInt(this.buffer.getShort(this.offsets[i])));
+                    if (name.startsWith("[")) {
+                        collectDescriptorPackages(name, packages);
+                    } else {
+                        addPackage(name, 0, name.length(), packages);
+                    }
+                    break;
+                }
+                case CONSTANT_UTF8:
+                    // Descriptors and signatures of members and attributes
+                    collectDescriptorPackages(readUtf8(i), packages);
+                    break;
+            }
+        }
+    }
+
+    private static void collectDescriptorPackages(String descriptor, Set<String> packages) {
+        int length = descriptor.length();
+        for (int i = 0; i < length; i++) {
+            if (descriptor.charAt(i) != 'L' || i > 0 && !isDescriptorStart(descriptor.charAt(i - 1))) {
+                continue;
+            }
+
+            int start = i + 1;
+            int end = start;
+            while (end < length) {
+                char c = descriptor.charAt(end);
+                if (c == ';' || c == '<') {
+                    break;
+                }
+                end++;
+            }
+
+            if (end < length) {
+                addPackage(descriptor, start, end, packages);
+                i = end;
+            }
+        }
+    }
+
+    private static boolean isDescriptorStart(char c) {
+        switch (c) {
+            // Primitive types, e.g. in (ILcom/example/Test;)V
+            case 'B':
+            case 'C':
+            case 'D':
+            case 'F':
+            case 'I':
+            case 'J':
+            case 'S':
+            case 'Z':
+            case '(':
+            case ')':
+            case '[':
+            case ';':
+            case '<':
+            case '>':
+            case ':':
+            case '+':
+            case '-':
+            case '^':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static void addPackage(String name, int start, int end, Set<String> packages) {
+        int i = name.lastIndexOf('/', end - 1);
+        if (i >= start) {
+            packages.add(name.substring(start, i));
+        }
+    }
+
+    /**
+     * A field or method declared in a class file.
+     */
+    public static final class Member {
+
+        private final int access;
+        private final String name;
+        private final String descriptor;
+
+        private Member(int access, String name, String descriptor) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+
+        public int getAccess() {
+            return this.access;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public String getDescriptor() {
+            return this.descriptor;
+        }
+
+    }
+
+}
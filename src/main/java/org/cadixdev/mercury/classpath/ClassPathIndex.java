@@ -0,0 +1,564 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.classpath;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * An index from packages to the class path entries that provide them.
+ *
+ * <p>The index is built once for a class path, and can optionally be
+ * persisted to a file so unchanged jars do not need to be opened again on
+ * the next run. Class files are read from memory-mapped jars.</p>
+ *
+ * <p>The packages referenced by the classes of an entry are only computed
+ * when needed to {@link #findRequiredEntries(Collection) filter} the class
+ * path, but are persisted together with the index.</p>
+ *
+ * <p>The jars stay mapped until the index is {@link #close() closed}.</p>
+ */
+public final class ClassPathIndex implements Closeable {
+
+    private static final int MAGIC = 0x4D435049; // MCPI
+    private static final int VERSION = 2;
+
+    static final String CLASS_EXTENSION = ".class";
+    private static final String META_INF = "META-INF/";
+    private static final String MODULE_INFO = "module-info.class";
+
+    public static ClassPathIndex create(List<Path> classPath) throws IOException {
+        List<Entry> entries = new ArrayList<>(classPath.size());
+        for (Path path : classPath) {
+            entries.add(Entry.index(path));
+        }
+        return new ClassPathIndex(null, classPath, entries);
+    }
+
+    /**
+     * Creates an index for the given class path, reusing the entries from
+     * the given cache file for jars that have not changed since it was
+     * written. The cache file is updated if any entry had to be indexed
+     * again.
+     *
+     * @param cacheFile The file to load the index from and save it to
+     * @param classPath The class path to index
+     * @return The class path index
+     * @throws IOException If an I/O error occurs
+     */
+    public static ClassPathIndex load(Path cacheFile, List<Path> classPath) throws IOException {
+        Map<Path, Entry> cached = read(cacheFile);
+
+        boolean changed = cached.isEmpty() && !classPath.isEmpty();
+        List<Entry> entries = new ArrayList<>(classPath.size());
+        for (Path path : classPath) {
+            Entry entry = cached.get(path.toAbsolutePath());
+            if (entry != null && entry.isUpToDate()) {
+                entry = new Entry(path, entry.lastModified, entry.size, entry.packages, entry.references);
+            } else {
+                entry = Entry.index(path);
+                changed |= entry.isCacheable();
+            }
+            entries.add(entry);
+        }
+
+        ClassPathIndex index = new ClassPathIndex(cacheFile, classPath, entries);
+        if (changed) {
+            index.save(cacheFile);
+        }
+        return index;
+    }
+
+    private static Map<Path, Entry> read(Path file) throws IOException {
+        Map<Path, Entry> entries = new HashMap<>();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return entries;
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Path path = file.getFileSystem().getPath(in.readUTF());
+                long lastModified = in.readLong();
+                long size = in.readLong();
+
+                Set<String> packages = readPackages(in);
+                Set<String> references = in.readBoolean() ? readPackages(in) : null;
+
+                entries.put(path, new Entry(path, lastModified, size, packages, references));
+            }
+        } catch (NoSuchFileException | EOFException ignored) {
+            // Missing or truncated cache, everything will be indexed again
+        }
+
+        return entries;
+    }
+
+    private static Set<String> readPackages(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        Set<String> packages = new HashSet<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            packages.add(in.readUTF());
+        }
+        return packages;
+    }
+
+    private static void writePackages(DataOutputStream out, Set<String> packages) throws IOException {
+        out.writeInt(packages.size());
+        for (String packageName : packages) {
+            out.writeUTF(packageName);
+        }
+    }
+
+    private final Path cacheFile;
+    private final List<Path> classPath;
+    private final List<Entry> entries;
+    private final Map<String, List<Entry>> packages = new HashMap<>();
+
+    private ClassPathIndex(Path cacheFile, List<Path> classPath, List<Entry> entries) {
+        this.cacheFile = cacheFile;
+        this.classPath = Collections.unmodifiableList(new ArrayList<>(classPath));
+        this.entries = entries;
+
+        for (Entry entry : entries) {
+            for (String packageName : entry.packages) {
+                this.packages.computeIfAbsent(packageName, p -> new ArrayList<>(1)).add(entry);
+            }
+        }
+    }
+
+    public List<Path> getClassPath() {
+        return this.classPath;
+    }
+
+    public Set<String> getPackages() {
+        return Collections.unmodifiableSet(this.packages.keySet());
+    }
+
+    public boolean hasPackage(String packageName) {
+        return this.packages.containsKey(toInternalName(packageName));
+    }
+
+    /**
+     * Gets the class path entries providing the given package, in class path
+     * order.
+     *
+     * @param packageName The package name, either dot or slash separated
+     * @return The entries providing the package
+     */
+    public List<Path> findEntries(String packageName) {
+        List<Entry> entries = this.packages.get(toInternalName(packageName));
+        if (entries == null) {
+            return Collections.emptyList();
+        }
+
+        List<Path> result = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            result.add(entry.path);
+        }
+        return result;
+    }
+
+    /**
+     * Gets the packages provided by the given class path entry.
+     *
+     * @param path The class path entry
+     * @return The packages, with slash separated names
+     */
+    public Set<String> getPackages(Path path) {
+        for (Entry entry : this.entries) {
+            if (entry.path.equals(path)) {
+                return Collections.unmodifiableSet(entry.packages);
+            }
+        }
+        return Collections.emptySet();
+    }
+
+    /**
+     * Finds the class path entries required to resolve the given packages.
+     * An entry is required if it provides one of the packages, or a package
+     * referenced by the classes of another required entry.
+     *
+     * <p>If the index was loaded from a cache file, the cache is updated
+     * with the references of entries that were read for the first time.</p>
+     *
+     * @param packageNames The packages, either dot or slash separated
+     * @return The required entries, in class path order
+     * @throws IOException If an I/O error occurs
+     */
+    public List<Path> findRequiredEntries(Collection<String> packageNames) throws IOException {
+        Set<String> visited = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+        for (String packageName : packageNames) {
+            String name = toInternalName(packageName);
+            if (visited.add(name)) {
+                queue.add(name);
+            }
+        }
+
+        Set<Entry> required = new HashSet<>();
+        boolean changed = false;
+        while (!queue.isEmpty()) {
+            List<Entry> entries = this.packages.get(queue.poll());
+            if (entries == null) {
+                continue;
+            }
+
+            for (Entry entry : entries) {
+                if (!required.add(entry)) {
+                    continue;
+                }
+
+                if (entry.references == null) {
+                    entry.references = entry.collectReferences();
+                    changed |= entry.isCacheable();
+                }
+
+                for (String reference : entry.references) {
+                    if (visited.add(reference)) {
+                        queue.add(reference);
+                    }
+                }
+            }
+        }
+
+        if (changed && this.cacheFile != null) {
+            save(this.cacheFile);
+        }
+
+        List<Path> result = new ArrayList<>(required.size());
+        for (Entry entry : this.entries) {
+            if (required.contains(entry)) {
+                result.add(entry.path);
+            }
+        }
+        return result;
+    }
+
+    public boolean hasClass(String className) throws IOException {
+        String name = toInternalName(className) + CLASS_EXTENSION;
+        for (Entry entry : findCandidates(name)) {
+            if (entry.contains(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the class file for the given class from the first class path
+     * entry that contains it.
+     *
+     * @param className The binary name of the class, either dot or slash separated
+     * @return The bytes of the class file, if found
+     * @throws IOException If an I/O error occurs
+     */
+    public Optional<byte[]> readClass(String className) throws IOException {
+        return readClass(className, null);
+    }
+
+    /**
+     * Reads the class file for the given class from the first of the given
+     * class path entries that contains it.
+     *
+     * @param className The binary name of the class, either dot or slash separated
+     * @param classPath The entries to read from, or {@code null} for all
+     * @return The bytes of the class file, if found
+     * @throws IOException If an I/O error occurs
+     */
+    public Optional<byte[]> readClass(String className, Collection<Path> classPath) throws IOException {
+        String name = toInternalName(className) + CLASS_EXTENSION;
+        for (Entry entry : findCandidates(name)) {
+            if (classPath != null && !classPath.contains(entry.path)) {
+                continue;
+            }
+
+            byte[] bytes = entry.read(name);
+            if (bytes != null) {
+                return Optional.of(bytes);
+            }
+        }
+        return Optional.empty();
+    }
+
+    private List<Entry> findCandidates(String name) {
+        int i = name.lastIndexOf('/');
+        List<Entry> entries = this.packages.get(i == -1 ? "" : name.substring(0, i));
+        return entries != null ? entries : Collections.emptyList();
+    }
+
+    public void save(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        List<Entry> cacheable = new ArrayList<>(this.entries.size());
+        for (Entry entry : this.entries) {
+            if (entry.isCacheable()) {
+                cacheable.add(entry);
+            }
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(cacheable.size());
+
+            for (Entry entry : cacheable) {
+                out.writeUTF(entry.path.toAbsolutePath().toString());
+                out.writeLong(entry.lastModified);
+                out.writeLong(entry.size);
+                writePackages(out, entry.packages);
+                out.writeBoolean(entry.references != null);
+                if (entry.references != null) {
+                    writePackages(out, entry.references);
+                }
+            }
+        }
+
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Releases the memory-mapped jars of the index. The mappings are freed
+     * once they are garbage collected, since Java offers no way to unmap a
+     * buffer explicitly. The index can still be used after it was closed,
+     * the jars are then mapped again when needed.
+     */
+    @Override
+    public void close() {
+        for (Entry entry : this.entries) {
+            entry.release();
+        }
+    }
+
+    static String toInternalName(String name) {
+        return name.replace('.', '/');
+    }
+
+    private static final class Entry {
+
+        private final Path path;
+        private final long lastModified;
+        private final long size;
+        private final Set<String> packages;
+        private Set<String> references;
+
+        private MappedJar jar;
+        private boolean unmappable;
+
+        private Entry(Path path, long lastModified, long size, Set<String> packages, Set<String> references) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.packages = packages;
+            this.references = references;
+        }
+
+        static Entry index(Path path) throws IOException {
+            if (Files.isDirectory(path)) {
+                return new Entry(path, -1, -1, indexDirectory(path), null);
+            }
+
+            if (!Files.isRegularFile(path)) {
+                // JDT ignores missing class path entries as well
+                return new Entry(path, -1, -1, Collections.emptySet(), Collections.emptySet());
+            }
+
+            Entry entry = new Entry(path, Files.getLastModifiedTime(path).toMillis(), Files.size(path), new HashSet<>(), null);
+            for (String name : entry.classNames()) {
+                int i = name.lastIndexOf('/');
+                entry.packages.add(i == -1 ? "" : name.substring(0, i));
+            }
+            return entry;
+        }
+
+        private static boolean isClass(String name) {
+            return name.endsWith(CLASS_EXTENSION) && !name.startsWith(META_INF) && !name.equals(MODULE_INFO);
+        }
+
+        private static Set<String> indexDirectory(Path dir) throws IOException {
+            Set<String> packages = new HashSet<>();
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.filter(p -> p.getFileName() != null && p.getFileName().toString().endsWith(CLASS_EXTENSION))
+                        .forEach(p -> {
+                            Path parent = dir.relativize(p).getParent();
+                            packages.add(parent != null ? parent.toString().replace(p.getFileSystem().getSeparator(), "/") : "");
+                        });
+            }
+            packages.remove("META-INF");
+            return packages;
+        }
+
+        boolean isCacheable() {
+            return this.lastModified != -1;
+        }
+
+        boolean isUpToDate() throws IOException {
+            return isCacheable() && Files.isRegularFile(this.path)
+                    && Files.getLastModifiedTime(this.path).toMillis() == this.lastModified
+                    && Files.size(this.path) == this.size;
+        }
+
+        private MappedJar jar() throws IOException {
+            if (this.jar == null && !this.unmappable) {
+                try {
+                    this.jar = MappedJar.open(this.path);
+                } catch (ZipException e) {
+                    // Fall back to ZipFile for archives we can't map ourselves
+                    this.unmappable = true;
+                }
+            }
+            return this.jar;
+        }
+
+        void release() {
+            this.jar = null;
+            this.unmappable = false;
+        }
+
+        private List<String> classNames() throws IOException {
+            if (!isCacheable()) {
+                if (!Files.isDirectory(this.path)) {
+                    return Collections.emptyList();
+                }
+
+                try (Stream<Path> files = Files.walk(this.path)) {
+                    return files.filter(Files::isRegularFile)
+                            .map(p -> this.path.relativize(p).toString().replace(p.getFileSystem().getSeparator(), "/"))
+                            .filter(Entry::isClass)
+                            .collect(Collectors.toList());
+                }
+            }
+
+            List<String> names = new ArrayList<>();
+            for (String name : names()) {
+                if (isClass(name)) {
+                    names.add(name);
+                }
+            }
+            return names;
+        }
+
+        Set<String> collectReferences() throws IOException {
+            Set<String> references = new HashSet<>();
+            for (String name : classNames()) {
+                byte[] bytes = read(name);
+                if (bytes == null) {
+                    continue;
+                }
+
+                try {
+                    new ClassFileReader(bytes).collectReferencedPackages(references);
+                } catch (IllegalArgumentException ignored) {
+                    // Invalid class files are ignored by JDT as well
+                }
+            }
+            references.removeAll(this.packages);
+            return references;
+        }
+
+        private Collection<String> names() throws IOException {
+            MappedJar jar = jar();
+            if (jar != null) {
+                return jar.getEntryNames();
+            }
+
+            List<String> names = new ArrayList<>();
+            try (ZipFile zip = new ZipFile(this.path.toFile())) {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    names.add(entries.nextElement().getName());
+                }
+            } catch (ZipException e) {
+                // Not an archive, JDT ignores those entries too
+            }
+            return names;
+        }
+
+        boolean contains(String name) throws IOException {
+            if (!isCacheable()) {
+                return Files.isRegularFile(this.path.resolve(name));
+            }
+
+            MappedJar jar = jar();
+            if (jar != null) {
+                return jar.contains(name);
+            }
+
+            try (ZipFile zip = new ZipFile(this.path.toFile())) {
+                return zip.getEntry(name) != null;
+            }
+        }
+
+        byte[] read(String name) throws IOException {
+            if (!isCacheable()) {
+                Path file = this.path.resolve(name);
+                return Files.isRegularFile(file) ? Files.readAllBytes(file) : null;
+            }
+
+            MappedJar jar = jar();
+            if (jar != null) {
+                return jar.read(name);
+            }
+
+            try (ZipFile zip = new ZipFile(this.path.toFile())) {
+                ZipEntry entry = zip.getEntry(name);
+                if (entry == null) {
+                    return null;
+                }
+
+                ByteArrayOutputStream out = new ByteArrayOutputStream(entry.getSize() > 0 ? (int) entry.getSize() : 8192);
+                try (InputStream in = zip.getInputStream(entry)) {
+                    byte[] buffer = new byte[8192];
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, n);
+                    }
+                }
+                return out.toByteArray();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.classpath;
+
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException;
+import org.eclipse.jdt.internal.compiler.env.NameEnvironmentAnswer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Serves the classes of the class path to JDT from a {@link ClassPathIndex},
+ * instead of letting JDT search and read all jars on its own. The patched
+ * {@code CompilationUnitResolver} passes the name environment it creates for
+ * a batch of source files to {@link #wrap(Object)}.
+ *
+ * <p>Classes of the class path are read from the memory-mapped jars of the
+ * index. Everything else, like the classes of the JDK, and the modules, is
+ * still looked up by the original environment.</p>
+ */
+public final class ClassPathNameEnvironment implements InvocationHandler {
+
+    private static final char[] ALL_UNNAMED = "ALL-UNNAMED".toCharArray();
+
+    private static final ThreadLocal<ClassPathNameEnvironment> CURRENT = new ThreadLocal<>();
+
+    private final ClassPathIndex index;
+    private final Set<Path> classPath;
+    private Object environment;
+
+    private ClassPathNameEnvironment(ClassPathIndex index, Set<Path> classPath) {
+        this.index = index;
+        this.classPath = classPath;
+    }
+
+    /**
+     * Runs the given action, serving the classes of the given class path
+     * entries from the index to all batches of source files parsed by the
+     * action on the current thread.
+     *
+     * @param index The class path index
+     * @param classPath The class path entries passed to JDT
+     * @param action The action parsing the source files
+     */
+    public static void run(ClassPathIndex index, Collection<Path> classPath, Runnable action) {
+        ClassPathNameEnvironment previous = CURRENT.get();
+        CURRENT.set(new ClassPathNameEnvironment(index, new HashSet<>(classPath)));
+        try {
+            action.run();
+        } finally {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+
+    /**
+     * Wraps the name environment created by JDT, if the classes are served
+     * from an index on the current thread. This is only meant to be called
+     * by the patched {@code CompilationUnitResolver}.
+     *
+     * @param environment The name environment
+     * @param <T> The type of the name environment
+     * @return The name environment to use
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T wrap(T environment) {
+        ClassPathNameEnvironment current = CURRENT.get();
+        if (current == null || environment == null) {
+            return environment;
+        }
+
+        ClassPathNameEnvironment handler = new ClassPathNameEnvironment(current.index, current.classPath);
+        handler.environment = environment;
+        // Implement all interfaces of the original environment, so JDT still detects module support
+        Set<Class<?>> interfaces = new LinkedHashSet<>();
+        for (Class<?> type = environment.getClass(); type != null; type = type.getSuperclass()) {
+            collectInterfaces(type, interfaces);
+        }
+        return (T) Proxy.newProxyInstance(environment.getClass().getClassLoader(), interfaces.toArray(new Class<?>[0]), handler);
+    }
+
+    private static void collectInterfaces(Class<?> type, Set<Class<?>> interfaces) {
+        for (Class<?> iface : type.getInterfaces()) {
+            if (interfaces.add(iface)) {
+                collectInterfaces(iface, interfaces);
+            }
+        }
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class && method.getName().equals("equals")) {
+            return proxy == args[0];
+        }
+
+        Object result = null;
+        if (method.getName().equals("findType")) {
+            result = findType(args);
+        } else if (method.getName().equals("isPackage") && args.length == 2
+                && args[0] instanceof char[][] && args[1] instanceof char[]) {
+            result = isPackage(join((char[][]) args[0], (char[]) args[1])) ? Boolean.TRUE : null;
+        }
+        if (result != null) {
+            return result;
+        }
+
+        try {
+            return method.invoke(this.environment, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private NameEnvironmentAnswer findType(Object[] args) {
+        // findType(char[][] compoundName, ...) or findType(char[] typeName, char[][] packageName, ...)
+        String name;
+        int next;
+        if (args.length >= 1 && args[0] instanceof char[][]) {
+            name = join((char[][]) args[0], null);
+            next = 1;
+        } else if (args.length >= 2 && args[0] instanceof char[] && args[1] instanceof char[][]) {
+            name = join((char[][]) args[1], (char[]) args[0]);
+            next = 2;
+        } else {
+            return null;
+        }
+
+        // Classes of the class path are in the unnamed module
+        for (int i = next; i < args.length; i++) {
+            if (args[i] instanceof char[] && !isUnnamedModule((char[]) args[i])) {
+                return null;
+            }
+        }
+
+        int i = name.lastIndexOf('/');
+        // Classes of the JDK are not replaced by the class path
+        if (i == -1 || name.startsWith("java/") || !isPackage(name.substring(0, i))) {
+            return null;
+        }
+
+        try {
+            byte[] bytes = this.index.readClass(name, this.classPath).orElse(null);
+            if (bytes == null) {
+                return null;
+            }
+            return new NameEnvironmentAnswer(new org.eclipse.jdt.internal.compiler.classfmt.ClassFileReader(bytes,
+                    (name + ClassPathIndex.CLASS_EXTENSION).toCharArray()), null);
+        } catch (ClassFormatException e) {
+            // Let JDT report the invalid class file
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + name, e);
+        }
+    }
+
+    private boolean isPackage(String packageName) {
+        for (Path entry : this.index.findEntries(packageName)) {
+            if (this.classPath.contains(entry)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isUnnamedModule(char[] moduleName) {
+        return moduleName.length == 0 || Arrays.equals(moduleName, ALL_UNNAMED);
+    }
+
+    private static String join(char[][] packageName, char[] name) {
+        StringBuilder builder = new StringBuilder();
+        if (packageName != null) {
+            for (char[] part : packageName) {
+                if (builder.length() > 0) {
+                    builder.append('/');
+                }
+                builder.append(part);
+            }
+        }
+        if (name != null) {
+            if (builder.length() > 0) {
+                builder.append('/');
+            }
+            builder.append(name);
+        }
+        return builder.toString();
+    }
+
+}
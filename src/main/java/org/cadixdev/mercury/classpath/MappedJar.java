@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.classpath;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A read-only view of a jar file that is memory-mapped as a whole. Only the
+ * central directory is parsed, entries are inflated on demand.
+ *
+ * <p>ZIP64 archives are not supported and are rejected with a {@link ZipException}.</p>
+ */
+final class MappedJar {
+
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    private final Path path;
+    private final ByteBuffer buffer;
+    private final Map<String, Integer> entries;
+
+    private MappedJar(Path path, ByteBuffer buffer, Map<String, Integer> entries) {
+        this.path = path;
+        this.buffer = buffer;
+        this.entries = entries;
+    }
+
+    static MappedJar open(Path path) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new ZipException("Jar file too large to map: " + path);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        return new MappedJar(path, buffer, readCentralDirectory(path, buffer));
+    }
+
+    private static Map<String, Integer> readCentralDirectory(Path path, ByteBuffer buffer) throws ZipException {
+        int end = findEndOfCentralDirectory(buffer);
+        if (end == -1) {
+            throw new ZipException("Not a zip file: " + path);
+        }
+
+        int count = Short.toUnsignedInt(buffer.getShort(end + 10));
+        long size = Integer.toUnsignedLong(buffer.getInt(end + 12));
+        long offset = Integer.toUnsignedLong(buffer.getInt(end + 16));
+        if (count == 0xFFFF || offset == 0xFFFFFFFFL || offset + size > buffer.limit()) {
+            throw new ZipException("ZIP64 archives are not supported: " + path);
+        }
+
+        Map<String, Integer> entries = new HashMap<>(count * 2);
+        int pos = (int) offset;
+        for (int i = 0; i < count; i++) {
+            if (buffer.getInt(pos) != CENTRAL_DIRECTORY_HEADER) {
+                throw new ZipException("Invalid central directory in " + path);
+            }
+
+            int nameLength = Short.toUnsignedInt(buffer.getShort(pos + 28));
+            int extraLength = Short.toUnsignedInt(buffer.getShort(pos + 30));
+            int commentLength = Short.toUnsignedInt(buffer.getShort(pos + 32));
+
+            entries.put(readString(buffer, pos + 46, nameLength), pos);
+            pos += 46 + nameLength + extraLength + commentLength;
+        }
+
+        return entries;
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer buffer) {
+        int min = Math.max(0, buffer.limit() - END_OF_CENTRAL_DIRECTORY_SIZE - MAX_COMMENT_LENGTH);
+        for (int pos = buffer.limit() - END_OF_CENTRAL_DIRECTORY_SIZE; pos >= min; pos--) {
+            if (buffer.getInt(pos) == END_OF_CENTRAL_DIRECTORY) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    private static String readString(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    Path getPath() {
+        return this.path;
+    }
+
+    Collection<String> getEntryNames() {
+        return Collections.unmodifiableSet(this.entries.keySet());
+    }
+
+    boolean contains(String name) {
+        return this.entries.containsKey(name);
+    }
+
+    byte[] read(String name) throws IOException {
+        Integer header = this.entries.get(name);
+        if (header == null) {
+            return null;
+        }
+
+        int method = Short.toUnsignedInt(this.buffer.getShort(header + 10));
+        int compressedSize = this.buffer.getInt(header + 20);
+        int size = this.buffer.getInt(header + 24);
+        int local = this.buffer.getInt(header + 42);
+
+        if (compressedSize < 0 || size < 0 || local < 0 || this.buffer.getInt(local) != LOCAL_FILE_HEADER) {
+            throw new ZipException("Invalid entry " + name + " in " + this.path);
+        }
+
+        int nameLength = Short.toUnsignedInt(this.buffer.getShort(local + 26));
+        int extraLength = Short.toUnsignedInt(this.buffer.getShort(local + 28));
+
+        ByteBuffer data = this.buffer.duplicate();
+        data.position(local + 30 + nameLength + extraLength);
+        data.limit(data.position() + compressedSize);
+
+        byte[] result = new byte[size];
+        switch (method) {
+            case METHOD_STORED:
+                data.get(result);
+                return result;
+            case METHOD_DEFLATED:
+                // Inflater only accepts byte buffers since Java 11
+                byte[] input = new byte[compressedSize];
+                data.get(input);
+
+                Inflater inflater = new Inflater(true);
+                try {
+                    inflater.setInput(input);
+                    int read = 0;
+                    while (read < size && !inflater.finished()) {
+                        int n = inflater.inflate(result, read, size - read);
+                        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                            break;
+                        }
+                        read += n;
+                    }
+                    if (read != size) {
+                        throw new ZipException("Truncated entry " + name + " in " + this.path);
+                    }
+                    return result;
+                } catch (DataFormatException e) {
+                    throw new ZipException("Invalid compressed data for " + name + " in " + this.path + ": " + e.getMessage());
+                } finally {
+                    inflater.end();
+                }
+            default:
+                throw new ZipException("Unsupported compression method " + method + " for " + name + " in " + this.path);
+        }
+    }
+
+}
@@ -58,7 +58,7 @@ private AccessAnalyzerProcessor(AccessTransformSet ats, MappingSet mappings) {
 
     @Override
     public int getFlags() {
-        return FLAG_RESOLVE_BINDINGS;
+        return FLAG_RESOLVE_BINDINGS | FLAG_ANALYSIS;
     }
 
     @Override
@@ -127,7 +127,7 @@ private boolean needsTransform(SimpleName node, IBinding binding, ITypeBinding d
                 return false;
             }
 
-            final String binaryName = declaringClass.getBinaryName();
+            final String binaryName = this.context.getBinaryName(declaringClass);
             if (binaryName == null) {
                 throw new IllegalStateException("Binary name for binding " + declaringClass.getQualifiedName() + " is null. Did you forget to add a library to the classpath?");
             }
@@ -152,7 +152,7 @@ private void analyze(SimpleName node, ITypeBinding binding) {
                 return;
             }
             if (needsTransform(node, binding, binding)) {
-                this.ats.getOrCreateClass(binding.getBinaryName()).merge(TRANSFORM);
+                this.ats.getOrCreateClass(this.context.getBinaryName(binding)).merge(TRANSFORM);
             }
         }
 
@@ -160,7 +160,7 @@ private void analyze(SimpleName node, IMethodBinding binding) {
             ITypeBinding declaringClass = binding.getDeclaringClass();
             if (needsTransform(node, binding, declaringClass)) {
                 MethodSignature signature = convertSignature(binding);
-                this.ats.getOrCreateClass(declaringClass.getBinaryName()).mergeMethod(signature, TRANSFORM);
+                this.ats.getOrCreateClass(this.context.getBinaryName(declaringClass)).mergeMethod(signature, TRANSFORM);
             }
         }
 
@@ -171,7 +171,7 @@ private void analyze(SimpleName node, IVariableBinding binding) {
 
             ITypeBinding declaringClass = binding.getDeclaringClass();
             if (needsTransform(node, binding, declaringClass)) {
-                this.ats.getOrCreateClass(declaringClass.getBinaryName()).mergeField(binding.getName(), TRANSFORM);
+                this.ats.getOrCreateClass(this.context.getBinaryName(declaringClass)).mergeField(binding.getName(), TRANSFORM);
             }
         }
 
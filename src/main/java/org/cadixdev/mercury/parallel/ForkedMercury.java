@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.parallel;
+
+import static org.cadixdev.mercury.Mercury.JAVA_EXTENSION;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Rewrites a source directory with several worker JVMs, each with its own
+ * JDT environment and heap. The source files are split into one shard per
+ * worker, and the output files are streamed back to this JVM, which writes
+ * them to the output directory.
+ *
+ * <p>Each worker configures its {@link org.cadixdev.mercury.Mercury} instance
+ * with a {@link WorkerConfigurator}. All source files remain available to
+ * the workers to resolve references, but each worker only rewrites its own
+ * shard.</p>
+ *
+ * <p>Since each worker only processes its shard, processors must not depend
+ * on state collected from other source files. Each worker calls
+ * {@link org.cadixdev.mercury.SourceProcessor#finish(org.cadixdev.mercury.Mercury)}
+ * with the state of its own shard, and the results stay in the worker JVM.
+ * Workers fail with {@link org.cadixdev.mercury.SourceProcessor#FLAG_ANALYSIS
+ * analysis processors}, which need to see all source files. Only output
+ * files written to the output directory of the worker are passed on.</p>
+ */
+public final class ForkedMercury {
+
+    private final Class<? extends WorkerConfigurator> configurator;
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private final List<String> jvmArguments = new ArrayList<>();
+    private final List<Path> classPath = new ArrayList<>();
+
+    public ForkedMercury(Class<? extends WorkerConfigurator> configurator) {
+        this.configurator = Objects.requireNonNull(configurator, "configurator");
+    }
+
+    public int getWorkers() {
+        return this.workers;
+    }
+
+    public void setWorkers(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be positive: " + workers);
+        }
+        this.workers = workers;
+    }
+
+    /**
+     * Gets the arguments passed to each worker JVM, for example to limit the
+     * heap size of the workers.
+     *
+     * @return The JVM arguments
+     */
+    public List<String> getJvmArguments() {
+        return this.jvmArguments;
+    }
+
+    /**
+     * Gets the class path of the worker JVMs. It must contain Mercury, its
+     * dependencies and the {@link WorkerConfigurator}. If it is empty, the
+     * workers use the class path of this JVM ({@code java.class.path}),
+     * which is only complete if Mercury was loaded by the application class
+     * loader. Set the class path explicitly if Mercury runs in another class
+     * loader, for example in a Gradle plugin.
+     *
+     * @return The class path of the workers
+     */
+    public List<Path> getClassPath() {
+        return this.classPath;
+    }
+
+    public void rewrite(Path sourceDir, Path outputDir) throws Exception {
+        List<Path> sourceFiles;
+        try (Stream<Path> files = Files.walk(sourceDir, FileVisitOption.FOLLOW_LINKS)) {
+            sourceFiles = files.filter(p -> p.getFileName() != null && p.getFileName().toString().endsWith(JAVA_EXTENSION))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        int workers = Math.min(this.workers, sourceFiles.size());
+        if (workers == 0) {
+            return;
+        }
+
+        Path tempDir = Files.createTempDirectory("mercury-workers");
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        List<Process> processes = new ArrayList<>(workers);
+        try {
+            Set<String> outputFiles = ConcurrentHashMap.newKeySet();
+            CompletionService<Void> results = new ExecutorCompletionService<>(executor);
+
+            for (int i = 0; i < workers; i++) {
+                // Neighbouring files usually share most of their references
+                List<Path> shard = sourceFiles.subList(i * sourceFiles.size() / workers, (i + 1) * sourceFiles.size() / workers);
+                Path config = tempDir.resolve("worker-" + i);
+                writeConfig(config, sourceDir, shard);
+
+                Process process = startWorker(config);
+                processes.add(process);
+                int worker = i;
+                results.submit(() -> {
+                    receive(process, worker, outputDir, outputFiles);
+                    return null;
+                });
+            }
+
+            for (int i = 0; i < workers; i++) {
+                // Fail as soon as one worker fails, the other workers are destroyed below
+                try {
+                    results.take().get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            for (Process process : processes) {
+                process.destroyForcibly();
+            }
+
+            try (Stream<Path> files = Files.walk(tempDir)) {
+                for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private void writeConfig(Path config, Path sourceDir, List<Path> shard) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(config))) {
+            out.writeUTF(this.configurator.getName());
+            out.writeUTF(sourceDir.toAbsolutePath().toString());
+            out.writeInt(shard.size());
+            for (Path sourceFile : shard) {
+                out.writeUTF(sourceFile.toAbsolutePath().toString());
+            }
+        }
+    }
+
+    private Process startWorker(Path config) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(this.jvmArguments);
+        command.add("-cp");
+        command.add(this.classPath.isEmpty()
+                ? System.getProperty("java.class.path")
+                : this.classPath.stream().map(Path::toString).collect(Collectors.joining(File.pathSeparator)));
+        command.add(MercuryWorker.class.getName());
+        command.add(config.toString());
+
+        return new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+    }
+
+    private static void receive(Process process, int worker, Path outputDir, Set<String> outputFiles)
+            throws IOException, InterruptedException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(process.getInputStream()))) {
+            // The output is received while the worker runs, so it never blocks on a full pipe
+            while (readBoolean(in, process, worker)) {
+                String name = in.readUTF();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+
+                if (!outputFiles.add(name)) {
+                    throw new IllegalStateException("Worker " + worker + " rewrote " + name + ", which was already written by another worker");
+                }
+
+                Path outputFile = outputDir.resolve(name);
+                Files.createDirectories(outputFile.getParent());
+                Files.write(outputFile, bytes);
+            }
+        }
+
+        checkExitCode(process, worker);
+    }
+
+    private static boolean readBoolean(DataInputStream in, Process process, int worker) throws IOException, InterruptedException {
+        try {
+            return in.readBoolean();
+        } catch (EOFException e) {
+            // The worker exited before it sent all output files
+            checkExitCode(process, worker);
+            throw new IOException("Worker " + worker + " exited without completing its output", e);
+        }
+    }
+
+    private static void checkExitCode(Process process, int worker) throws IOException, InterruptedException {
+        int exitCode = process.waitFor();
+        if (exitCode != 0) {
+            throw new IOException("Worker " + worker + " failed with exit code " + exitCode);
+        }
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.parallel;
+
+import org.cadixdev.mercury.Mercury;
+import org.cadixdev.mercury.SourceProcessor;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * The entry point of the worker JVMs started by {@link ForkedMercury}.
+ *
+ * <p>The worker rewrites the source files of its shard, and streams each
+ * output file back to the coordinator through its standard output as soon
+ * as it has been written.</p>
+ */
+public final class MercuryWorker {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: MercuryWorker <config>");
+            System.exit(1);
+        }
+
+        // The standard output is reserved for the output files
+        PrintStream results = System.out;
+        System.setOut(System.err);
+
+        String configuratorName;
+        Path sourceDir;
+        List<Path> sourceFiles = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(Paths.get(args[0])))) {
+            configuratorName = in.readUTF();
+            sourceDir = Paths.get(in.readUTF());
+            for (int i = in.readInt(); i > 0; i--) {
+                sourceFiles.add(Paths.get(in.readUTF()));
+            }
+        }
+
+        Mercury mercury = new Mercury();
+        WorkerConfigurator configurator = (WorkerConfigurator) Class.forName(configuratorName).getConstructor().newInstance();
+        configurator.configure(mercury);
+
+        for (SourceProcessor processor : mercury.getProcessors()) {
+            if ((processor.getFlags() & SourceProcessor.FLAG_ANALYSIS) != 0) {
+                throw new IllegalStateException("Analysis processors need all source files, but each worker only processes its shard: "
+                        + processor.getClass().getName());
+            }
+        }
+
+        Path outputDir = Files.createTempDirectory("mercury-worker");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(results));
+        try {
+            // Send each output file as soon as it is written, so the
+            // coordinator can write it while the shard is still processed
+            mercury.setOutputListener(outputFile -> {
+                if (!outputFile.startsWith(outputDir)) {
+                    throw new IllegalStateException("Output file outside of the output directory: " + outputFile);
+                }
+
+                byte[] bytes = Files.readAllBytes(outputFile);
+                out.writeBoolean(true);
+                out.writeUTF(outputDir.relativize(outputFile).toString().replace(File.separatorChar, '/'));
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                out.flush();
+                Files.delete(outputFile);
+            });
+            mercury.rewrite(sourceDir, outputDir, sourceFiles);
+
+            out.writeBoolean(false);
+            out.flush();
+        } finally {
+            try (Stream<Path> files = Files.walk(outputDir)) {
+                for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private MercuryWorker() {
+    }
+
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.parallel;
+
+import org.cadixdev.mercury.Mercury;
+
+/**
+ * Configures the {@link Mercury} instance of a worker JVM started by
+ * {@link ForkedMercury}, for example by adding the class path and the
+ * processors with their mappings.
+ *
+ * <p>Implementations are created in each worker JVM, so they must have a
+ * public constructor without parameters. The processors must not rely on
+ * state shared between the source files of different workers, see
+ * {@link ForkedMercury}.</p>
+ */
+@FunctionalInterface
+public interface WorkerConfigurator {
+
+    void configure(Mercury mercury) throws Exception;
+
+}
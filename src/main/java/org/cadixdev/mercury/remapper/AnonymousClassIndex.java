@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.remapper;
+
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.InnerClassMapping;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An index of the inner class mappings by their deobfuscated names, used for
+ * {@link org.cadixdev.mercury.Mercury#isFlexibleAnonymousClassMemberLookups()
+ * flexible anonymous class member lookups}. The inner classes of a parent
+ * are indexed on the first lookup, and anonymous classes without any
+ * sibling mapping are remembered, so repeated lookups are constant time.
+ *
+ * <p>The parents are identified by their full obfuscated name, so inner
+ * class mappings added to a parent after it was indexed are not found.</p>
+ */
+final class AnonymousClassIndex {
+
+    private final Map<String, Map<String, InnerClassMapping>> byDeobfuscatedName = new HashMap<>();
+    private final Set<String> unmatched = new HashSet<>();
+
+    /**
+     * Finds the inner class of the given parent with the given deobfuscated
+     * name.
+     *
+     * @param parent The parent class mapping
+     * @param deobfuscatedName The simple deobfuscated name of the inner class
+     * @return The inner class mapping, or {@code null} if there is none
+     */
+    InnerClassMapping findByDeobfuscatedName(ClassMapping<?, ?> parent, String deobfuscatedName) {
+        Map<String, InnerClassMapping> inner = this.byDeobfuscatedName.get(parent.getFullObfuscatedName());
+        if (inner == null) {
+            inner = new HashMap<>();
+            for (InnerClassMapping mapping : parent.getInnerClassMappings()) {
+                // Keep the first match, like a linear search would
+                inner.putIfAbsent(mapping.getDeobfuscatedName(), mapping);
+            }
+            this.byDeobfuscatedName.put(parent.getFullObfuscatedName(), inner);
+        }
+        return inner.get(deobfuscatedName);
+    }
+
+    /**
+     * Checks if the given anonymous class is known to have no sibling mapping
+     * to look up members in.
+     *
+     * @param mapping The anonymous class mapping
+     * @return {@code true} if there is no sibling mapping
+     */
+    boolean isUnmatched(ClassMapping<?, ?> mapping) {
+        return this.unmatched.contains(mapping.getFullObfuscatedName());
+    }
+
+    void markUnmatched(ClassMapping<?, ?> mapping) {
+        this.unmatched.add(mapping.getFullObfuscatedName());
+    }
+
+}
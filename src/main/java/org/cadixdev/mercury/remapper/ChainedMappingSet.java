@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.remapper;
+
+import org.cadixdev.bombe.type.ArrayType;
+import org.cadixdev.bombe.type.FieldType;
+import org.cadixdev.bombe.type.MethodDescriptor;
+import org.cadixdev.bombe.type.ObjectType;
+import org.cadixdev.bombe.type.Type;
+import org.cadixdev.bombe.type.signature.FieldSignature;
+import org.cadixdev.bombe.type.signature.MethodSignature;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.FieldMapping;
+import org.cadixdev.lorenz.model.InnerClassMapping;
+import org.cadixdev.lorenz.model.MethodMapping;
+import org.cadixdev.lorenz.model.MethodParameterMapping;
+import org.cadixdev.lorenz.model.TopLevelClassMapping;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.UnaryOperator;
+
+/**
+ * A {@link MappingSet} composed of a chain of mapping sets, where the
+ * deobfuscated names of each mapping set are the obfuscated names of the
+ * next one.
+ *
+ * <p>The chain is composed lazily: a top-level class is composed, together
+ * with its inner classes and members, when it is looked up for the first
+ * time. {@link #getTopLevelClassMappings()} therefore only returns the
+ * classes that have been looked up so far.</p>
+ */
+final class ChainedMappingSet extends MappingSet {
+
+    private final List<MappingSet> chain;
+    private final Set<String> composed = new HashSet<>();
+    private final List<Map<String, String>> reverseClassNames;
+
+    ChainedMappingSet(List<MappingSet> chain) {
+        if (chain.isEmpty()) {
+            throw new IllegalArgumentException("Empty mapping chain");
+        }
+        this.chain = Collections.unmodifiableList(new ArrayList<>(chain));
+        this.reverseClassNames = new ArrayList<>(Collections.nCopies(chain.size(), null));
+    }
+
+    List<MappingSet> getChain() {
+        return this.chain;
+    }
+
+    @Override
+    public Optional<TopLevelClassMapping> getTopLevelClassMapping(String obfuscatedName) {
+        compose(obfuscatedName.replace('.', '/'));
+        return super.getTopLevelClassMapping(obfuscatedName);
+    }
+
+    @Override
+    public TopLevelClassMapping getOrCreateTopLevelClassMapping(String obfuscatedName) {
+        compose(obfuscatedName.replace('.', '/'));
+        return super.getOrCreateTopLevelClassMapping(obfuscatedName);
+    }
+
+    private void compose(String obfuscatedName) {
+        if (!this.composed.add(obfuscatedName)) {
+            return;
+        }
+
+        List<ClassMapping<?, ?>> levels = new ArrayList<>(this.chain.size());
+        String name = obfuscatedName;
+        boolean mapped = false;
+        for (MappingSet mappings : this.chain) {
+            TopLevelClassMapping mapping = mappings.getTopLevelClassMapping(name).orElse(null);
+            levels.add(mapping);
+            if (mapping != null) {
+                name = mapping.getFullDeobfuscatedName();
+                mapped = true;
+            }
+        }
+
+        if (mapped) {
+            compose(createTopLevelClassMapping(obfuscatedName, name), levels);
+        }
+    }
+
+    /**
+     * Composes the members and inner classes of a class.
+     *
+     * @param target The composed class mapping
+     * @param levels The mapping of the class in each mapping set of the
+     *     chain, or {@code null} for mapping sets without a mapping for it
+     */
+    private void compose(ClassMapping<?, ?> target, List<ClassMapping<?, ?>> levels) {
+        composeFields(target, levels);
+        composeMethods(target, levels);
+        composeInnerClasses(target, levels);
+    }
+
+    private void composeFields(ClassMapping<?, ?> target, List<ClassMapping<?, ?>> levels) {
+        // Current signature -> obfuscated signature
+        Map<FieldSignature, FieldSignature> fields = new LinkedHashMap<>();
+
+        for (int level = 0; level < levels.size(); level++) {
+            ClassMapping<?, ?> mapping = levels.get(level);
+            if (mapping == null) {
+                if (level > 0) {
+                    fields = translateFields(fields, level);
+                }
+                continue;
+            }
+
+            Map<FieldSignature, FieldSignature> next = new LinkedHashMap<>();
+            Set<FieldSignature> signatures = new HashSet<>();
+            // Fields without a type match all fields with the same name
+            Set<String> names = new HashSet<>();
+            Set<String> untypedNames = new HashSet<>();
+            for (Map.Entry<FieldSignature, FieldSignature> entry : fields.entrySet()) {
+                FieldSignature signature = entry.getKey();
+                signatures.add(signature);
+                names.add(signature.getName());
+                if (!signature.getType().isPresent()) {
+                    untypedNames.add(signature.getName());
+                }
+
+                FieldMapping field = mapping.computeFieldMapping(signature).orElse(null);
+                next.put(field != null ? deobfuscate(signature, field.getDeobfuscatedName(), level) : deobfuscate(signature, signature.getName(), level), entry.getValue());
+            }
+
+            // Fields that are only mapped from this level on
+            for (FieldMapping field : mapping.getFieldMappings()) {
+                FieldSignature signature = field.getSignature();
+                boolean composed = signatures.contains(signature) || untypedNames.contains(signature.getName())
+                        || !signature.getType().isPresent() && names.contains(signature.getName());
+                if (!composed) {
+                    next.put(deobfuscate(signature, field.getDeobfuscatedName(), level), obfuscate(signature, level));
+                }
+            }
+
+            fields = next;
+        }
+
+        for (Map.Entry<FieldSignature, FieldSignature> entry : fields.entrySet()) {
+            if (!entry.getKey().getName().equals(entry.getValue().getName())) {
+                target.createFieldMapping(entry.getValue(), entry.getKey().getName());
+            }
+        }
+    }
+
+    private Map<FieldSignature, FieldSignature> translateFields(Map<FieldSignature, FieldSignature> fields, int level) {
+        Map<FieldSignature, FieldSignature> next = new LinkedHashMap<>();
+        for (Map.Entry<FieldSignature, FieldSignature> entry : fields.entrySet()) {
+            next.put(deobfuscate(entry.getKey(), entry.getKey().getName(), level), entry.getValue());
+        }
+        return next;
+    }
+
+    private void composeMethods(ClassMapping<?, ?> target, List<ClassMapping<?, ?>> levels) {
+        // Current signature -> composed method
+        Map<MethodSignature, ComposedMethod> methods = new LinkedHashMap<>();
+
+        for (int level = 0; level < levels.size(); level++) {
+            ClassMapping<?, ?> mapping = levels.get(level);
+
+            Map<MethodSignature, ComposedMethod> next = new LinkedHashMap<>();
+            for (Map.Entry<MethodSignature, ComposedMethod> entry : methods.entrySet()) {
+                MethodSignature signature = entry.getKey();
+                MethodMapping method = mapping != null ? mapping.getMethodMapping(signature).orElse(null) : null;
+
+                ComposedMethod composed = entry.getValue();
+                if (method != null) {
+                    composed.add(method);
+                }
+                next.put(deobfuscate(signature, method != null ? method.getDeobfuscatedName() : signature.getName(), level), composed);
+            }
+
+            // Methods that are only mapped from this level on
+            if (mapping != null) {
+                for (MethodMapping method : mapping.getMethodMappings()) {
+                    MethodSignature signature = method.getSignature();
+                    if (!methods.containsKey(signature)) {
+                        ComposedMethod composed = new ComposedMethod(obfuscate(signature, level));
+                        composed.add(method);
+                        next.put(deobfuscate(signature, method.getDeobfuscatedName(), level), composed);
+                    }
+                }
+            }
+
+            methods = next;
+        }
+
+        for (Map.Entry<MethodSignature, ComposedMethod> entry : methods.entrySet()) {
+            ComposedMethod composed = entry.getValue();
+            if (composed.obfuscatedSignature.getName().equals(entry.getKey().getName()) && composed.parameters.isEmpty()) {
+                continue;
+            }
+
+            MethodMapping method = target.createMethodMapping(composed.obfuscatedSignature, entry.getKey().getName());
+            for (Map.Entry<Integer, String> parameter : composed.parameters.entrySet()) {
+                method.createParameterMapping(parameter.getKey(), parameter.getValue());
+            }
+        }
+    }
+
+    private void composeInnerClasses(ClassMapping<?, ?> target, List<ClassMapping<?, ?>> levels) {
+        // Current name -> composed inner class
+        Map<String, ComposedInnerClass> classes = new LinkedHashMap<>();
+
+        for (int level = 0; level < levels.size(); level++) {
+            ClassMapping<?, ?> mapping = levels.get(level);
+
+            Map<String, ComposedInnerClass> next = new LinkedHashMap<>();
+            for (Map.Entry<String, ComposedInnerClass> entry : classes.entrySet()) {
+                InnerClassMapping inner = mapping != null ? mapping.getInnerClassMapping(entry.getKey()).orElse(null) : null;
+                entry.getValue().levels.add(inner);
+                next.put(inner != null ? inner.getDeobfuscatedName() : entry.getKey(), entry.getValue());
+            }
+
+            // Inner classes that are only mapped from this level on
+            if (mapping != null) {
+                for (InnerClassMapping inner : mapping.getInnerClassMappings()) {
+                    if (!classes.containsKey(inner.getObfuscatedName())) {
+                        ComposedInnerClass composed = new ComposedInnerClass(inner.getObfuscatedName(), level);
+                        composed.levels.add(inner);
+                        next.put(inner.getDeobfuscatedName(), composed);
+                    }
+                }
+            }
+
+            classes = next;
+        }
+
+        for (Map.Entry<String, ComposedInnerClass> entry : classes.entrySet()) {
+            ComposedInnerClass composed = entry.getValue();
+            compose(target.createInnerClassMapping(composed.obfuscatedName, entry.getKey()), composed.levels);
+        }
+    }
+
+    private FieldSignature deobfuscate(FieldSignature signature, String name, int level) {
+        FieldType type = signature.getType().orElse(null);
+        return new FieldSignature(name, type != null ? this.chain.get(level).deobfuscate(type) : null);
+    }
+
+    private MethodSignature deobfuscate(MethodSignature signature, String name, int level) {
+        return new MethodSignature(name, this.chain.get(level).deobfuscate(signature.getDescriptor()));
+    }
+
+    /**
+     * Translates a signature from the obfuscated names of the given level
+     * back to the obfuscated names of the first mapping set in the chain.
+     */
+    private FieldSignature obfuscate(FieldSignature signature, int level) {
+        FieldType type = signature.getType().orElse(null);
+        for (int i = level - 1; i >= 0 && type != null; i--) {
+            type = (FieldType) mapType(type, reverseClassNames(i));
+        }
+        return new FieldSignature(signature.getName(), type);
+    }
+
+    private MethodSignature obfuscate(MethodSignature signature, int level) {
+        MethodDescriptor descriptor = signature.getDescriptor();
+        for (int i = level - 1; i >= 0; i--) {
+            UnaryOperator<String> names = reverseClassNames(i);
+
+            List<FieldType> params = new ArrayList<>(descriptor.getParamTypes().size());
+            for (FieldType param : descriptor.getParamTypes()) {
+                params.add((FieldType) mapType(param, names));
+            }
+            descriptor = new MethodDescriptor(params, mapType(descriptor.getReturnType(), names));
+        }
+        return new MethodSignature(signature.getName(), descriptor);
+    }
+
+    private UnaryOperator<String> reverseClassNames(int level) {
+        Map<String, String> names = this.reverseClassNames.get(level);
+        if (names == null) {
+            names = new HashMap<>();
+            for (TopLevelClassMapping mapping : this.chain.get(level).getTopLevelClassMappings()) {
+                addReverseClassNames(mapping, names);
+            }
+            this.reverseClassNames.set(level, names);
+        }
+
+        Map<String, String> reverse = names;
+        return name -> reverse.getOrDefault(name, name);
+    }
+
+    private static void addReverseClassNames(ClassMapping<?, ?> mapping, Map<String, String> names) {
+        names.put(mapping.getFullDeobfuscatedName(), mapping.getFullObfuscatedName());
+        for (InnerClassMapping inner : mapping.getInnerClassMappings()) {
+            addReverseClassNames(inner, names);
+        }
+    }
+
+    private static Type mapType(Type type, UnaryOperator<String> names) {
+        if (type instanceof ObjectType) {
+            return new ObjectType(names.apply(((ObjectType) type).getClassName()));
+        }
+        if (type instanceof ArrayType) {
+            ArrayType array = (ArrayType) type;
+            return new ArrayType(array.getDimCount(), (FieldType) mapType(array.getComponent(), names));
+        }
+        return type;
+    }
+
+    private static final class ComposedMethod {
+
+        private final MethodSignature obfuscatedSignature;
+        private final Map<Integer, String> parameters = new TreeMap<>();
+
+        private ComposedMethod(MethodSignature obfuscatedSignature) {
+            this.obfuscatedSignature = obfuscatedSignature;
+        }
+
+        void add(MethodMapping method) {
+            // Later mapping sets override the parameter names of earlier ones
+            for (MethodParameterMapping parameter : method.getParameterMappings()) {
+                this.parameters.put(parameter.getIndex(), parameter.getDeobfuscatedName());
+            }
+        }
+
+    }
+
+    private static final class ComposedInnerClass {
+
+        private final String obfuscatedName;
+        private final List<ClassMapping<?, ?>> levels = new ArrayList<>();
+
+        private ComposedInnerClass(String obfuscatedName, int level) {
+            this.obfuscatedName = obfuscatedName;
+            for (int i = 0; i < level; i++) {
+                this.levels.add(null);
+            }
+        }
+
+    }
+
+}
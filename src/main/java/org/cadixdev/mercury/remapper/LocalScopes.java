@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.remapper;
+
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.Block;
+import org.eclipse.jdt.core.dom.CatchClause;
+import org.eclipse.jdt.core.dom.EnhancedForStatement;
+import org.eclipse.jdt.core.dom.ForStatement;
+import org.eclipse.jdt.core.dom.LambdaExpression;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.SingleVariableDeclaration;
+import org.eclipse.jdt.core.dom.SwitchExpression;
+import org.eclipse.jdt.core.dom.SwitchStatement;
+import org.eclipse.jdt.core.dom.TryStatement;
+import org.eclipse.jdt.core.dom.VariableDeclaration;
+import org.eclipse.jdt.core.dom.VariableDeclarationFragment;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The scopes of the local variables declared in a method, including those
+ * of nested blocks, lambda expressions and local or anonymous classes. The
+ * tree is built in a single pass over the method, so checking whether a
+ * new name would clash with another local variable is a lookup.
+ */
+final class LocalScopes {
+
+    private final Map<VariableDeclaration, Scope> declarations = new IdentityHashMap<>();
+    private final Map<ASTNode, Scope> scopes = new IdentityHashMap<>();
+
+    /**
+     * Builds the scopes of the given method.
+     *
+     * @param method The method declaration
+     * @param outerNames The names of local variables captured from an
+     *     enclosing method, which are visible in the whole method
+     */
+    LocalScopes(MethodDeclaration method, Collection<String> outerNames) {
+        Scope root = new Scope(null);
+        for (String name : outerNames) {
+            root.declare(name);
+        }
+
+        method.accept(new Builder(root));
+    }
+
+    /**
+     * Checks if the given variable can not be renamed to the given name,
+     * because a variable with that name is visible in its scope or declared
+     * in one of its nested scopes.
+     *
+     * @param declaration The declaration of the variable
+     * @param name The new name
+     * @return {@code true} if the name is already used
+     */
+    boolean conflicts(VariableDeclaration declaration, String name) {
+        Scope scope = this.declarations.get(declaration);
+        if (scope == null) {
+            return false;
+        }
+
+        if (scope.nestedNames.contains(name)) {
+            return true;
+        }
+        for (Scope parent = scope.parent; parent != null; parent = parent.parent) {
+            if (parent.names.contains(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if a local variable with the given name is visible at the given
+     * node. Variables declared later in the same scope are included, so the
+     * result may be {@code true} even if the name is not hidden yet.
+     *
+     * @param node The node in the method
+     * @param name The name of the variable
+     * @return {@code true} if a local variable with that name is visible
+     */
+    boolean isVisible(ASTNode node, String name) {
+        for (; node != null; node = node.getParent()) {
+            Scope scope = this.scopes.get(node);
+            if (scope != null) {
+                for (; scope != null; scope = scope.parent) {
+                    if (scope.names.contains(name)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the new name of a renamed variable to its scope, so other
+     * variables are not renamed to the same name.
+     *
+     * @param declaration The declaration of the variable
+     * @param name The new name
+     */
+    void declare(VariableDeclaration declaration, String name) {
+        Scope scope = this.declarations.get(declaration);
+        if (scope != null) {
+            scope.declare(name);
+        }
+    }
+
+    private static boolean isScope(ASTNode node) {
+        return node instanceof MethodDeclaration
+                || node instanceof Block
+                || node instanceof LambdaExpression
+                || node instanceof ForStatement
+                || node instanceof EnhancedForStatement
+                || node instanceof CatchClause
+                || node instanceof TryStatement
+                || node instanceof SwitchStatement
+                || node instanceof SwitchExpression;
+    }
+
+    private static final class Scope {
+
+        private final Scope parent;
+        private final Set<String> names = new HashSet<>();
+        // The names declared in this scope and all of its nested scopes
+        private final Set<String> nestedNames = new HashSet<>();
+
+        private Scope(Scope parent) {
+            this.parent = parent;
+        }
+
+        private void declare(String name) {
+            this.names.add(name);
+            for (Scope scope = this; scope != null; scope = scope.parent) {
+                if (!scope.nestedNames.add(name)) {
+                    // The parents already contain the name as well
+                    break;
+                }
+            }
+        }
+
+    }
+
+    private final class Builder extends ASTVisitor {
+
+        private final Deque<Scope> scopes = new ArrayDeque<>();
+
+        private Builder(Scope root) {
+            this.scopes.push(root);
+        }
+
+        @Override
+        public boolean preVisit2(ASTNode node) {
+            if (isScope(node)) {
+                Scope scope = new Scope(this.scopes.peek());
+                this.scopes.push(scope);
+                LocalScopes.this.scopes.put(node, scope);
+            }
+            return true;
+        }
+
+        @Override
+        public void postVisit(ASTNode node) {
+            if (isScope(node)) {
+                this.scopes.pop();
+            }
+        }
+
+        private void declare(VariableDeclaration declaration) {
+            Scope scope = this.scopes.peek();
+            scope.declare(declaration.getName().getIdentifier());
+            LocalScopes.this.declarations.put(declaration, scope);
+        }
+
+        @Override
+        public boolean visit(SingleVariableDeclaration node) {
+            declare(node);
+            return true;
+        }
+
+        @Override
+        public boolean visit(VariableDeclarationFragment node) {
+            declare(node);
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.remapper;
+
+import static org.cadixdev.mercury.Mercury.JAVA_EXTENSION;
+
+import org.cadixdev.bombe.type.signature.FieldSignature;
+import org.cadixdev.bombe.type.signature.MethodSignature;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.FieldMapping;
+import org.cadixdev.lorenz.model.InnerClassMapping;
+import org.cadixdev.lorenz.model.Mapping;
+import org.cadixdev.lorenz.model.MethodMapping;
+import org.cadixdev.lorenz.model.MethodParameterMapping;
+import org.cadixdev.lorenz.model.TopLevelClassMapping;
+import org.cadixdev.mercury.Mercury;
+import org.cadixdev.mercury.analysis.ReferenceIndex;
+import org.cadixdev.mercury.analysis.SourceSummary;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The difference between two versions of a {@link MappingSet}, used to
+ * remap only the source files affected by a mapping update.
+ *
+ * <p>The difference is expressed as the simple names a source file must
+ * use to be affected: the obfuscated names of all changed classes and
+ * members, together with the old and new deobfuscated names of changed
+ * classes, since existing references may conflict with them.</p>
+ */
+public final class MappingDiff {
+
+    public static MappingDiff compute(MappingSet oldMappings, MappingSet newMappings) {
+        MappingDiff diff = new MappingDiff(oldMappings, newMappings);
+
+        Set<String> classes = new LinkedHashSet<>();
+        for (TopLevelClassMapping mapping : oldMappings.getTopLevelClassMappings()) {
+            classes.add(mapping.getFullObfuscatedName());
+        }
+        for (TopLevelClassMapping mapping : newMappings.getTopLevelClassMappings()) {
+            classes.add(mapping.getFullObfuscatedName());
+        }
+
+        for (String name : classes) {
+            diff.compare(name, oldMappings.getTopLevelClassMapping(name).orElse(null), newMappings.getTopLevelClassMapping(name).orElse(null));
+        }
+
+        return diff;
+    }
+
+    private final MappingSet oldMappings;
+    private final MappingSet newMappings;
+    private final Set<String> affectedNames = new HashSet<>();
+
+    private MappingDiff(MappingSet oldMappings, MappingSet newMappings) {
+        this.oldMappings = oldMappings;
+        this.newMappings = newMappings;
+    }
+
+    private void compare(String obfuscatedName, ClassMapping<?, ?> oldMapping, ClassMapping<?, ?> newMapping) {
+        String oldName = oldMapping != null ? oldMapping.getFullDeobfuscatedName() : obfuscatedName;
+        String newName = newMapping != null ? newMapping.getFullDeobfuscatedName() : obfuscatedName;
+        if (!oldName.equals(newName)) {
+            this.affectedNames.add(simpleName(obfuscatedName));
+            this.affectedNames.add(simpleName(oldName));
+            this.affectedNames.add(simpleName(newName));
+        }
+
+        compareMembers(fields(oldMapping), fields(newMapping));
+        compareMembers(methods(oldMapping), methods(newMapping));
+
+        Map<String, InnerClassMapping> oldInner = innerClasses(oldMapping);
+        Map<String, InnerClassMapping> newInner = innerClasses(newMapping);
+        for (String name : union(oldInner.keySet(), newInner.keySet())) {
+            compare(obfuscatedName + '$' + name, oldInner.get(name), newInner.get(name));
+        }
+    }
+
+    private <K> void compareMembers(Map<K, ? extends Mapping<?, ?>> oldMembers, Map<K, ? extends Mapping<?, ?>> newMembers) {
+        for (K signature : union(oldMembers.keySet(), newMembers.keySet())) {
+            Mapping<?, ?> oldMember = oldMembers.get(signature);
+            Mapping<?, ?> newMember = newMembers.get(signature);
+            Mapping<?, ?> member = oldMember != null ? oldMember : newMember;
+
+            String oldName = oldMember != null ? oldMember.getDeobfuscatedName() : member.getObfuscatedName();
+            String newName = newMember != null ? newMember.getDeobfuscatedName() : member.getObfuscatedName();
+            if (!oldName.equals(newName) || member instanceof MethodMapping
+                    && !parameters((MethodMapping) oldMember).equals(parameters((MethodMapping) newMember))) {
+                // Parameters can only be referenced within the method declaration
+                this.affectedNames.add(member.getObfuscatedName());
+            }
+        }
+    }
+
+    private static Map<FieldSignature, FieldMapping> fields(ClassMapping<?, ?> mapping) {
+        return mapping != null ? index(mapping.getFieldMappings(), FieldMapping::getSignature) : Collections.emptyMap();
+    }
+
+    private static Map<MethodSignature, MethodMapping> methods(ClassMapping<?, ?> mapping) {
+        return mapping != null ? index(mapping.getMethodMappings(), MethodMapping::getSignature) : Collections.emptyMap();
+    }
+
+    private static Map<String, InnerClassMapping> innerClasses(ClassMapping<?, ?> mapping) {
+        return mapping != null ? index(mapping.getInnerClassMappings(), InnerClassMapping::getObfuscatedName) : Collections.emptyMap();
+    }
+
+    private static Map<Integer, String> parameters(MethodMapping mapping) {
+        if (mapping == null) {
+            return Collections.emptyMap();
+        }
+
+        Map<Integer, String> parameters = new HashMap<>();
+        for (MethodParameterMapping parameter : mapping.getParameterMappings()) {
+            parameters.put(parameter.getIndex(), parameter.getDeobfuscatedName());
+        }
+        return parameters;
+    }
+
+    private static <K, V> Map<K, V> index(Collection<? extends V> values, Function<V, K> key) {
+        return values.stream().collect(Collectors.toMap(key, Function.identity(), (a, b) -> a));
+    }
+
+    private static <T> Set<T> union(Set<T> a, Set<T> b) {
+        Set<T> result = new LinkedHashSet<>(a);
+        result.addAll(b);
+        return result;
+    }
+
+    private static String simpleName(String name) {
+        int i = Math.max(name.lastIndexOf('/'), name.lastIndexOf('$'));
+        return name.substring(i + 1);
+    }
+
+    public Set<String> getAffectedNames() {
+        return Collections.unmodifiableSet(this.affectedNames);
+    }
+
+    public boolean isEmpty() {
+        return this.affectedNames.isEmpty();
+    }
+
+    /**
+     * Checks if the source file with the given summary may be remapped
+     * differently with the new mappings.
+     *
+     * @param summary The summary of the source file
+     * @return {@code true} if the file is affected by the difference
+     */
+    public boolean affects(SourceSummary summary) {
+        return uses(summary, this.affectedNames);
+    }
+
+    private static boolean uses(SourceSummary summary, Set<String> names) {
+        for (String identifier : summary.getIdentifiers()) {
+            if (names.contains(identifier)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Updates the output of a previous remapping run with the old mappings
+     * to the new mappings. Only the source files affected by the difference
+     * are processed again, all other files are taken from the previous
+     * output as is.
+     *
+     * <p>The given Mercury instance must be configured to remap with the
+     * new mappings.</p>
+     *
+     * <p>If the Mercury instance has a {@link Mercury#getReferenceIndexFile()
+     * reference index file} written by the previous run, the affected files
+     * are looked up in the index instead of scanning every source file.
+     * Only files missing from the index, and names the index may not have
+     * recorded, still need to be scanned. The index is then updated with the
+     * references of the files that were processed again.</p>
+     *
+     * @param mercury The Mercury instance to remap the affected files with
+     * @param sourceDir The source directory
+     * @param previousOutputDir The output directory of the previous run
+     * @param outputDir The output directory, may be the same as the
+     *     previous output directory
+     * @throws Exception If an error occurs while remapping
+     */
+    public void rewrite(Mercury mercury, Path sourceDir, Path previousOutputDir, Path outputDir) throws Exception {
+        boolean inPlace = previousOutputDir.toAbsolutePath().normalize().equals(outputDir.toAbsolutePath().normalize());
+
+        List<Path> sourceFiles;
+        try (Stream<Path> files = Files.walk(sourceDir, FileVisitOption.FOLLOW_LINKS)) {
+            sourceFiles = files.filter(p -> p.getFileName() != null && p.getFileName().toString().endsWith(JAVA_EXTENSION))
+                    .collect(Collectors.toList());
+        }
+
+        Path referenceIndexFile = mercury.getReferenceIndexFile();
+        ReferenceIndex index = null;
+        Set<String> indexedFiles = Collections.emptySet();
+        Set<String> referencingFiles = Collections.emptySet();
+        Set<String> scannedNames = this.affectedNames;
+        if (referenceIndexFile != null && Files.isRegularFile(referenceIndexFile)) {
+            index = ReferenceIndex.open(referenceIndexFile);
+            indexedFiles = new HashSet<>(index.getFiles());
+
+            Set<String> indexedNames = this.affectedNames;
+            scannedNames = Collections.emptySet();
+            if (index.isFiltered()) {
+                // Only the names of the old mappings were recorded. Names that
+                // are new to the mappings are scanned as well, so the kept
+                // references stay complete for the new mappings.
+                MappingIndex oldNames = MappingIndex.create(this.oldMappings);
+                indexedNames = new HashSet<>();
+                scannedNames = new HashSet<>();
+                for (String name : this.affectedNames) {
+                    (oldNames.contains(name) ? indexedNames : scannedNames).add(name);
+                }
+                for (String name : MappingIndex.create(this.newMappings).getNames()) {
+                    if (!oldNames.contains(name)) {
+                        scannedNames.add(name);
+                    }
+                }
+            }
+            referencingFiles = index.findFilesByName(indexedNames);
+        }
+
+        List<Path> affected = new ArrayList<>();
+        Set<String> processed = new HashSet<>();
+        for (Path sourceFile : sourceFiles) {
+            String name = sourceDir.relativize(sourceFile).toString().replace(sourceFile.getFileSystem().getSeparator(), "/");
+
+            SourceSummary summary = null;
+            boolean affects;
+            if (!indexedFiles.contains(name)) {
+                summary = scan(mercury, sourceFile);
+                affects = affects(summary);
+            } else if (referencingFiles.contains(name)) {
+                affects = true;
+            } else if (!scannedNames.isEmpty()) {
+                summary = scan(mercury, sourceFile);
+                affects = uses(summary, scannedNames);
+            } else {
+                affects = false;
+            }
+
+            if (affects) {
+                affected.add(sourceFile);
+                processed.add(name);
+                if (inPlace) {
+                    // The output may be written to a different file now
+                    String className = getClassName(summary != null ? summary : scan(mercury, sourceFile), sourceFile);
+                    Files.deleteIfExists(resolveOutputFile(previousOutputDir, className, this.oldMappings));
+                }
+            } else if (!inPlace) {
+                // Source files are usually in the directory of their package
+                String className = name.substring(0, name.length() - JAVA_EXTENSION.length()).replace('/', '.');
+                Path previousFile = resolveOutputFile(previousOutputDir, className, this.newMappings);
+                if (summary != null || !Files.exists(previousFile)) {
+                    className = getClassName(summary != null ? summary : scan(mercury, sourceFile), sourceFile);
+                    previousFile = resolveOutputFile(previousOutputDir, className, this.newMappings);
+                }
+
+                Path outputFile = resolveOutputFile(outputDir, className, this.newMappings);
+                Files.createDirectories(outputFile.getParent());
+                Files.copy(previousFile, outputFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        ReferenceIndex.Builder references = null;
+        if (index != null) {
+            // Keep the references of the files that are not processed again,
+            // the run only writes the references of the affected files
+            references = new ReferenceIndex.Builder(sourceDir);
+            references.addAll(index, file -> !processed.contains(file) && Files.exists(sourceDir.resolve(file)));
+        }
+
+        if (!affected.isEmpty()) {
+            mercury.rewrite(sourceDir, outputDir, affected);
+            if (references != null) {
+                references.addAll(ReferenceIndex.open(referenceIndexFile), file -> true);
+            }
+        }
+
+        if (references != null) {
+            references.write(referenceIndexFile);
+        }
+    }
+
+    private static SourceSummary scan(Mercury mercury, Path sourceFile) throws IOException {
+        return SourceSummary.scan(new String(Files.readAllBytes(sourceFile), mercury.getEncoding()));
+    }
+
+    private static String getClassName(SourceSummary summary, Path sourceFile) {
+        String fileName = sourceFile.getFileName().toString();
+        String primaryType = fileName.substring(0, fileName.length() - JAVA_EXTENSION.length());
+        return summary.getPackageName().isEmpty() ? primaryType : summary.getPackageName() + '.' + primaryType;
+    }
+
+    private static Path resolveOutputFile(Path outputDir, String className, MappingSet mappings) {
+        String name = mappings.getTopLevelClassMapping(className)
+                .map(ClassMapping::getFullDeobfuscatedName)
+                .orElse(className.replace('.', '/'));
+        return outputDir.resolve(name + JAVA_EXTENSION);
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.remapper;
+
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.FieldMapping;
+import org.cadixdev.lorenz.model.InnerClassMapping;
+import org.cadixdev.lorenz.model.MethodMapping;
+import org.cadixdev.lorenz.model.MethodParameterMapping;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * An index of all simple names that are relevant for remapping with a
+ * {@link MappingSet}. Identifiers that are not part of the index can never be
+ * changed by the remapper, so their bindings do not need to be resolved.
+ *
+ * <p>Besides the obfuscated names of all classes and members, the index
+ * contains the deobfuscated class and parameter names, since existing
+ * references with these names may conflict with the remapped names.</p>
+ */
+final class MappingIndex {
+
+    static MappingIndex create(MappingSet mappings) {
+        MappingIndex index = new MappingIndex();
+        if (mappings instanceof ChainedMappingSet) {
+            // Chains are composed lazily, but the union of all names is a
+            // superset of the names in the composed mappings
+            for (MappingSet link : ((ChainedMappingSet) mappings).getChain()) {
+                index.addAll(link);
+            }
+        } else {
+            index.addAll(mappings);
+        }
+        return index;
+    }
+
+    private final Set<String> names = new HashSet<>();
+
+    private MappingIndex() {
+    }
+
+    private void addAll(MappingSet mappings) {
+        for (ClassMapping<?, ?> mapping : mappings.getTopLevelClassMappings()) {
+            add(mapping);
+        }
+    }
+
+    private void add(ClassMapping<?, ?> mapping) {
+        this.names.add(mapping.getSimpleObfuscatedName());
+        this.names.add(mapping.getSimpleDeobfuscatedName());
+
+        for (FieldMapping field : mapping.getFieldMappings()) {
+            this.names.add(field.getObfuscatedName());
+        }
+
+        for (MethodMapping method : mapping.getMethodMappings()) {
+            this.names.add(method.getObfuscatedName());
+            for (MethodParameterMapping parameter : method.getParameterMappings()) {
+                this.names.add(parameter.getDeobfuscatedName());
+            }
+        }
+
+        for (InnerClassMapping inner : mapping.getInnerClassMappings()) {
+            add(inner);
+        }
+    }
+
+    boolean contains(String name) {
+        return this.names.contains(name);
+    }
+
+    Set<String> getNames() {
+        return Collections.unmodifiableSet(this.names);
+    }
+
+}
@@ -11,9 +11,17 @@
 package org.cadixdev.mercury.remapper;
 
 import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.mercury.Mercury;
 import org.cadixdev.mercury.RewriteContext;
+import org.cadixdev.mercury.SourceContext;
 import org.cadixdev.mercury.SourceRewriter;
+import org.cadixdev.mercury.analysis.ReferenceIndex;
+import org.cadixdev.mercury.analysis.SourceSummary;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 
 public final class MercuryRemapper implements SourceRewriter {
@@ -34,26 +42,158 @@ public static SourceRewriter createSimple(MappingSet mappings, boolean javadoc)
         return new MercuryRemapper(mappings, true, javadoc);
     }
 
-    private final MappingSet mappings;
+    /**
+     * Creates a remapper for a chain of mapping sets, where the deobfuscated
+     * names of each mapping set are the obfuscated names of the next one.
+     * The chain is composed on demand for the classes referenced by the
+     * source files, so the sources are remapped in a single pass without
+     * merging the mapping sets up front.
+     *
+     * @param chain The mapping sets, in order
+     * @return The remapper
+     */
+    public static SourceRewriter createChained(List<MappingSet> chain) {
+        return new MercuryRemapper(new ChainedMappingSet(chain), false, true);
+    }
+
+    public static SourceRewriter createChained(List<MappingSet> chain, boolean javadoc) {
+        return new MercuryRemapper(new ChainedMappingSet(chain), false, javadoc);
+    }
+
+    /**
+     * Creates a remapper that remaps each source file with several mapping
+     * sets, writing the results to a separate output directory for each
+     * {@link Target}. The source files are only parsed once.
+     *
+     * <p>The remapper should be used with {@link Mercury#process(Path)},
+     * since it does not rewrite the source files in the regular output
+     * directory.</p>
+     *
+     * @param targets The targets to remap to
+     * @return The remapper
+     */
+    public static SourceRewriter create(List<Target> targets) {
+        return create(targets, true);
+    }
+
+    public static SourceRewriter create(List<Target> targets, boolean javadoc) {
+        if (targets.isEmpty()) {
+            throw new IllegalArgumentException("No targets");
+        }
+        return new MercuryRemapper(new ArrayList<>(targets), false, javadoc);
+    }
+
+    private final List<Target> targets;
+    private final boolean multiTarget;
     private final boolean simple;
     private final boolean javadoc;
+    private MappingIndex[] indices;
+    private AnonymousClassIndex[] anonymousClasses;
+    private boolean lazyBindingResolution;
 
     private MercuryRemapper(MappingSet mappings, boolean simple, boolean javadoc) {
-        this.mappings = Objects.requireNonNull(mappings, "mappings");
+        this(Collections.singletonList(new Target(Objects.requireNonNull(mappings, "mappings"), null)), simple, javadoc);
+    }
+
+    private MercuryRemapper(List<Target> targets, boolean simple, boolean javadoc) {
+        this.targets = targets;
+        this.multiTarget = targets.get(0).outputDir != null;
         this.simple = simple;
         this.javadoc = javadoc;
     }
 
     @Override
     public int getFlags() {
-        return FLAG_RESOLVE_BINDINGS;
+        return this.javadoc ? FLAG_RESOLVE_BINDINGS : FLAG_RESOLVE_BINDINGS | FLAG_IGNORE_JAVADOC;
+    }
+
+    @Override
+    public void initialize(Mercury mercury) {
+        this.lazyBindingResolution = mercury.isLazyBindingResolution();
+        this.indices = new MappingIndex[this.targets.size()];
+        this.anonymousClasses = new AnonymousClassIndex[this.targets.size()];
+        for (int i = 0; i < this.anonymousClasses.length; i++) {
+            this.anonymousClasses[i] = new AnonymousClassIndex();
+        }
+        if (this.lazyBindingResolution || mercury.isFilePruning()) {
+            for (int i = 0; i < this.indices.length; i++) {
+                this.indices[i] = MappingIndex.create(this.targets.get(i).mappings);
+            }
+            // Only the references with names from the index are recorded
+            ReferenceIndex.Builder.get(mercury).ifPresent(ReferenceIndex.Builder::setFiltered);
+        }
+    }
+
+    @Override
+    public boolean shouldProcess(SourceSummary summary) {
+        // Skipped files would only be copied to the regular output directory
+        if (this.multiTarget || this.indices[0] == null) {
+            return true;
+        }
+
+        for (String identifier : summary.getIdentifiers()) {
+            if (this.indices[0].contains(identifier)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void process(SourceContext context) throws Exception {
+        if (!this.multiTarget) {
+            SourceRewriter.super.process(context);
+            return;
+        }
+
+        for (int i = 0; i < this.targets.size(); i++) {
+            rewrite(context.createTarget(this.targets.get(i).outputDir), i);
+        }
     }
 
     @Override
     public void rewrite(RewriteContext context) {
+        rewrite(context, 0);
+    }
+
+    private void rewrite(RewriteContext context, int target) {
+        MappingSet mappings = this.targets.get(target).mappings;
+        MappingIndex index = this.lazyBindingResolution ? this.indices[target] : null;
+        AnonymousClassIndex anonymousClasses = this.anonymousClasses[target];
         context.getCompilationUnit().accept(this.simple ?
-                new SimpleRemapperVisitor(context, this.mappings, this.javadoc) :
-                new RemapperVisitor(context, this.mappings, this.javadoc));
+                new SimpleRemapperVisitor(context, mappings, index, anonymousClasses, this.javadoc) :
+                new RemapperVisitor(context, mappings, index, anonymousClasses, this.javadoc));
+    }
+
+    /**
+     * A mapping set to remap to, together with the directory the remapped
+     * source files are written to.
+     */
+    public static final class Target {
+
+        public static Target of(MappingSet mappings, Path outputDir) {
+            return new Target(
+                    Objects.requireNonNull(mappings, "mappings"),
+                    Objects.requireNonNull(outputDir, "outputDir")
+            );
+        }
+
+        private final MappingSet mappings;
+        private final Path outputDir;
+
+        private Target(MappingSet mappings, Path outputDir) {
+            this.mappings = mappings;
+            this.outputDir = outputDir;
+        }
+
+        public MappingSet getMappings() {
+            return this.mappings;
+        }
+
+        public Path getOutputDir() {
+            return this.outputDir;
+        }
+
     }
 
 }
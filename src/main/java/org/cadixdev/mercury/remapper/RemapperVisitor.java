@@ -59,25 +59,28 @@
 
 class RemapperVisitor extends SimpleRemapperVisitor {
 
-    private final ImportRewrite importRewrite;
+    private ImportRewrite importRewrite;
     private final Deque<ImportContext> importStack = new ArrayDeque<>();
     private final String simpleDeobfuscatedName;
+    private final List<String> implicitTypes;
 
-    RemapperVisitor(RewriteContext context, MappingSet mappings, boolean javadoc) {
-        super(context, mappings, javadoc);
-
-        this.importRewrite = context.createImportRewrite();
-        importRewrite.setUseContextToFilterImplicitImports(true);
+    RemapperVisitor(RewriteContext context, MappingSet mappings, MappingIndex index, AnonymousClassIndex anonymousClasses, boolean javadoc) {
+        super(context, mappings, index, anonymousClasses, javadoc);
 
         TopLevelClassMapping primary = mappings.getTopLevelClassMapping(context.getQualifiedPrimaryType()).orElse(null);
         if (primary != null) {
-            context.setPackageName(primary.getDeobfuscatedPackage().replace('/', '.'));
-            this.importRewrite.setImplicitPackageName(context.getPackageName());
+            String packageName = primary.getDeobfuscatedPackage().replace('/', '.');
+            if (!packageName.equals(context.getPackageName())) {
+                // Types from the old package may need to be imported now
+                this.index = null;
+            }
+
+            context.setPackageName(packageName);
 
             this.simpleDeobfuscatedName = primary.getSimpleDeobfuscatedName();
             context.setPrimaryType(simpleDeobfuscatedName);
 
-            List<String> implicitTypes = new ArrayList<>();
+            this.implicitTypes = new ArrayList<>();
             String simpleObfuscatedName = primary.getSimpleObfuscatedName();
 
             @SuppressWarnings("unchecked")
@@ -85,17 +88,60 @@ class RemapperVisitor extends SimpleRemapperVisitor {
             for (AbstractTypeDeclaration type : types) {
                 String name = type.getName().getIdentifier();
                 if (name.equals(simpleObfuscatedName)) {
-                    implicitTypes.add(simpleDeobfuscatedName);
+                    this.implicitTypes.add(simpleDeobfuscatedName);
                 } else {
-                    implicitTypes.add(mappings.getTopLevelClassMapping(context.getPackageName() + '.' + name)
+                    this.implicitTypes.add(mappings.getTopLevelClassMapping(context.getPackageName() + '.' + name)
                         .map(Mapping::getSimpleDeobfuscatedName)
                         .orElse(name));
                 }
             }
-            this.importRewrite.setImplicitTypes(implicitTypes);
         } else {
             this.simpleDeobfuscatedName = null;
+            this.implicitTypes = null;
+        }
+    }
+
+    /**
+     * Gets the {@link ImportRewrite} for the compilation unit, creating it on
+     * first use. Files without any type references to remap never need to
+     * analyze their imports.
+     *
+     * @return The import rewrite
+     */
+    private ImportRewrite importRewrite() {
+        if (this.importRewrite == null) {
+            this.importRewrite = this.context.createImportRewrite();
+            this.importRewrite.setUseContextToFilterImplicitImports(true);
+
+            if (this.implicitTypes != null) {
+                this.importRewrite.setImplicitPackageName(this.context.getPackageName());
+                this.importRewrite.setImplicitTypes(this.implicitTypes);
+            }
         }
+        return this.importRewrite;
+    }
+
+    /**
+     * Adds an import for the given type in the current import context. Most
+     * types are referenced many times in a compilation unit, so the name
+     * chosen by the {@link ImportRewrite} is remembered for each context
+     * instead of checking the imports for conflicts again.
+     *
+     * @param qualifiedName The qualified name of the type
+     * @return The name to use for the type in the current context
+     */
+    private String addImport(String qualifiedName) {
+        ImportContext context = this.importStack.peek();
+        if (context == null) {
+            return importRewrite().addImport(qualifiedName, null);
+        }
+
+        String name = context.names.get(qualifiedName);
+        if (name == null) {
+            name = importRewrite().addImport(qualifiedName, context);
+            context.names.put(qualifiedName, name);
+        }
+        return name;
     }
 
     private void remapType(SimpleName node, ITypeBinding binding) {
@@ -103,11 +149,12 @@ private void remapType(SimpleName node, ITypeBinding binding) {
             return;
         }
 
-        if (binding.getBinaryName() == null) {
+        String binaryName = this.context.getBinaryName(binding);
+        if (binaryName == null) {
             throw new IllegalStateException("Binary name for binding " + binding.getQualifiedName() + " is null. Did you forget to add a library to the classpath?");
         }
 
-        ClassMapping<?, ?> mapping = this.mappings.computeClassMapping(binding.getBinaryName()).orElse(null);
+        ClassMapping<?, ?> mapping = this.mappings.computeClassMapping(binaryName).orElse(null);
 
         if (node.getParent() instanceof AbstractTypeDeclaration
                 || node.getParent() instanceof QualifiedType
@@ -119,13 +166,13 @@ private void remapType(SimpleName node, ITypeBinding binding) {
             return;
         }
 
-        String qualifiedName = (mapping != null ? mapping.getFullDeobfuscatedName().replace('/', '.') : binding.getBinaryName()).replace('$', '.');
+        String qualifiedName = (mapping != null ? mapping.getFullDeobfuscatedName().replace('/', '.') : binaryName).replace('$', '.');
 
         if(!node.isVar()) {
-            String newName = this.importRewrite.addImport(qualifiedName, this.importStack.peek());
+            String newName = addImport(qualifiedName);
             if(!node.getIdentifier().equals(newName)) {
                 if(newName.indexOf('.') == -1) {
-                    this.context.createASTRewrite().set(node, SimpleName.IDENTIFIER_PROPERTY, newName, null);
+                    this.context.rename(node, newName);
                 } else {
                     // Qualified name
                     this.context.createASTRewrite().replace(node, node.getAST().newName(newName), null);
@@ -135,9 +182,9 @@ private void remapType(SimpleName node, ITypeBinding binding) {
     }
 
     private void remapQualifiedType(QualifiedName node, ITypeBinding binding) {
-        String binaryName = binding.getBinaryName();
+        String binaryName = this.context.getBinaryName(binding);
         if (binaryName == null) {
-            if (this.context.getMercury().isGracefulClasspathChecks() || this.context.getMercury().isGracefulJavadocClasspathChecks() && GracefulCheck.isJavadoc(node)) {
+            if (this.context.getMercury().isGracefulClasspathChecks() || this.context.getMercury().isGracefulJavadocClasspathChecks() && this.inJavadoc) {
                 return;
             }
             throw new IllegalStateException("No binary name for " + binding.getQualifiedName());
@@ -157,7 +204,7 @@ private void remapQualifiedType(QualifiedName node, ITypeBinding binding) {
     }
 
     private void remapInnerType(QualifiedName qualifiedName, ITypeBinding outerClass) {
-        final String binaryName = outerClass.getBinaryName();
+        final String binaryName = this.context.getBinaryName(outerClass);
         if (binaryName == null) {
             if (this.context.getMercury().isGracefulClasspathChecks()) {
                 return;
@@ -227,8 +274,23 @@ public boolean visit(final TagElement tag) {
         return super.visit(tag);
     }
 
+    private boolean mayRemap(Name name) {
+        while (name instanceof QualifiedName) {
+            QualifiedName qualifiedName = (QualifiedName) name;
+            if (mayRemap(qualifiedName.getName().getIdentifier())) {
+                return true;
+            }
+            name = qualifiedName.getQualifier();
+        }
+        return mayRemap(((SimpleName) name).getIdentifier());
+    }
+
     @Override
     public boolean visit(QualifiedName node) {
+        if (!mayRemap(node)) {
+            return false;
+        }
+
         IBinding binding = node.resolveBinding();
         if (binding == null) {
             if (this.context.getMercury().isGracefulClasspathChecks()) {
@@ -242,6 +304,8 @@ public boolean visit(QualifiedName node) {
             return true;
         }
 
+        addReference(binding);
+
         Name qualifier = node.getQualifier();
         IBinding qualifierBinding = qualifier.resolveBinding();
         switch (qualifierBinding.getKind()) {
@@ -280,7 +344,7 @@ public boolean visit(NameQualifiedType node) {
             throw new IllegalStateException("No binding for qualified name node " + node.getName());
         }
 
-        final ClassMapping<?, ?> classMapping = this.mappings.computeClassMapping(binding.getBinaryName()).orElse(null);
+        final ClassMapping<?, ?> classMapping = this.mappings.computeClassMapping(this.context.getBinaryName(binding)).orElse(null);
         if (classMapping == null) {
             return false;
         }
@@ -329,12 +393,18 @@ public boolean visit(ImportDeclaration node) {
             return true;
         }
 
+        if (!node.isOnDemand() && !mayRemap(node.getName())) {
+            return false;
+        }
+
         IBinding binding = node.resolveBinding();
         if (binding != null) {
             switch (binding.getKind()) {
                 case IBinding.TYPE:
+                    addReference(binding);
+
                     ITypeBinding typeBinding = (ITypeBinding) binding;
-                    String name = typeBinding.getBinaryName();
+                    String name = this.context.getBinaryName(typeBinding);
                     if (name == null) {
                         if (this.context.getMercury().isGracefulClasspathChecks()) {
                             return false;
@@ -344,9 +414,9 @@ public boolean visit(ImportDeclaration node) {
 
                     ClassMapping<?, ?> mapping = this.mappings.computeClassMapping(name).orElse(null);
                     if (mapping != null && !name.equals(mapping.getFullDeobfuscatedName().replace('/', '.'))) {
-                        this.importRewrite.removeImport(typeBinding.getQualifiedName());
+                        importRewrite().removeImport(typeBinding.getQualifiedName());
                     } else if (this.simpleDeobfuscatedName != null && this.simpleDeobfuscatedName.equals(typeBinding.getName())) {
-                        this.importRewrite.removeImport(typeBinding.getQualifiedName());
+                        importRewrite().removeImport(typeBinding.getQualifiedName());
                     }
 
                     break;
@@ -356,7 +426,7 @@ public boolean visit(ImportDeclaration node) {
     }
 
     private void pushImportContext(ITypeBinding binding) {
-        ImportContext context = new ImportContext(this.importRewrite.getDefaultImportRewriteContext(), this.importStack.peek());
+        ImportContext context = new ImportContext(this.importStack.peek());
         collectImportContext(context, binding);
         this.importStack.push(context);
     }
@@ -380,7 +450,8 @@ private void collectImportContext(ImportContext context, ITypeBinding binding) {
                 }
             }
 
-            ClassMapping<?, ?> mapping = this.mappings.computeClassMapping(inner.getBinaryName()).orElse(null);
+            String binaryName = this.context.getBinaryName(inner);
+            ClassMapping<?, ?> mapping = this.mappings.computeClassMapping(binaryName).orElse(null);
 
             if (isPackagePrivate(modifiers)) {
                 // Must come from the same package
@@ -397,7 +468,7 @@ private void collectImportContext(ImportContext context, ITypeBinding binding) {
                 qualifiedName = mapping.getFullDeobfuscatedName().replace('/', '.').replace('$', '.');
             } else {
                 simpleName = inner.getName();
-                qualifiedName = inner.getBinaryName().replace('$', '.');
+                qualifiedName = binaryName.replace('$', '.');
             }
 
             if (!context.conflicts.contains(simpleName)) {
@@ -490,13 +561,13 @@ private void transferAnnotations(final AnnotatableType oldNode, final Annotatabl
         }
     }
 
-    private static class ImportContext extends ImportRewrite.ImportRewriteContext {
-        private final ImportRewrite.ImportRewriteContext defaultContext;
+    private class ImportContext extends ImportRewrite.ImportRewriteContext {
         final Map<String, String> implicit;
         final Set<String> conflicts;
+        // The names returned by the import rewrite, only valid for this context
+        final Map<String, String> names = new HashMap<>();
 
-        ImportContext(ImportRewrite.ImportRewriteContext defaultContext, ImportContext parent) {
-            this.defaultContext = defaultContext;
+        ImportContext(ImportContext parent) {
             if (parent != null) {
                 this.implicit = new HashMap<>(parent.implicit);
                 this.conflicts = new HashSet<>(parent.conflicts);
@@ -508,7 +579,7 @@ private static class ImportContext extends ImportRewrite.ImportRewriteContext {
 
         @Override
         public int findInContext(String qualifier, String name, int kind) {
-            int result = this.defaultContext.findInContext(qualifier, name, kind);
+            int result = importRewrite().getDefaultImportRewriteContext().findInContext(qualifier, name, kind);
             if (result != RES_NAME_UNKNOWN) {
                 return result;
             }
@@ -24,23 +24,36 @@
 import org.cadixdev.lorenz.model.MethodParameterMapping;
 import org.cadixdev.mercury.RewriteContext;
 import org.cadixdev.mercury.analysis.MercuryInheritanceProvider;
+import org.cadixdev.mercury.analysis.ReferenceIndex;
 import org.cadixdev.mercury.util.GracefulCheck;
+import org.eclipse.jdt.core.dom.AST;
 import org.eclipse.jdt.core.dom.ASTNode;
 import org.eclipse.jdt.core.dom.ASTVisitor;
-import org.eclipse.jdt.core.dom.Block;
+import org.eclipse.jdt.core.dom.AbstractTypeDeclaration;
+import org.eclipse.jdt.core.dom.AnonymousClassDeclaration;
+import org.eclipse.jdt.core.dom.FieldAccess;
 import org.eclipse.jdt.core.dom.IBinding;
 import org.eclipse.jdt.core.dom.IMethodBinding;
 import org.eclipse.jdt.core.dom.ITypeBinding;
 import org.eclipse.jdt.core.dom.IVariableBinding;
-import org.eclipse.jdt.core.dom.LambdaExpression;
+import org.eclipse.jdt.core.dom.Javadoc;
 import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.Modifier;
+import org.eclipse.jdt.core.dom.QualifiedName;
 import org.eclipse.jdt.core.dom.SimpleName;
 import org.eclipse.jdt.core.dom.SingleVariableDeclaration;
+import org.eclipse.jdt.core.dom.StructuralPropertyDescriptor;
+import org.eclipse.jdt.core.dom.SuperFieldAccess;
 import org.eclipse.jdt.core.dom.VariableDeclaration;
+import org.eclipse.jdt.core.dom.VariableDeclarationFragment;
 
-import java.util.Collections;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
@@ -51,24 +64,82 @@
  */
 class SimpleRemapperVisitor extends ASTVisitor {
 
-    private static final String LVT_NAMES_PROPERTY = "org.cadixdev.mercury.lvtNames";
-    private static final String LOCAL_VARIABLE_NAME_PROPERTY = "org.cadixdev.mercury.localVariableName";
-    private static final String NEW_PARAM_NAMES_PROPERTY = "org.cadixdev.mercury.newParamNames";
-
     final RewriteContext context;
     final MappingSet mappings;
     private final InheritanceProvider inheritanceProvider;
 
-    SimpleRemapperVisitor(RewriteContext context, MappingSet mappings, boolean javadoc) {
+    // The same AST may be remapped with several mapping sets, so the state
+    // is kept in the visitor rather than in node properties
+    private final Map<MethodDeclaration, LocalScopes> localScopes = new IdentityHashMap<>();
+    private final Map<ASTNode, String> localVariableRenames = new IdentityHashMap<>();
+    private final Map<MethodDeclaration, Set<String>> remappedParamNames = new IdentityHashMap<>();
+
+    /**
+     * The names that may be remapped, or {@code null} if the bindings of all
+     * names should be resolved.
+     */
+    MappingIndex index;
+    private final Deque<List<SingleVariableDeclaration>> parameters = new ArrayDeque<>();
+    private final AnonymousClassIndex anonymousClasses;
+
+    private final ReferenceIndex.Builder references;
+    private final int referenceFile;
+
+    /**
+     * Whether the visitor is currently inside a Javadoc comment.
+     */
+    boolean inJavadoc;
+
+    SimpleRemapperVisitor(RewriteContext context, MappingSet mappings, MappingIndex index, AnonymousClassIndex anonymousClasses, boolean javadoc) {
         super(javadoc);
         this.context = context;
         this.mappings = mappings;
+        this.index = index;
+        this.anonymousClasses = anonymousClasses;
         this.inheritanceProvider = MercuryInheritanceProvider.get(context.getMercury());
+        this.references = ReferenceIndex.Builder.get(context.getMercury()).orElse(null);
+        this.referenceFile = this.references != null ? this.references.addFile(context.getSourceFile()) : -1;
+    }
+
+    /**
+     * Checks if the given name may be affected by the mappings, and therefore
+     * needs its binding resolved.
+     *
+     * @param identifier The identifier of the name
+     * @return {@code true} if the name may need to be remapped
+     */
+    final boolean mayRemap(String identifier) {
+        if (this.index == null || this.index.contains(identifier)) {
+            return true;
+        }
+
+        // Parameters are remapped by index, so their names are unknown
+        for (List<SingleVariableDeclaration> parameters : this.parameters) {
+            for (SingleVariableDeclaration parameter : parameters) {
+                if (parameter.getName().getIdentifier().equals(identifier)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Records a reference to the given binding in the {@link ReferenceIndex},
+     * if one is written for the current run.
+     *
+     * @param binding The resolved binding
+     */
+    final void addReference(IBinding binding) {
+        if (this.references != null) {
+            this.references.addReference(this.referenceFile, binding);
+        }
     }
 
     final void updateIdentifier(SimpleName node, String newName) {
         if (!node.getIdentifier().equals(newName) && !node.isVar()) {
-            this.context.createASTRewrite().set(node, SimpleName.IDENTIFIER_PROPERTY, newName, null);
+            this.context.rename(node, newName);
         }
     }
 
@@ -77,7 +148,7 @@ private void remapMethod(SimpleName node, IMethodBinding binding) {
         if (GracefulCheck.checkGracefully(this.context, declaringClass)) {
             return;
         }
-        final ClassMapping<?, ?> classMapping = this.mappings.getOrCreateClassMapping(declaringClass.getBinaryName());
+        final ClassMapping<?, ?> classMapping = this.mappings.getOrCreateClassMapping(this.context.getBinaryName(declaringClass));
 
         if (binding.isConstructor()) {
             updateIdentifier(node, classMapping.getSimpleDeobfuscatedName());
@@ -107,7 +178,7 @@ private void remapField(SimpleName node, IVariableBinding binding) {
             return;
         }
 
-        ClassMapping<?, ?> classMapping = this.mappings.getClassMapping(declaringClass.getBinaryName()).orElse(null);
+        ClassMapping<?, ?> classMapping = this.mappings.getClassMapping(this.context.getBinaryName(declaringClass)).orElse(null);
         if (classMapping == null) {
             return;
         }
@@ -118,11 +189,68 @@ private void remapField(SimpleName node, IVariableBinding binding) {
             return;
         }
 
-        updateIdentifier(node, mapping.getDeobfuscatedName());
+        final String newName = mapping.getDeobfuscatedName();
+        if (!node.getIdentifier().equals(newName) && isHiddenByLocal(node, binding, newName)) {
+            // Qualify the field, so it is not confused with the local variable
+            final AST ast = node.getAST();
+            final FieldAccess access = ast.newFieldAccess();
+            access.setExpression(ast.newThisExpression());
+            access.setName(ast.newSimpleName(newName));
+            this.context.createASTRewrite().replace(node, access, null);
+            return;
+        }
+
+        updateIdentifier(node, newName);
+    }
+
+    /**
+     * Checks if a simple reference to the given field would refer to a local
+     * variable after renaming the field, because a local variable with the new
+     * name is visible in a block or lambda expression of the method. Only
+     * references that can be qualified with {@code this} are checked.
+     *
+     * @param node The reference to the field
+     * @param binding The binding of the field
+     * @param newName The new name of the field
+     * @return {@code true} if the reference needs to be qualified
+     */
+    private boolean isHiddenByLocal(SimpleName node, IVariableBinding binding, String newName) {
+        final StructuralPropertyDescriptor location = node.getLocationInParent();
+        if (this.inJavadoc || Modifier.isStatic(binding.getModifiers())
+                || location == FieldAccess.NAME_PROPERTY
+                || location == SuperFieldAccess.NAME_PROPERTY
+                || location == QualifiedName.NAME_PROPERTY
+                || location == QualifiedName.QUALIFIER_PROPERTY
+                || location == VariableDeclarationFragment.NAME_PROPERTY) {
+            return false;
+        }
+
+        // Find the method and the class that this refers to, lambda expressions keep both
+        MethodDeclaration method = null;
+        ASTNode parent = node.getParent();
+        while (parent != null && !(parent instanceof AbstractTypeDeclaration) && !(parent instanceof AnonymousClassDeclaration)) {
+            if (method == null && parent instanceof MethodDeclaration) {
+                method = (MethodDeclaration) parent;
+            }
+            parent = parent.getParent();
+        }
+        if (method == null || parent == null) {
+            return false;
+        }
+
+        final ITypeBinding type = parent instanceof AbstractTypeDeclaration
+                ? ((AbstractTypeDeclaration) parent).resolveBinding()
+                : ((AnonymousClassDeclaration) parent).resolveBinding();
+        final IMethodBinding methodBinding = method.resolveBinding();
+        if (type == null || methodBinding == null || !type.getErasure().isSubTypeCompatible(binding.getDeclaringClass().getErasure())) {
+            return false;
+        }
+
+        return getLocalScopes(methodBinding, method).isVisible(node, newName);
     }
 
     private MethodMapping findMethodMapping(ITypeBinding declaringClass, IMethodBinding declaringMethod) {
-        final ClassMapping<?, ?> classMapping = this.mappings.getClassMapping(declaringClass.getBinaryName()).orElse(null);
+        final ClassMapping<?, ?> classMapping = this.mappings.getClassMapping(this.context.getBinaryName(declaringClass)).orElse(null);
         if (classMapping == null) {
             return null;
         }
@@ -171,7 +299,7 @@ private MethodMapping findMethodMapping(ITypeBinding declaringClass, IMethodBind
             return null;
         }
         ClassMapping<?, ?> parentMapping = ((InnerClassMapping) classMapping).getParent();
-        if (parentMapping == null) {
+        if (parentMapping == null || this.anonymousClasses.isUnmatched(classMapping)) {
             return null;
         }
 
@@ -186,17 +314,15 @@ private MethodMapping findMethodMapping(ITypeBinding declaringClass, IMethodBind
         }
 
         // Find a sibling anonymous class whose deobfuscated name is our obfuscated name
-        // We have to do something a little less direct for this case
-        for (InnerClassMapping innerClassMapping : parentMapping.getInnerClassMappings()) {
-            if (Objects.equals(classMapping.getObfuscatedName(), innerClassMapping.getDeobfuscatedName())) {
-                otherClassMapping = innerClassMapping;
-                break;
+        ClassMapping<?, ?> reverseClassMapping = this.anonymousClasses.findByDeobfuscatedName(parentMapping, classMapping.getObfuscatedName());
+        if (reverseClassMapping == null) {
+            if (otherClassMapping == null) {
+                // Neither sibling exists, so there is nothing to look up for any member
+                this.anonymousClasses.markUnmatched(classMapping);
             }
-        }
-        if (otherClassMapping == null) {
             return null;
         }
-        return getMapping.apply(otherClassMapping, matcher).orElse(null);
+        return getMapping.apply(reverseClassMapping, matcher).orElse(null);
     }
 
     private void remapParameter(SimpleName node, IVariableBinding binding) {
@@ -240,8 +366,8 @@ private void remapParameter(SimpleName node, IVariableBinding binding) {
     }
 
     /**
-     * Check if a local variable needs to be renamed because it conflicts with a new parameter name. This will also
-     * attempt to check cases where local variables are defined in lambda expressions.
+     * Check if a local variable needs to be renamed because it conflicts with a new parameter name. This includes
+     * local variables declared in lambda expressions and nested blocks of the method.
      *
      * @param node The local variable node to check
      * @param binding The variable binding corresponding to the local variable name
@@ -252,54 +378,32 @@ private void checkLocalVariable(SimpleName node, IVariableBinding binding) {
             return;
         }
 
-        final String localVariableName = (String) bindingNode.getProperty(LOCAL_VARIABLE_NAME_PROPERTY);
+        final String localVariableName = this.localVariableRenames.get(bindingNode);
         if (localVariableName != null) {
             updateIdentifier(node, localVariableName);
             return;
         }
 
-        IMethodBinding declaringMethod = binding.getDeclaringMethod();
-        if (declaringMethod == null) {
+        if (!(bindingNode instanceof VariableDeclaration)) {
             return;
         }
 
-        if (declaringMethod.getDeclaringMember() != null) {
-            // lambda method
-            final LambdaExpression lambdaExpr = getLambdaMethodDeclaration(declaringMethod);
-            if (lambdaExpr == null) {
-                return;
-            }
-
-            // Climb out of declaring stack until we find a method which isn't a lambda
-            IMethodBinding outerMethod = declaringMethod;
-            while (outerMethod.getDeclaringMember() instanceof IMethodBinding) {
-                outerMethod = (IMethodBinding) outerMethod.getDeclaringMember();
-            }
-            if (outerMethod == declaringMethod) {
-                // lookup failed, nothing we can do
-                return;
-            }
-            final ASTNode n = this.context.getCompilationUnit().findDeclaringNode(outerMethod);
-            if (!(n instanceof MethodDeclaration)) {
-                return;
-            }
-            final MethodDeclaration outerDeclaration = (MethodDeclaration) n;
-
-            ASTNode body = lambdaExpr.getBody();
-            // might be an expression
-            if (!(body instanceof Block)) {
-                body = null;
-            }
-            this.checkLocalVariableWithMappings(node, bindingNode, outerMethod, outerDeclaration, declaringMethod, (Block) body);
-        } else {
-            final ASTNode n = context.getCompilationUnit().findDeclaringNode(declaringMethod);
-            if (!(n instanceof MethodDeclaration)) {
-                return;
-            }
-            final MethodDeclaration methodDeclaration = (MethodDeclaration) n;
+        // Lambda expressions belong to the scopes of the enclosing method
+        ASTNode parent = bindingNode.getParent();
+        while (parent != null && !(parent instanceof MethodDeclaration)) {
+            parent = parent.getParent();
+        }
+        if (parent == null) {
+            return;
+        }
 
-            this.checkLocalVariableWithMappings(node, bindingNode, declaringMethod, methodDeclaration, declaringMethod, methodDeclaration.getBody());
+        final MethodDeclaration declaration = (MethodDeclaration) parent;
+        final IMethodBinding method = declaration.resolveBinding();
+        if (method == null) {
+            return;
         }
+
+        this.checkLocalVariableWithMappings(node, (VariableDeclaration) bindingNode, method, declaration);
     }
 
     /**
@@ -307,22 +411,18 @@ private void checkLocalVariable(SimpleName node, IVariableBinding binding) {
      * with the given local variable name.
      *
      * @param node The local variable name to check
-     * @param bindingNode The binding of the local variable declaration
+     * @param variable The declaration of the local variable
      * @param binding The binding of the mapped method to check
      * @param declaration The declaration node of the mapped method to check
-     * @param blockDeclaringMethod The method binding of the method which defines the {@code block}
-     * @param body The method body to check for local variables
      */
     private void checkLocalVariableWithMappings(
             SimpleName node,
-            ASTNode bindingNode,
+            VariableDeclaration variable,
             IMethodBinding binding,
-            MethodDeclaration declaration,
-            IMethodBinding blockDeclaringMethod,
-            Block body
+            MethodDeclaration declaration
     ) {
         final ITypeBinding declaringClass = binding.getDeclaringClass();
-        this.mappings.getClassMapping(declaringClass.getBinaryName())
+        this.mappings.getClassMapping(this.context.getBinaryName(declaringClass))
                 .flatMap(classMapping -> {
                     classMapping.complete(this.inheritanceProvider, declaringClass);
                     return classMapping.getMethodMapping(convertSignature(binding));
@@ -330,26 +430,26 @@ private void checkLocalVariableWithMappings(
                 .ifPresent(methodMapping -> {
                     if (!methodMapping.getParameterMappings().isEmpty()) {
                         final Set<String> newParamNames = newParamNames(declaration, methodMapping);
-                        checkLocalVariableForConflicts(node, bindingNode, blockDeclaringMethod, body, newParamNames);
+                        checkLocalVariableForConflicts(node, variable, binding, declaration, newParamNames);
                     }
                 });
     }
 
     /**
-     * Check the method's body defined by {@code methodDeclaration} to collect all local variable names in order to
-     * find a suitable replacement name for {@code node} if it clashes with a name in {@code newParamNames}.
+     * Find a suitable replacement name for {@code node} if it clashes with a name in {@code newParamNames}, which
+     * does not clash with any other local variable visible to or declared in the scope of the variable.
      *
      * @param node The local variable node to check
-     * @param bindingNode The binding of the local variable declaration
-     * @param blockDeclaringMethod The method binding of the method which defines the {@code block}
-     * @param block The method body implementation to collect local variable names from
+     * @param variable The declaration of the local variable
+     * @param binding The binding of the method which declares the variable
+     * @param declaration The declaration of the method which declares the variable
      * @param newParamNames The set of parameter names after mapping
      */
     private void checkLocalVariableForConflicts(
             SimpleName node,
-            ASTNode bindingNode,
-            IMethodBinding blockDeclaringMethod,
-            Block block,
+            VariableDeclaration variable,
+            IMethodBinding binding,
+            MethodDeclaration declaration,
             Set<String> newParamNames
     ) {
         final String name = node.getIdentifier();
@@ -358,72 +458,42 @@ private void checkLocalVariableForConflicts(
         }
 
         // the new param name will screw up this local variable
-        final Set<String> localVariableNames = collectLocalVariableNames(blockDeclaringMethod, block);
+        final LocalScopes scopes = getLocalScopes(binding, declaration);
         int counter = 1;
         String newName = name + counter;
-        while (localVariableNames.contains(newName) || newParamNames.contains(newName)) {
+        while (scopes.conflicts(variable, newName) || newParamNames.contains(newName)) {
             counter++;
             newName = name + counter;
         }
 
-        localVariableNames.add(newName);
-        bindingNode.setProperty(LOCAL_VARIABLE_NAME_PROPERTY, newName);
+        scopes.declare(variable, newName);
+        this.localVariableRenames.put(variable, newName);
         updateIdentifier(node, newName);
     }
 
     /**
-     * Find the declaration of the actual method block for the lambda method
-     *
-     * @param declaringMethod The method binding for the lambda method to check
-     * @return The {@link MethodDeclaration} corresponding to the code block of the lambda implementation
-     */
-    private LambdaExpression getLambdaMethodDeclaration(IMethodBinding declaringMethod) {
-        final ASTNode node = this.context.getCompilationUnit().findDeclaringNode(declaringMethod.getKey());
-        if (node instanceof LambdaExpression) {
-            return (LambdaExpression) node;
-        }
-        return null;
-    }
-
-    /**
-     * Read the method body of {@code methodDeclaration} and return the set of local variable names defined inside of
-     * it. The set is cached on the {@code methodDeclaration} so it is only computed once.
+     * Gets the scopes of the local variables in the given method. The scopes are only built once for each method.
      *
-     * @param blockDeclaringMethod The method binding of the method which defines the {@code block}
-     * @param block The method body implementation to check.
-     * @return The set of local variable names defined in the method body.
+     * @param binding The binding of the method
+     * @param declaration The declaration of the method
+     * @return The scopes of the local variables
      */
-    private Set<String> collectLocalVariableNames(IMethodBinding blockDeclaringMethod, Block block) {
-        if (block == null) {
-            return Collections.emptySet();
-        }
-
-        Set<String> result = checkProperty(LVT_NAMES_PROPERTY, block);
-        if (result != null) {
-            return result;
-        }
-        result = new HashSet<>();
-        block.setProperty(LVT_NAMES_PROPERTY, result);
-
-        final IVariableBinding[] synthLocals = blockDeclaringMethod.getSyntheticOuterLocals();
-        for (final IVariableBinding synthLocal : synthLocals) {
-            final String name = synthLocal.getName();
-            if (name.startsWith("val$")) {
-                result.add(name.substring(4));
+    private LocalScopes getLocalScopes(IMethodBinding binding, MethodDeclaration declaration) {
+        LocalScopes scopes = this.localScopes.get(declaration);
+        if (scopes == null) {
+            // Local variables captured by local and anonymous classes
+            final List<String> outerNames = new ArrayList<>();
+            for (final IVariableBinding synthLocal : binding.getSyntheticOuterLocals()) {
+                final String name = synthLocal.getName();
+                if (name.startsWith("val$")) {
+                    outerNames.add(name.substring(4));
+                }
             }
-        }
 
-        @SuppressWarnings("unchecked")
-        final List<ASTNode> statements = (List<ASTNode>) block.statements();
-        for (final ASTNode statement : statements) {
-            if (!(statement instanceof VariableDeclaration)) {
-                continue;
-            }
-            final VariableDeclaration declaration = (VariableDeclaration) statement;
-            result.add(declaration.getName().getIdentifier());
+            scopes = new LocalScopes(declaration, outerNames);
+            this.localScopes.put(declaration, scopes);
         }
-
-        return result;
+        return scopes;
     }
 
     /**
@@ -435,12 +505,12 @@ private Set<String> collectLocalVariableNames(IMethodBinding blockDeclaringMetho
      * @return The set of parameter names after remapping them with {@code mapping}.
      */
     private Set<String> newParamNames(MethodDeclaration methodDeclaration, MethodMapping mapping) {
-        Set<String> result = checkProperty(NEW_PARAM_NAMES_PROPERTY, methodDeclaration);
+        Set<String> result = this.remappedParamNames.get(methodDeclaration);
         if (result != null) {
             return result;
         }
         result = new HashSet<>();
-        methodDeclaration.setProperty(NEW_PARAM_NAMES_PROPERTY, result);
+        this.remappedParamNames.put(methodDeclaration, result);
 
         @SuppressWarnings("unchecked")
         List<SingleVariableDeclaration> parameters = methodDeclaration.parameters();
@@ -456,26 +526,6 @@ private Set<String> newParamNames(MethodDeclaration methodDeclaration, MethodMap
         return result;
     }
 
-    /**
-     * Check if the given node contains a {@code Set<String>} property named {@code propName} and return it if so.
-     * Returns {@code null} if not.
-     *
-     * @param propName The name of the property
-     * @param node The node to check the property on
-     * @return The set stored on the node or {@code null} if empty
-     */
-    private static Set<String> checkProperty(String propName, ASTNode node) {
-        if (node == null) {
-            return null;
-        }
-        final Object value = node.getProperty(propName);
-        if (value instanceof Set) {
-            @SuppressWarnings("unchecked") final Set<String> result = (Set<String>) value;
-            return result;
-        }
-        return null;
-    }
-
     protected void visit(SimpleName node, IBinding binding) {
         switch (binding.getKind()) {
             case IBinding.METHOD:
@@ -487,10 +537,39 @@ protected void visit(SimpleName node, IBinding binding) {
         }
     }
 
+    @Override
+    public boolean visit(Javadoc node) {
+        this.inJavadoc = true;
+        return super.visit(node);
+    }
+
+    @Override
+    public void endVisit(Javadoc node) {
+        this.inJavadoc = false;
+    }
+
+    @Override
+    public boolean visit(MethodDeclaration node) {
+        @SuppressWarnings("unchecked")
+        List<SingleVariableDeclaration> parameters = node.parameters();
+        this.parameters.push(parameters);
+        return true;
+    }
+
+    @Override
+    public void endVisit(MethodDeclaration node) {
+        this.parameters.pop();
+    }
+
     @Override
     public final boolean visit(SimpleName node) {
+        if (!mayRemap(node.getIdentifier())) {
+            return false;
+        }
+
         IBinding binding = node.resolveBinding();
         if (binding != null) {
+            addReference(binding);
             visit(node, binding);
         }
         return false;
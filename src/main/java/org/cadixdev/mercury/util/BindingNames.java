@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.util;
+
+import org.eclipse.jdt.core.dom.ITypeBinding;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Caches the names of type bindings, since JDT computes a new string each
+ * time {@link ITypeBinding#getBinaryName()} is called.
+ *
+ * <p>The bindings are compared by identity. JDT creates separate binding
+ * objects for each compilation unit, so a cache should not outlive the
+ * compilation units it was used for.</p>
+ */
+public final class BindingNames {
+
+    // Marks bindings without a binary name, as the maps cannot tell null values apart
+    private static final String NONE = new String();
+
+    private final Map<ITypeBinding, String> binaryNames = new IdentityHashMap<>();
+    private final Map<ITypeBinding, String> internalNames = new IdentityHashMap<>();
+
+    /**
+     * Gets the binary name of the given binding.
+     *
+     * @param binding The type binding
+     * @return The binary name, or {@code null} if the type has none
+     * @see ITypeBinding#getBinaryName()
+     */
+    public String getBinaryName(final ITypeBinding binding) {
+        String name = this.binaryNames.get(binding);
+        if (name == null) {
+            name = binding.getBinaryName();
+            this.binaryNames.put(binding, name != null ? name : NONE);
+            return name;
+        }
+        return name != NONE ? name : null;
+    }
+
+    /**
+     * Gets the internal name of the given binding, which is its binary name
+     * with slashes as package separators.
+     *
+     * @param binding The type binding
+     * @return The internal name, or {@code null} if the type has no binary name
+     */
+    public String getInternalName(final ITypeBinding binding) {
+        String name = this.internalNames.get(binding);
+        if (name == null) {
+            name = getBinaryName(binding);
+            if (name != null) {
+                name = name.replace('.', '/');
+            }
+            this.internalNames.put(binding, name != null ? name : NONE);
+            return name;
+        }
+        return name != NONE ? name : null;
+    }
+
+}
@@ -49,7 +49,13 @@ public static Type convertType(ITypeBinding binding) {
         return new ObjectType(binding.getErasure().getBinaryName());
     }
 
-    private static String getBinaryName(IMethodBinding binding) {
+    /**
+     * Gets the name of the given method as used in its {@link MethodSignature}.
+     *
+     * @param binding The method binding
+     * @return The method name, or {@code <init>} for constructors
+     */
+    public static String getBinaryName(IMethodBinding binding) {
         if (binding.isConstructor()) {
             return BINARY_CONSTRUCTOR_NAME;
         } else {
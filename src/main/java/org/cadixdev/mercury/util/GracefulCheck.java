@@ -23,7 +23,7 @@
 public final class GracefulCheck {
 
     public static boolean checkGracefully(final SourceContext ctx, final ITypeBinding binding) {
-        return ctx.getMercury().isGracefulClasspathChecks() && binding.getBinaryName() == null;
+        return ctx.getMercury().isGracefulClasspathChecks() && ctx.getBinaryName(binding) == null;
     }
 
     public static boolean isJavadoc(final ASTNode node) {
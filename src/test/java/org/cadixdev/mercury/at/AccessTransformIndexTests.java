@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.at;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.cadixdev.at.AccessChange;
+import org.cadixdev.at.AccessTransform;
+import org.cadixdev.at.AccessTransformSet;
+import org.cadixdev.at.ModifierChange;
+import org.cadixdev.bombe.type.signature.MethodSignature;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.AbstractTypeDeclaration;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.IMethodBinding;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+class AccessTransformIndexTests {
+
+    private static final String SOURCE = "package test;\n"
+            + "\n"
+            + "interface Named {\n"
+            + "    String name();\n"
+            + "}\n"
+            + "\n"
+            + "abstract class Base {\n"
+            + "    protected abstract String name();\n"
+            + "}\n"
+            + "\n"
+            + "class Child extends Base implements Named {\n"
+            + "\n"
+            + "    public String name() {\n"
+            + "        return \"child\";\n"
+            + "    }\n"
+            + "\n"
+            + "    static String name(int index) {\n"
+            + "        return null;\n"
+            + "    }\n"
+            + "\n"
+            + "}\n";
+
+    private static final MethodSignature NAME = MethodSignature.of("name", "()Ljava/lang/String;");
+
+    private static final AccessTransform PUBLIC = AccessTransform.of(AccessChange.PUBLIC, ModifierChange.NONE);
+    private static final AccessTransform NOT_FINAL = AccessTransform.of(AccessChange.NONE, ModifierChange.REMOVE);
+
+    @Test
+    void mergeInheritedTransforms() {
+        final AccessTransformSet ats = AccessTransformSet.create();
+        ats.getOrCreateClass("test.Base").mergeMethod(NAME, PUBLIC);
+        ats.getOrCreateClass("test.Named").mergeMethod(NAME, NOT_FINAL);
+        final AccessTransformIndex index = new AccessTransformIndex(ats);
+
+        final ITypeBinding child = findType(parse(), "Child");
+        // The transforms of the super class and the interface are both inherited
+        assertEquals(PUBLIC.merge(NOT_FINAL), index.getMethod("test.Child", findMethod(child, 0), ITypeBinding::getBinaryName));
+        // Static methods do not override anything
+        assertEquals(AccessTransform.EMPTY, index.getMethod("test.Child", findMethod(child, 1), ITypeBinding::getBinaryName));
+
+        final Map<String, MethodSignature> overridden = AccessTransformIndex.findOverriddenMethods(findMethod(child, 0), ITypeBinding::getBinaryName);
+        assertEquals(NAME, overridden.get("test.Base"));
+        assertEquals(NAME, overridden.get("test.Named"));
+    }
+
+    @Test
+    void mergeOwnAndInheritedTransforms() {
+        final AccessTransform protectedTransform = AccessTransform.of(AccessChange.PROTECTED, ModifierChange.NONE);
+
+        final AccessTransformSet ats = AccessTransformSet.create();
+        ats.getOrCreateClass("test.Child").mergeMethod(NAME, protectedTransform);
+        ats.getOrCreateClass("test.Named").mergeMethod(NAME, NOT_FINAL);
+        final AccessTransformIndex index = new AccessTransformIndex(ats);
+
+        final ITypeBinding child = findType(parse(), "Child");
+        assertEquals(protectedTransform.merge(NOT_FINAL), index.getMethod("test.Child", findMethod(child, 0), ITypeBinding::getBinaryName));
+    }
+
+    @Test
+    void copyTransforms() {
+        final AccessTransformSet ats = AccessTransformSet.create();
+        ats.getOrCreateClass("test.Base").mergeMethod(NAME, PUBLIC);
+        ats.getOrCreateClass("test.Base").mergeField("field", NOT_FINAL);
+        final AccessTransformIndex index = new AccessTransformIndex(ats);
+
+        // Changes to the set after the index was created are ignored
+        ats.getOrCreateClass("test.Base").mergeMethod(NAME, NOT_FINAL);
+        ats.getOrCreateClass("test.Base").mergeField("field", PUBLIC);
+        ats.getOrCreateClass("test.Named").mergeMethod(NAME, NOT_FINAL);
+
+        final AccessTransformIndex.ClassTransforms base = index.getClass("test.Base");
+        assertEquals(PUBLIC, base.getMethod(NAME));
+        assertEquals(NOT_FINAL, base.getField("field"));
+        assertEquals(AccessTransform.EMPTY, base.getField("other"));
+        assertEquals(AccessTransform.EMPTY, base.get());
+        assertNull(index.getClass("test.Named"));
+
+        final ITypeBinding child = findType(parse(), "Child");
+        assertEquals(PUBLIC, index.getMethod("test.Child", findMethod(child, 0), ITypeBinding::getBinaryName));
+    }
+
+    private static IMethodBinding findMethod(final ITypeBinding type, final int parameters) {
+        for (final IMethodBinding method : type.getDeclaredMethods()) {
+            if (method.getName().equals("name") && method.getParameterTypes().length == parameters) {
+                return method;
+            }
+        }
+        throw new AssertionError("No name method with " + parameters + " parameters");
+    }
+
+    private static ITypeBinding findType(final CompilationUnit unit, final String name) {
+        for (final Object type : unit.types()) {
+            final AbstractTypeDeclaration declaration = (AbstractTypeDeclaration) type;
+            if (declaration.getName().getIdentifier().equals(name)) {
+                return declaration.resolveBinding();
+            }
+        }
+        throw new AssertionError("No type " + name);
+    }
+
+    private static CompilationUnit parse() {
+        final ASTParser parser = ASTParser.newParser(AST.getJLSLatest());
+        final Map<String, String> options = JavaCore.getOptions();
+        JavaCore.setComplianceOptions(JavaCore.VERSION_11, options);
+        parser.setCompilerOptions(options);
+        parser.setEnvironment(new String[0], new String[0], null, true);
+        parser.setResolveBindings(true);
+        parser.setUnitName("Child.java");
+        parser.setSource(SOURCE.toCharArray());
+        return (CompilationUnit) parser.createAST(null);
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.remapper;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.InnerClassMapping;
+import org.cadixdev.lorenz.model.TopLevelClassMapping;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+class AnonymousClassIndexTests {
+
+    @Test
+    void sameResultAsLinearSearch() {
+        final MappingSet mappings = MappingSet.create();
+        final TopLevelClassMapping parent = mappings.createTopLevelClassMapping("anon/Test", "anon/Anon");
+        parent.createInnerClassMapping("1", "3");
+        parent.createInnerClassMapping("2", "1");
+        parent.createInnerClassMapping("3", "2");
+        // Two inner classes with the same deobfuscated name
+        parent.createInnerClassMapping("4", "Named");
+        parent.createInnerClassMapping("5", "Named");
+
+        final AnonymousClassIndex index = new AnonymousClassIndex();
+        for (final String name : Arrays.asList("1", "2", "3", "Named", "4", "Missing")) {
+            assertSame(findLinear(parent, name), index.findByDeobfuscatedName(parent, name), name);
+        }
+    }
+
+    @Test
+    void rememberUnmatched() {
+        final MappingSet mappings = MappingSet.create();
+        final TopLevelClassMapping parent = mappings.createTopLevelClassMapping("anon/Test", "anon/Anon");
+        final InnerClassMapping first = parent.createInnerClassMapping("1", "2");
+        final InnerClassMapping other = mappings.createTopLevelClassMapping("anon/Other", "anon/Other")
+                .createInnerClassMapping("1", "2");
+
+        final AnonymousClassIndex index = new AnonymousClassIndex();
+        assertFalse(index.isUnmatched(first));
+        index.markUnmatched(first);
+        assertTrue(index.isUnmatched(first));
+
+        // Anonymous classes of other parents are not affected
+        assertFalse(index.isUnmatched(other));
+        assertNull(index.findByDeobfuscatedName(other, "1"));
+    }
+
+    private static InnerClassMapping findLinear(final ClassMapping<?, ?> parent, final String deobfuscatedName) {
+        for (final InnerClassMapping mapping : parent.getInnerClassMappings()) {
+            if (mapping.getDeobfuscatedName().equals(deobfuscatedName)) {
+                return mapping;
+            }
+        }
+        return null;
+    }
+
+}
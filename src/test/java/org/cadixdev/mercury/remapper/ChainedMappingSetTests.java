@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.remapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import org.cadixdev.bombe.type.signature.FieldSignature;
+import org.cadixdev.bombe.type.signature.MethodSignature;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.Mapping;
+import org.cadixdev.lorenz.model.TopLevelClassMapping;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+class ChainedMappingSetTests {
+
+    @Test
+    void composeTwoLinks() {
+        final MappingSet first = MappingSet.create();
+        final TopLevelClassMapping a = first.createTopLevelClassMapping("a/A", "b/B");
+        a.createFieldMapping(FieldSignature.of("x", "I"), "y");
+        a.createMethodMapping(MethodSignature.of("m", "()V"), "n");
+
+        final MappingSet second = MappingSet.create();
+        final TopLevelClassMapping b = second.createTopLevelClassMapping("b/B", "c/C");
+        // Renames the field from the first link, and an overload that only this link renames
+        b.createFieldMapping(FieldSignature.of("y", "I"), "z");
+        b.createFieldMapping(FieldSignature.of("y", "Ljava/lang/String;"), "w");
+        b.createMethodMapping(MethodSignature.of("n", "()V"), "o");
+        // Only this link renames the method, with the class from the first link in its descriptor
+        b.createMethodMapping(MethodSignature.of("get", "()Lb/B;"), "fetch");
+
+        final ChainedMappingSet chained = new ChainedMappingSet(Arrays.asList(first, second));
+        final ClassMapping<?, ?> composed = chained.getTopLevelClassMapping("a/A").orElse(null);
+        assertEquals("c/C", composed.getFullDeobfuscatedName());
+
+        assertEquals("z", composed.getFieldMapping(FieldSignature.of("x", "I")).map(Mapping::getDeobfuscatedName).orElse(null));
+        assertEquals("w", composed.getFieldMapping(FieldSignature.of("y", "Ljava/lang/String;")).map(Mapping::getDeobfuscatedName).orElse(null));
+        assertFalse(composed.getFieldMapping(FieldSignature.of("y", "I")).isPresent());
+
+        assertEquals("o", composed.getMethodMapping(MethodSignature.of("m", "()V")).map(Mapping::getDeobfuscatedName).orElse(null));
+        assertEquals("fetch", composed.getMethodMapping(MethodSignature.of("get", "()La/A;")).map(Mapping::getDeobfuscatedName).orElse(null));
+    }
+
+    @Test
+    void composeClassOnlyMappedByLaterLink() {
+        final MappingSet first = MappingSet.create();
+        first.createTopLevelClassMapping("a/A", "b/B");
+
+        final MappingSet second = MappingSet.create();
+        second.createTopLevelClassMapping("a/Other", "c/Other")
+                .createFieldMapping(FieldSignature.of("f", "La/Other;"), "g");
+
+        final ChainedMappingSet chained = new ChainedMappingSet(Arrays.asList(first, second));
+        assertEquals("b/B", chained.getTopLevelClassMapping("a/A").map(ClassMapping::getFullDeobfuscatedName).orElse(null));
+
+        final ClassMapping<?, ?> other = chained.getTopLevelClassMapping("a/Other").orElse(null);
+        assertEquals("c/Other", other.getFullDeobfuscatedName());
+        assertEquals("g", other.getFieldMapping(FieldSignature.of("f", "La/Other;")).map(Mapping::getDeobfuscatedName).orElse(null));
+    }
+
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.cadixdev.at.AccessChange;
+import org.cadixdev.at.AccessTransform;
+import org.cadixdev.at.AccessTransformSet;
+import org.cadixdev.at.ModifierChange;
+import org.cadixdev.bombe.type.signature.MethodSignature;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.mercury.Mercury;
+import org.cadixdev.mercury.RewriteContext;
+import org.cadixdev.mercury.SourceProcessor;
+import org.cadixdev.mercury.SourceRewriter;
+import org.cadixdev.mercury.analysis.SourceSummary;
+import org.cadixdev.mercury.at.AccessTransformerRewriter;
+import org.cadixdev.mercury.extra.AccessAnalyzerProcessor;
+import org.eclipse.jdt.core.JavaCore;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+class AccessTransformerTests {
+
+    private static final AccessTransform PUBLIC = AccessTransform.of(AccessChange.PUBLIC, ModifierChange.NONE);
+    private static final AccessTransform PUBLIC_NOT_FINAL = AccessTransform.of(AccessChange.PUBLIC, ModifierChange.REMOVE);
+
+    private static final String BODIES = "package test;\n"
+            + "\n"
+            + "public class Bodies {\n"
+            + "\n"
+            + "    private final int field = 0;\n"
+            + "\n"
+            + "    private void method() {\n"
+            + "        final Runnable runnable = () -> {\n"
+            + "            final int local = this.field;\n"
+            + "        };\n"
+            + "        new Object() {\n"
+            + "            @Override\n"
+            + "            public String toString() {\n"
+            + "                return \"anonymous\";\n"
+            + "            }\n"
+            + "        };\n"
+            + "    }\n"
+            + "\n"
+            + "}\n";
+
+    private static final String OWNER = "package test;\n"
+            + "\n"
+            + "public class Owner {\n"
+            + "\n"
+            + "    int count;\n"
+            + "\n"
+            + "    void run() {\n"
+            + "    }\n"
+            + "\n"
+            + "    static class Nested {\n"
+            + "\n"
+            + "        void nested() {\n"
+            + "        }\n"
+            + "\n"
+            + "    }\n"
+            + "\n"
+            + "}\n";
+
+    private static final String CHILD = "package test;\n"
+            + "\n"
+            + "public class Child extends Owner {\n"
+            + "\n"
+            + "    void run() {\n"
+            + "    }\n"
+            + "\n"
+            + "}\n";
+
+    private static final String USER = "package test;\n"
+            + "\n"
+            + "public class User {\n"
+            + "\n"
+            + "    public void use(final Owner owner) {\n"
+            + "        owner.count++;\n"
+            + "        owner.run();\n"
+            + "        new Owner.Nested().nested();\n"
+            + "    }\n"
+            + "\n"
+            + "}\n";
+
+    @Test
+    void transformWithoutMethodBodies() throws Exception {
+        final AccessTransformSet ats = AccessTransformSet.create();
+        final AccessTransformSet.Class bodies = ats.getOrCreateClass("test.Bodies");
+        bodies.mergeField("field", PUBLIC_NOT_FINAL);
+        bodies.mergeMethod(MethodSignature.of("method", "()V"), PUBLIC);
+
+        final Map<String, String> sources = Collections.singletonMap("test/Bodies.java", BODIES);
+        final Map<String, String> expected = this.rewrite(ats, sources, mercury -> {
+            // Method bodies are parsed as long as one processor needs them
+            mercury.getProcessors().add(new SourceRewriter() {
+                @Override
+                public int getFlags() {
+                    return FLAG_RESOLVE_BINDINGS | FLAG_IGNORE_JAVADOC;
+                }
+
+                @Override
+                public void rewrite(final RewriteContext context) {
+                }
+            });
+        });
+        final Map<String, String> actual = this.rewrite(ats, sources, mercury -> {});
+
+        assertEquals(BODIES
+                .replace("private final int field", "public int field")
+                .replace("private void method", "public void method"), expected.get("test/Bodies.java"));
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void analyzeThenTransform() throws Exception {
+        final Map<String, String> sources = new HashMap<>();
+        sources.put("test/Owner.java", OWNER);
+        sources.put("test/Child.java", CHILD);
+        sources.put("test/User.java", USER);
+
+        // The user is moved to another package, so it needs access to the owner
+        final MappingSet mappings = MappingSet.create();
+        mappings.getOrCreateTopLevelClassMapping("test/User").setDeobfuscatedName("other/User");
+
+        // Analyze first, then transform with the complete access transformers
+        final AccessTransformSet separateAts = AccessTransformSet.create();
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        this.write(tempDir, sources);
+        final Mercury analysis = new Mercury();
+        analysis.setSourceCompatibility(JavaCore.VERSION_11);
+        analysis.getProcessors().add(AccessAnalyzerProcessor.create(separateAts, mappings));
+        analysis.process(tempDir);
+        new RemappingTests().delete(tempDir);
+        final Map<String, String> expected = this.rewrite(separateAts, sources, mercury -> {});
+
+        // The transforms of the single run are deferred until the analysis is complete
+        final AccessTransformSet ats = AccessTransformSet.create();
+        final Map<String, String> actual = this.rewrite(ats, sources,
+                mercury -> mercury.getProcessors().add(0, AccessAnalyzerProcessor.create(ats, mappings)));
+
+        assertEquals(OWNER
+                .replace("    int count;", "    public int count;")
+                .replace("    void run()", "    public void run()")
+                .replace("    static class Nested", "    public static class Nested")
+                .replace("        void nested()", "        public void nested()"), expected.get("test/Owner.java"));
+        // Overriding methods inherit the access transforms
+        assertEquals(CHILD.replace("    void run()", "    public void run()"), expected.get("test/Child.java"));
+        assertEquals(USER, expected.get("test/User.java"));
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void pruneFilesWithoutTransforms() throws Exception {
+        final String unrelated = "package test;\n"
+                + "\n"
+                + "class Unrelated   {\n"
+                + "\n"
+                + "    private   int count ;\n"
+                + "\n"
+                + "}\n";
+
+        final Map<String, String> sources = new HashMap<>();
+        sources.put("test/Owner.java", OWNER);
+        sources.put("test/Child.java", CHILD);
+        sources.put("test/Unrelated.java", unrelated);
+
+        final AccessTransformSet ats = AccessTransformSet.create();
+        ats.getOrCreateClass("test.Owner").mergeMethod(MethodSignature.of("run", "()V"), PUBLIC);
+
+        final RecordingRewriter rewriter = new RecordingRewriter(AccessTransformerRewriter.create(ats));
+        final Map<String, String> actual = this.rewrite(rewriter, sources, mercury -> mercury.setFilePruning(true));
+
+        // The child inherits the transform, even though it is declared in another file
+        assertEquals(new HashSet<>(Arrays.asList("Owner.java", "Child.java")), rewriter.files);
+        assertEquals(OWNER.replace("    void run()", "    public void run()"), actual.get("test/Owner.java"));
+        assertEquals(CHILD.replace("    void run()", "    public void run()"), actual.get("test/Child.java"));
+        // Skipped files are copied as they are
+        assertEquals(unrelated, actual.get("test/Unrelated.java"));
+        assertEquals(this.rewrite(ats, sources, mercury -> {}), actual);
+    }
+
+    Map<String, String> rewrite(final AccessTransformSet ats, final Map<String, String> sources, final Consumer<Mercury> configure)
+            throws Exception {
+        return this.rewrite(AccessTransformerRewriter.create(ats), sources, configure);
+    }
+
+    Map<String, String> rewrite(final SourceProcessor processor, final Map<String, String> sources, final Consumer<Mercury> configure)
+            throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path in = tempDir.resolve("a");
+        final Path out = tempDir.resolve("b");
+        Files.createDirectories(out);
+        this.write(in, sources);
+
+        // Run Mercury
+        final Mercury mercury = new Mercury();
+        mercury.setSourceCompatibility(JavaCore.VERSION_11);
+        mercury.getProcessors().add(processor);
+        configure.accept(mercury);
+        mercury.rewrite(in, out);
+
+        final Map<String, String> result = new HashMap<>();
+        for (final String file : sources.keySet()) {
+            result.put(file, new String(Files.readAllBytes(out.resolve(file)), StandardCharsets.UTF_8));
+        }
+
+        new RemappingTests().delete(tempDir);
+        return result;
+    }
+
+    void write(final Path dir, final Map<String, String> sources) throws IOException {
+        for (final Map.Entry<String, String> source : sources.entrySet()) {
+            final Path file = dir.resolve(source.getKey());
+            Files.createDirectories(file.getParent());
+            Files.write(file, source.getValue().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Records the source files that are passed to the rewriter.
+     */
+    private static final class RecordingRewriter implements SourceRewriter {
+
+        private final SourceRewriter rewriter;
+        private final Set<String> files = ConcurrentHashMap.newKeySet();
+
+        private RecordingRewriter(final SourceRewriter rewriter) {
+            this.rewriter = rewriter;
+        }
+
+        @Override
+        public int getFlags() {
+            return this.rewriter.getFlags();
+        }
+
+        @Override
+        public void initialize(final Mercury mercury) throws Exception {
+            this.rewriter.initialize(mercury);
+        }
+
+        @Override
+        public boolean shouldProcess(final SourceSummary summary) {
+            return this.rewriter.shouldProcess(summary);
+        }
+
+        @Override
+        public void rewrite(final RewriteContext context) throws Exception {
+            this.files.add(context.getSourceFile().getFileName().toString());
+            this.rewriter.rewrite(context);
+        }
+
+        @Override
+        public void finish(final Mercury mercury) throws Exception {
+            this.rewriter.finish(mercury);
+        }
+
+    }
+
+}
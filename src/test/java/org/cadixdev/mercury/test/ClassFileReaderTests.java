@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.cadixdev.mercury.classpath.ClassFileReader;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+class ClassFileReaderTests {
+
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_BRIDGE = 0x0040;
+    private static final int ACC_INTERFACE = 0x0200;
+    private static final int ACC_ABSTRACT = 0x0400;
+    private static final int ACC_SYNTHETIC = 0x1000;
+
+    static final Map<String, String> SOURCES = new HashMap<>();
+
+    static {
+        SOURCES.put("lib/Shape.java", "package lib;\n"
+                + "\n"
+                + "public interface Shape extends Comparable<Shape>, Cloneable {\n"
+                + "\n"
+                + "    double SCALE = 2.5;\n"
+                + "\n"
+                + "    String name();\n"
+                + "\n"
+                + "    default int sides() {\n"
+                + "        return 0;\n"
+                + "    }\n"
+                + "\n"
+                + "}\n");
+        SOURCES.put("lib/Square.java", "package lib;\n"
+                + "\n"
+                + "public class Square extends Base<String> implements Shape {\n"
+                + "\n"
+                + "    private int size;\n"
+                + "    protected final java.util.List<String> names = null;\n"
+                + "\n"
+                + "    public String name() {\n"
+                + "        return \"square\";\n"
+                + "    }\n"
+                + "\n"
+                + "    @Override\n"
+                + "    public int compareTo(Shape other) {\n"
+                + "        return 0;\n"
+                + "    }\n"
+                + "\n"
+                + "    @Override\n"
+                + "    String get() {\n"
+                + "        return name();\n"
+                + "    }\n"
+                + "\n"
+                + "    class Side {\n"
+                + "        int length() {\n"
+                + "            return size;\n"
+                + "        }\n"
+                + "    }\n"
+                + "\n"
+                + "}\n");
+        SOURCES.put("lib/Base.java", "package lib;\n"
+                + "\n"
+                + "abstract class Base<T> {\n"
+                + "\n"
+                + "    abstract T get();\n"
+                + "\n"
+                + "    static void helper() {\n"
+                + "    }\n"
+                + "\n"
+                + "}\n");
+        SOURCES.put("lib/Constants.java", "package lib;\n"
+                + "\n"
+                + "public final class Constants {\n"
+                + "\n"
+                + "    public static final long BIG = 1234567890123L;\n"
+                + "    public static final double RATIO = 0.123456789;\n"
+                + "    public static final int SMALL = 123456;\n"
+                + "    public static final float HALF = 0.5f;\n"
+                + "    public static final String TEXT = \"text\";\n"
+                + "    static long time;\n"
+                + "\n"
+                + "    static {\n"
+                + "        time = 9876543210L;\n"
+                + "    }\n"
+                + "\n"
+                + "    private Constants() {\n"
+                + "    }\n"
+                + "\n"
+                + "    public static double scale(final long value) {\n"
+                + "        return value * 2.5e300 + 1234567890124L;\n"
+                + "    }\n"
+                + "\n"
+                + "    static java.util.concurrent.Callable<java.net.URI> uri() {\n"
+                + "        return null;\n"
+                + "    }\n"
+                + "\n"
+                + "}\n");
+    }
+
+    private static Path tempDir;
+    private static Path classes;
+
+    @BeforeAll
+    static void compile() throws Exception {
+        tempDir = Files.createTempDirectory("mercury-test");
+        classes = TestClasses.compile(tempDir, SOURCES);
+    }
+
+    @AfterAll
+    static void cleanup() throws Exception {
+        new RemappingTests().delete(tempDir);
+    }
+
+    @Test
+    void readInterface() throws Exception {
+        final ClassFileReader reader = read("lib/Shape");
+        assertEquals("lib/Shape", reader.getClassName());
+        assertEquals(ACC_INTERFACE | ACC_ABSTRACT, reader.getAccess() & (ACC_INTERFACE | ACC_ABSTRACT));
+        assertEquals("java/lang/Object", reader.getSuperName());
+        assertEquals(Arrays.asList("java/lang/Comparable", "java/lang/Cloneable"), reader.getInterfaces());
+
+        assertEquals(Collections.singletonMap("SCALE", "D"), descriptors(reader.getFields()));
+        final Map<String, String> methods = descriptors(reader.getMethods());
+        assertEquals("()Ljava/lang/String;", methods.get("name"));
+        assertEquals("()I", methods.get("sides"));
+        assertEquals(2, methods.size());
+    }
+
+    @Test
+    void readSyntheticAndBridgeMembers() throws Exception {
+        final ClassFileReader reader = read("lib/Square");
+        assertEquals("lib/Base", reader.getSuperName());
+        assertEquals(Collections.singletonList("lib/Shape"), reader.getInterfaces());
+
+        final Map<String, String> fields = descriptors(reader.getFields());
+        assertEquals("I", fields.get("size"));
+        assertEquals("Ljava/util/List;", fields.get("names"));
+        assertEquals(2, fields.size());
+
+        boolean compareBridge = false;
+        boolean getBridge = false;
+        boolean accessor = false;
+        for (final ClassFileReader.Member method : reader.getMethods()) {
+            final boolean bridge = (method.getAccess() & (ACC_BRIDGE | ACC_SYNTHETIC)) == (ACC_BRIDGE | ACC_SYNTHETIC);
+            if (method.getName().equals("compareTo")) {
+                if (method.getDescriptor().equals("(Ljava/lang/Object;)I")) {
+                    compareBridge = bridge;
+                } else {
+                    assertEquals("(Llib/Shape;)I", method.getDescriptor());
+                    assertEquals(0, method.getAccess() & ACC_SYNTHETIC);
+                }
+            } else if (method.getName().equals("get") && method.getDescriptor().equals("()Ljava/lang/Object;")) {
+                getBridge = bridge;
+            } else if (method.getName().startsWith("access$")) {
+                // Used by the inner class to read the private field
+                accessor = (method.getAccess() & ACC_SYNTHETIC) != 0 && (method.getAccess() & ACC_BRIDGE) == 0;
+            }
+        }
+        assertTrue(compareBridge);
+        assertTrue(getBridge);
+        assertTrue(accessor);
+
+        // The reference to the outer instance
+        final ClassFileReader inner = read("lib/Square$Side");
+        final ClassFileReader.Member outer = inner.getFields().get(0);
+        assertEquals("this$0", outer.getName());
+        assertEquals("Llib/Square;", outer.getDescriptor());
+        assertEquals(ACC_FINAL | ACC_SYNTHETIC, outer.getAccess() & (ACC_FINAL | ACC_SYNTHETIC));
+    }
+
+    @Test
+    void readAfterWideConstants() throws Exception {
+        final ClassFileReader reader = read("lib/Constants");
+        assertEquals("lib/Constants", reader.getClassName());
+        assertEquals("java/lang/Object", reader.getSuperName());
+        assertEquals(Collections.emptyList(), reader.getInterfaces());
+
+        final Map<String, String> fields = new LinkedHashMap<>();
+        fields.put("BIG", "J");
+        fields.put("RATIO", "D");
+        fields.put("SMALL", "I");
+        fields.put("HALF", "F");
+        fields.put("TEXT", "Ljava/lang/String;");
+        fields.put("time", "J");
+        assertEquals(fields, descriptors(reader.getFields()));
+
+        final Map<String, String> methods = descriptors(reader.getMethods());
+        assertEquals("()V", methods.get("<init>"));
+        assertEquals("()V", methods.get("<clinit>"));
+        assertEquals("(J)D", methods.get("scale"));
+        assertEquals("()Ljava/util/concurrent/Callable;", methods.get("uri"));
+        assertEquals(4, methods.size());
+
+        // The constants after the long and double entries are read as well
+        final Set<String> packages = new HashSet<>();
+        reader.collectReferencedPackages(packages);
+        assertTrue(packages.containsAll(Arrays.asList("java/lang", "java/util/concurrent", "java/net")), packages.toString());
+    }
+
+    @Test
+    void rejectInvalidClassFiles() throws Exception {
+        assertThrows(IllegalArgumentException.class, () -> new ClassFileReader(new byte[]{1, 2, 3, 4, 0, 0, 0, 52, 0, 1}));
+
+        final byte[] bytes = Files.readAllBytes(classes.resolve("lib/Constants.class"));
+        // Ends in the constant pool
+        assertThrows(IllegalArgumentException.class, () -> new ClassFileReader(Arrays.copyOf(bytes, 64)));
+    }
+
+    private static ClassFileReader read(final String className) throws Exception {
+        final ClassFileReader reader = new ClassFileReader(Files.readAllBytes(classes.resolve(className + ".class")));
+        assertNotNull(reader.getClassName());
+        return reader;
+    }
+
+    private static Map<String, String> descriptors(final List<ClassFileReader.Member> members) {
+        final Map<String, String> descriptors = new LinkedHashMap<>();
+        for (final ClassFileReader.Member member : members) {
+            descriptors.put(member.getName(), member.getDescriptor());
+        }
+        return descriptors;
+    }
+
+}
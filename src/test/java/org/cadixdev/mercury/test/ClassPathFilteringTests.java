@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.mercury.Mercury;
+import org.cadixdev.mercury.analysis.SourceSummary;
+import org.cadixdev.mercury.remapper.MercuryRemapper;
+import org.eclipse.jdt.core.JavaCore;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+class ClassPathFilteringTests {
+
+    private static final String SOURCE = "package test;\n"
+            + "\n"
+            + "/**\n"
+            + " * Only referenced here: {@link com.lib.Foo#bar(com.lib.other.Baz)}.\n"
+            + " */\n"
+            + "public class JavadocOnly {\n"
+            + "}\n";
+
+    @Test
+    void javadocReferencesAreQualifiedNames() {
+        final SourceSummary summary = SourceSummary.scan(SOURCE);
+        assertTrue(summary.getQualifiedNames().contains("com.lib.Foo"));
+        assertTrue(summary.getQualifiedNames().contains("com.lib.other.Baz"));
+        assertTrue(summary.getIdentifiers().contains("Foo"));
+        assertTrue(summary.getIdentifiers().contains("bar"));
+
+        final Set<String> packages = new HashSet<>();
+        summary.collectReferencedPackages(packages);
+        assertTrue(packages.contains("com.lib"));
+        assertTrue(packages.contains("com.lib.other"));
+    }
+
+    @Test
+    void filterClassPathKeepsJavadocReferences() throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Map<String, String> libSources = new HashMap<>();
+        libSources.put("com/lib/Foo.java", "package com.lib; public class Foo { public void bar(com.lib.other.Baz baz) {} }");
+        libSources.put("com/lib/other/Baz.java", "package com.lib.other; public class Baz {}");
+        final Path lib = TestClasses.compileJar(tempDir.resolve("lib.jar"), libSources);
+        final Path unused = TestClasses.compileJar(tempDir.resolve("unused.jar"), Collections.singletonMap(
+                "org/unused/Unused.java", "package org.unused; public class Unused {}"
+        ));
+
+        final Path in = tempDir.resolve("a");
+        final Path out = tempDir.resolve("b");
+        Files.createDirectories(in.resolve("test"));
+        Files.createDirectories(out);
+        Files.write(in.resolve("test/JavadocOnly.java"), SOURCE.getBytes(StandardCharsets.UTF_8));
+
+        final Mercury mercury = new Mercury();
+        mercury.setSourceCompatibility(JavaCore.VERSION_11);
+        mercury.getClassPath().addAll(Arrays.asList(lib, unused));
+        mercury.setClassPathFiltering(true);
+
+        // The library is only referenced from Javadoc, but still required
+        final Set<String> packages = new HashSet<>();
+        SourceSummary.scan(SOURCE).collectReferencedPackages(packages);
+        final List<Path> required = mercury.getClassPathIndex().findRequiredEntries(packages);
+        assertTrue(required.contains(lib));
+        assertFalse(required.contains(unused));
+
+        // Javadoc references without a binding would fail the remapper
+        mercury.getProcessors().add(MercuryRemapper.create(MappingSet.create()));
+        mercury.rewrite(in, out);
+        assertEquals(SOURCE, new String(Files.readAllBytes(out.resolve("test/JavadocOnly.java")), StandardCharsets.UTF_8));
+
+        new RemappingTests().delete(tempDir);
+    }
+
+    @Test
+    void filterClassPathKeepsPrimitiveParameterReferences() throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path bar = TestClasses.compileJar(tempDir.resolve("bar.jar"), Collections.singletonMap(
+                "net/foo/Bar.java", "package net.foo; public class Bar {}"
+        ));
+        final Path c = TestClasses.compileJar(tempDir.resolve("c.jar"), Collections.singletonMap(
+                "a/b/C.java", "package a.b; public class C {}"
+        ));
+        // The classes are only used in the descriptors (ILnet/foo/Bar;)V and (JZLa/b/C;)V
+        final Path api = TestClasses.compileJar(tempDir.resolve("api.jar"), Collections.singletonMap(
+                "com/api/Service.java", "package com.api; public class Service {\n"
+                        + "    public void handle(int count, net.foo.Bar bar) {}\n"
+                        + "    public void run(long time, boolean flag, a.b.C c) {}\n"
+                        + "}"
+        ), bar, c);
+        final Path unused = TestClasses.compileJar(tempDir.resolve("unused.jar"), Collections.singletonMap(
+                "org/unused/Unused.java", "package org.unused; public class Unused {}"
+        ));
+
+        final Mercury mercury = new Mercury();
+        mercury.getClassPath().addAll(Arrays.asList(api, bar, c, unused));
+
+        final List<Path> required = mercury.getClassPathIndex().findRequiredEntries(Collections.singleton("com.api"));
+        assertTrue(required.contains(api));
+        assertTrue(required.contains(bar));
+        assertTrue(required.contains(c));
+        assertFalse(required.contains(unused));
+
+        mercury.getClassPathIndex().close();
+        new RemappingTests().delete(tempDir);
+    }
+
+}
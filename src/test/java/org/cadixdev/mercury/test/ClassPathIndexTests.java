@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.cadixdev.mercury.classpath.ClassPathIndex;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+class ClassPathIndexTests {
+
+    // Compressible, so the deflated entry is actually smaller than the stored one
+    private static final byte[] STORED = repeat("stored class file ", 200);
+    private static final byte[] DEFLATED = repeat("deflated class file ", 200);
+
+    @Test
+    void readStoredAndDeflatedEntries() throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path jar = tempDir.resolve("test.jar");
+        this.writeJar(jar);
+
+        try (final ClassPathIndex index = ClassPathIndex.create(Collections.singletonList(jar))) {
+            assertTrue(index.hasPackage("com.example"));
+            assertTrue(index.hasClass("com.example.Stored"));
+            assertTrue(index.hasClass("com/example/Deflated$Inner"));
+            assertFalse(index.hasClass("com.example.Missing"));
+
+            assertArrayEquals(STORED, index.readClass("com.example.Stored").orElse(null));
+            assertArrayEquals(DEFLATED, index.readClass("com/example/Deflated$Inner").orElse(null));
+            assertEquals(Optional.empty(), index.readClass("com.example.Missing"));
+
+            // The jar is mapped again after it was released
+            index.close();
+            assertArrayEquals(DEFLATED, index.readClass("com.example.Deflated$Inner").orElse(null));
+        }
+
+        Files.delete(jar);
+        Files.delete(tempDir);
+    }
+
+    @Test
+    void readPersistedIndex() throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path jar = tempDir.resolve("test.jar");
+        final Path cache = tempDir.resolve("classpath.idx");
+        this.writeJar(jar);
+
+        ClassPathIndex.load(cache, Collections.singletonList(jar)).close();
+        assertTrue(Files.exists(cache));
+
+        try (final ClassPathIndex index = ClassPathIndex.load(cache, Collections.singletonList(jar))) {
+            assertEquals(Collections.singletonList(jar), index.findEntries("com/example"));
+            assertArrayEquals(STORED, index.readClass("com.example.Stored").orElse(null));
+        }
+
+        for (final Path path : Arrays.asList(jar, cache, tempDir)) {
+            Files.delete(path);
+        }
+    }
+
+    void writeJar(final Path jar) throws IOException {
+        try (final OutputStream out = Files.newOutputStream(jar); final ZipOutputStream zip = new ZipOutputStream(out)) {
+            final CRC32 crc = new CRC32();
+            crc.update(STORED);
+
+            final ZipEntry stored = new ZipEntry("com/example/Stored.class");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(STORED.length);
+            stored.setCompressedSize(STORED.length);
+            stored.setCrc(crc.getValue());
+            zip.putNextEntry(stored);
+            zip.write(STORED);
+            zip.closeEntry();
+
+            final ZipEntry deflated = new ZipEntry("com/example/Deflated$Inner.class");
+            deflated.setMethod(ZipEntry.DEFLATED);
+            zip.putNextEntry(deflated);
+            zip.write(DEFLATED);
+            zip.closeEntry();
+        }
+    }
+
+    static byte[] repeat(final String s, final int count) {
+        final StringBuilder builder = new StringBuilder(s.length() * count);
+        for (int i = 0; i < count; i++) {
+            builder.append(s);
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+}
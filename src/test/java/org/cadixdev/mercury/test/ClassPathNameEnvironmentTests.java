@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.cadixdev.mercury.classpath.ClassPathIndex;
+import org.cadixdev.mercury.classpath.ClassPathNameEnvironment;
+import org.eclipse.jdt.internal.compiler.env.INameEnvironment;
+import org.eclipse.jdt.internal.compiler.env.NameEnvironmentAnswer;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+class ClassPathNameEnvironmentTests {
+
+    @Test
+    void serveClassesFromIndex() throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path lib = TestClasses.compileJar(tempDir.resolve("lib.jar"), Collections.singletonMap(
+                "com/lib/Foo.java", "package com.lib; public class Foo {}"
+        ));
+        final Path filtered = TestClasses.compileJar(tempDir.resolve("filtered.jar"), Collections.singletonMap(
+                "org/filtered/Bar.java", "package org.filtered; public class Bar {}"
+        ));
+        final List<Path> classPath = Arrays.asList(lib, filtered);
+
+        final Fallback fallback = new Fallback();
+        // Without an index, the original environment is used
+        assertSame(fallback, ClassPathNameEnvironment.wrap(fallback));
+
+        try (final ClassPathIndex index = ClassPathIndex.create(classPath)) {
+            ClassPathNameEnvironment.run(index, Collections.singletonList(lib), () -> {
+                final INameEnvironment environment = ClassPathNameEnvironment.wrap((INameEnvironment) fallback);
+
+                final NameEnvironmentAnswer answer = environment.findType(chars("com", "lib", "Foo"));
+                assertNotNull(answer);
+                assertEquals("com/lib/Foo", new String(answer.getBinaryType().getName()));
+                assertNotNull(environment.findType("Foo".toCharArray(), chars("com", "lib")));
+                assertTrue(environment.isPackage(chars("com"), "lib".toCharArray()));
+                assertEquals(0, fallback.lookups);
+
+                // Classes outside the index, or of removed entries, are looked up by the original environment
+                assertNull(environment.findType(chars("com", "lib", "Missing")));
+                assertNull(environment.findType(chars("org", "filtered", "Bar")));
+                assertFalse(environment.isPackage(chars("org"), "filtered".toCharArray()));
+                assertNull(environment.findType(chars("java", "lang", "String")));
+                assertEquals(4, fallback.lookups);
+
+                environment.cleanup();
+                assertTrue(fallback.cleanedUp);
+            });
+        }
+
+        new RemappingTests().delete(tempDir);
+    }
+
+    private static char[][] chars(final String... parts) {
+        final char[][] result = new char[parts.length][];
+        for (int i = 0; i < parts.length; i++) {
+            result[i] = parts[i].toCharArray();
+        }
+        return result;
+    }
+
+    private static final class Fallback implements INameEnvironment {
+
+        private int lookups;
+        private boolean cleanedUp;
+
+        @Override
+        public NameEnvironmentAnswer findType(final char[][] compoundTypeName) {
+            this.lookups++;
+            return null;
+        }
+
+        @Override
+        public NameEnvironmentAnswer findType(final char[] typeName, final char[][] packageName) {
+            this.lookups++;
+            return null;
+        }
+
+        @Override
+        public boolean isPackage(final char[][] parentPackageName, final char[] packageName) {
+            this.lookups++;
+            return false;
+        }
+
+        @Override
+        public void cleanup() {
+            this.cleanedUp = true;
+        }
+
+    }
+
+}
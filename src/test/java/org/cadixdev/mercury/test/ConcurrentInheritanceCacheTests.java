@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+import org.cadixdev.mercury.analysis.ConcurrentInheritanceCache;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class ConcurrentInheritanceCacheTests {
+
+    @Test
+    void provideOnceForConcurrentRequests() throws Exception {
+        final TestProvider provider = new TestProvider();
+        final CountDownLatch release = new CountDownLatch(1);
+        provider.blocked.put("a", release);
+        final ConcurrentInheritanceCache cache = new ConcurrentInheritanceCache(provider, 0);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> cache.provide("a")));
+            }
+
+            provider.started.await();
+            release.countDown();
+            for (final Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1, provider.getCalls("a"));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(7, cache.getHitCount());
+    }
+
+    @Test
+    void evictInInsertionOrder() {
+        final TestProvider provider = new TestProvider();
+        final ConcurrentInheritanceCache cache = new ConcurrentInheritanceCache(provider, 2);
+
+        cache.provide("a");
+        cache.provide("b");
+        cache.provide("a");
+        // Evicts a, which was added first even though it was used last
+        cache.provide("c");
+        assertEquals(1, cache.getEvictionCount());
+        cache.provide("b");
+        assertEquals(1, provider.getCalls("b"));
+
+        // Adding a again evicts b, and only b
+        cache.provide("a");
+        assertEquals(2, provider.getCalls("a"));
+        assertEquals(2, cache.getEvictionCount());
+        cache.provide("c");
+        assertEquals(1, provider.getCalls("c"));
+        cache.provide("b");
+        assertEquals(2, provider.getCalls("b"));
+
+        assertEquals(2, cache.size());
+        assertEquals(3, cache.getEvictionCount());
+        assertEquals(3, cache.getHitCount());
+        assertEquals(5, cache.getMissCount());
+    }
+
+    @Test
+    void keepClassesThatAreStillProvided() throws Exception {
+        final TestProvider provider = new TestProvider();
+        final ConcurrentInheritanceCache cache = new ConcurrentInheritanceCache(provider, 1);
+
+        // The failed attempt must not evict the class when it is provided again
+        provider.failures.add("slow");
+        assertThrows(IllegalStateException.class, () -> cache.provide("slow"));
+
+        final CountDownLatch release = new CountDownLatch(1);
+        provider.blocked.put("slow", release);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<?> first = executor.submit(() -> cache.provide("slow"));
+            provider.started.await();
+
+            // The cache is full, but the class that is still provided stays
+            cache.provide("fast");
+            final Future<?> second = executor.submit(() -> cache.provide("slow"));
+
+            release.countDown();
+            first.get();
+            second.get();
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(2, provider.getCalls("slow"));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(1, cache.size());
+    }
+
+    private static final class TestProvider implements InheritanceProvider {
+
+        private final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+        private final Set<String> failures = ConcurrentHashMap.newKeySet();
+        private final Map<String, CountDownLatch> blocked = new ConcurrentHashMap<>();
+        private final CountDownLatch started = new CountDownLatch(1);
+
+        @Override
+        public Optional<ClassInfo> provide(final String klass) {
+            this.calls.computeIfAbsent(klass, k -> new AtomicInteger()).incrementAndGet();
+            if (this.failures.remove(klass)) {
+                throw new IllegalStateException("Failed to provide " + klass);
+            }
+
+            final CountDownLatch latch = this.blocked.get(klass);
+            if (latch != null) {
+                this.started.countDown();
+                try {
+                    latch.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+            }
+            return Optional.empty();
+        }
+
+        int getCalls(final String klass) {
+            final AtomicInteger count = this.calls.get(klass);
+            return count != null ? count.get() : 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import org.cadixdev.at.AccessTransformSet;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.mercury.Mercury;
+import org.cadixdev.mercury.extra.AccessAnalyzerProcessor;
+import org.cadixdev.mercury.parallel.ForkedMercury;
+import org.cadixdev.mercury.parallel.WorkerConfigurator;
+import org.cadixdev.mercury.remapper.MercuryRemapper;
+import org.eclipse.jdt.core.JavaCore;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+
+class ForkedMercuryTests {
+
+    @Test
+    void rewriteWithWorkers() throws Exception {
+        final RemappingTests remapping = new RemappingTests();
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path in = tempDir.resolve("a");
+        final Path out = tempDir.resolve("b");
+        final Path forkedOut = tempDir.resolve("c");
+        Files.createDirectories(in);
+
+        remapping.copyAll(in);
+
+        // Run Mercury in this JVM
+        final Mercury mercury = new Mercury();
+        new Configurator().configure(mercury);
+        mercury.rewrite(in, out);
+
+        // Then split the same run between two workers
+        final ForkedMercury forked = new ForkedMercury(Configurator.class);
+        forked.setWorkers(2);
+        forked.rewrite(in, forkedOut);
+
+        final Map<String, String> expected = remapping.readAll(out);
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, remapping.readAll(forkedOut));
+        remapping.verifyAll(forkedOut);
+
+        remapping.delete(tempDir);
+    }
+
+    @Test
+    void rejectAnalysisProcessors() throws Exception {
+        final RemappingTests remapping = new RemappingTests();
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path in = tempDir.resolve("a");
+        Files.createDirectories(in);
+
+        remapping.copyAll(in);
+
+        // The analysis of each worker would only see its own shard
+        final ForkedMercury forked = new ForkedMercury(AnalysisConfigurator.class);
+        forked.setWorkers(1);
+        assertThrows(IOException.class, () -> forked.rewrite(in, tempDir.resolve("b")));
+
+        remapping.delete(tempDir);
+    }
+
+    @Test
+    void failWithWorkerClassPath() throws Exception {
+        final RemappingTests remapping = new RemappingTests();
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path in = tempDir.resolve("a");
+        Files.createDirectories(in);
+
+        remapping.copyAll(in);
+
+        // The workers cannot find Mercury on the given class path and exit before sending any output
+        final ForkedMercury forked = new ForkedMercury(Configurator.class);
+        forked.setWorkers(2);
+        forked.getClassPath().add(tempDir.resolve("missing"));
+        assertTimeoutPreemptively(Duration.ofMinutes(1),
+                () -> assertThrows(IOException.class, () -> forked.rewrite(in, tempDir.resolve("b"))));
+
+        remapping.delete(tempDir);
+    }
+
+    public static final class Configurator implements WorkerConfigurator {
+
+        @Override
+        public void configure(final Mercury mercury) throws Exception {
+            mercury.setSourceCompatibility(JavaCore.VERSION_11);
+            mercury.getProcessors().add(MercuryRemapper.create(new RemappingTests().readMappings()));
+            mercury.setFlexibleAnonymousClassMemberLookups(true);
+        }
+
+    }
+
+    public static final class AnalysisConfigurator implements WorkerConfigurator {
+
+        @Override
+        public void configure(final Mercury mercury) {
+            mercury.setSourceCompatibility(JavaCore.VERSION_11);
+            mercury.getProcessors().add(AccessAnalyzerProcessor.create(AccessTransformSet.create(), MappingSet.create()));
+        }
+
+    }
+
+}
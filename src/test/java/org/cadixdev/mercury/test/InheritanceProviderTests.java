@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+import org.cadixdev.bombe.analysis.InheritanceType;
+import org.cadixdev.bombe.type.signature.FieldSignature;
+import org.cadixdev.bombe.type.signature.MethodSignature;
+import org.cadixdev.mercury.Mercury;
+import org.cadixdev.mercury.SourceContext;
+import org.cadixdev.mercury.SourceProcessor;
+import org.cadixdev.mercury.analysis.MercuryInheritanceProvider;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.AbstractTypeDeclaration;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+class InheritanceProviderTests {
+
+    private static final String MEMBERS = "package test;\n"
+            + "\n"
+            + "public class Members {\n"
+            + "\n"
+            + "    public int count;\n"
+            + "    protected String name;\n"
+            + "    private long time;\n"
+            + "\n"
+            + "    public Members() {\n"
+            + "    }\n"
+            + "\n"
+            + "    Members(int count) {\n"
+            + "    }\n"
+            + "\n"
+            + "    private Members(String name) {\n"
+            + "    }\n"
+            + "\n"
+            + "    public void run() {\n"
+            + "    }\n"
+            + "\n"
+            + "    protected void run(int times) {\n"
+            + "    }\n"
+            + "\n"
+            + "    String run(String name) {\n"
+            + "        return name;\n"
+            + "    }\n"
+            + "\n"
+            + "    private static void helper() {\n"
+            + "    }\n"
+            + "\n"
+            + "}\n";
+
+    private static final String EMPTY = "package test;\n"
+            + "\n"
+            + "public class Empty {\n"
+            + "}\n";
+
+    @Test
+    void lookupsAgreeWithEntries() throws Exception {
+        final Map<MethodSignature, InheritanceType> methods = new HashMap<>();
+        methods.put(MethodSignature.of("<init>", "()V"), InheritanceType.PUBLIC);
+        methods.put(MethodSignature.of("<init>", "(I)V"), InheritanceType.PACKAGE_PRIVATE);
+        methods.put(MethodSignature.of("<init>", "(Ljava/lang/String;)V"), InheritanceType.NONE);
+        methods.put(MethodSignature.of("run", "()V"), InheritanceType.PUBLIC);
+        methods.put(MethodSignature.of("run", "(I)V"), InheritanceType.PROTECTED);
+        methods.put(MethodSignature.of("run", "(Ljava/lang/String;)Ljava/lang/String;"), InheritanceType.PACKAGE_PRIVATE);
+        methods.put(MethodSignature.of("helper", "()V"), InheritanceType.NONE);
+
+        final Map<FieldSignature, InheritanceType> fields = new HashMap<>();
+        fields.put(FieldSignature.of("count", "I"), InheritanceType.PUBLIC);
+        fields.put(FieldSignature.of("name", "Ljava/lang/String;"), InheritanceType.PROTECTED);
+        fields.put(FieldSignature.of("time", "J"), InheritanceType.NONE);
+
+        this.provide(MEMBERS, "test/Members", info -> {
+            // Look up the overloads before the members are iterated
+            final Map<MethodSignature, InheritanceType> infoMethods = info.getMethods();
+            for (final Map.Entry<MethodSignature, InheritanceType> method : methods.entrySet()) {
+                assertEquals(method.getValue(), infoMethods.get(method.getKey()), method.getKey().toString());
+                assertTrue(infoMethods.containsKey(method.getKey()));
+            }
+            assertNull(infoMethods.get(MethodSignature.of("run", "(J)V")));
+            assertNull(infoMethods.get(MethodSignature.of("<init>", "(J)V")));
+            assertFalse(infoMethods.containsKey(MethodSignature.of("missing", "()V")));
+
+            assertFalse(infoMethods.isEmpty());
+            assertEquals(methods, new HashMap<>(infoMethods));
+            for (final Map.Entry<MethodSignature, InheritanceType> method : infoMethods.entrySet()) {
+                assertEquals(method.getValue(), infoMethods.get(method.getKey()), method.getKey().toString());
+            }
+
+            final Map<FieldSignature, InheritanceType> infoFields = info.getFields();
+            for (final Map.Entry<FieldSignature, InheritanceType> field : fields.entrySet()) {
+                assertEquals(field.getValue(), infoFields.get(field.getKey()), field.getKey().toString());
+            }
+            assertNull(infoFields.get(FieldSignature.of("count", "J")));
+            assertFalse(infoFields.isEmpty());
+            assertEquals(fields, new HashMap<>(infoFields));
+        });
+    }
+
+    @Test
+    void emptyMembers() throws Exception {
+        this.provide(EMPTY, "test/Empty", info -> {
+            assertTrue(info.getFields().isEmpty());
+            assertTrue(info.getFields().entrySet().isEmpty());
+            assertNull(info.getFields().get(FieldSignature.of("count", "I")));
+
+            // Only the default constructor
+            assertFalse(info.getMethods().isEmpty());
+            assertEquals(1, info.getMethods().entrySet().size());
+            assertEquals(InheritanceType.PUBLIC, info.getMethods().get(MethodSignature.of("<init>", "()V")));
+        });
+    }
+
+    @Test
+    void classFilesAgreeWithBindings() throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path jar = TestClasses.compileJar(tempDir.resolve("lib.jar"), ClassFileReaderTests.SOURCES);
+        final Path sourceDir = tempDir.resolve("source").resolve("test");
+        Files.createDirectories(sourceDir);
+        Files.write(sourceDir.resolve("User.java"), ("package test;\n"
+                + "\n"
+                + "public class User extends lib.Square {\n"
+                + "}\n").getBytes(StandardCharsets.UTF_8));
+
+        final Map<String, List<Object>> bindings = this.provideLibrary(sourceDir.getParent(), jar, false);
+        assertEquals(bindings, this.provideLibrary(sourceDir.getParent(), jar, true));
+        new RemappingTests().delete(tempDir);
+    }
+
+    private Map<String, List<Object>> provideLibrary(final Path sourceDir, final Path jar, final boolean classFiles) throws Exception {
+        final Map<String, List<Object>> classes = new HashMap<>();
+        final Mercury mercury = new Mercury();
+        mercury.setSourceCompatibility(JavaCore.VERSION_11);
+        mercury.getClassPath().add(jar);
+        mercury.setClassFileInheritance(classFiles);
+        mercury.getProcessors().add(new SourceProcessor() {
+            @Override
+            public int getFlags() {
+                return FLAG_RESOLVE_BINDINGS;
+            }
+
+            @Override
+            public void process(final SourceContext context) {
+                final InheritanceProvider provider = MercuryInheritanceProvider.get(context.getMercury());
+                for (final String className : Arrays.asList("lib/Shape", "lib/Square", "lib/Base", "lib/Constants")) {
+                    final InheritanceProvider.ClassInfo info = provider.provide(className).orElse(null);
+                    assertNotNull(info, className);
+                    classes.put(className, Arrays.asList(info.getName(), info.isInterface(), info.getSuperName(), info.getInterfaces(),
+                            new HashMap<>(info.getFields()), new HashMap<>(info.getMethods())));
+                }
+            }
+        });
+        mercury.process(sourceDir);
+
+        assertEquals(4, classes.size());
+        return classes;
+    }
+
+    void provide(final String source, final String className, final Consumer<InheritanceProvider.ClassInfo> check) throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path file = tempDir.resolve(className + ".java");
+        Files.createDirectories(file.getParent());
+        Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+
+        final boolean[] checked = new boolean[1];
+        final Mercury mercury = new Mercury();
+        mercury.setSourceCompatibility(JavaCore.VERSION_11);
+        mercury.getProcessors().add(new SourceProcessor() {
+            @Override
+            public int getFlags() {
+                return FLAG_RESOLVE_BINDINGS;
+            }
+
+            @Override
+            public void process(final SourceContext context) {
+                // The bindings are only complete while the source file is processed
+                final ITypeBinding binding = ((AbstractTypeDeclaration) context.getCompilationUnit().types().get(0)).resolveBinding();
+                check.accept(MercuryInheritanceProvider.get(context.getMercury()).provide(className, binding).orElse(null));
+                checked[0] = true;
+            }
+        });
+        mercury.process(tempDir);
+
+        assertTrue(checked[0]);
+        new RemappingTests().delete(tempDir);
+    }
+
+}
@@ -10,16 +10,29 @@
 
 package org.cadixdev.mercury.test;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.cadixdev.bombe.util.ByteStreams;
 import org.cadixdev.lorenz.MappingSet;
 import org.cadixdev.lorenz.io.MappingFormats;
 import org.cadixdev.lorenz.io.MappingsReader;
+import org.cadixdev.lorenz.model.ClassMapping;
 import org.cadixdev.mercury.Mercury;
+import org.cadixdev.mercury.RewriteContext;
+import org.cadixdev.mercury.SourceContext;
+import org.cadixdev.mercury.SourceProcessor;
+import org.cadixdev.mercury.SourceRewriter;
+import org.cadixdev.mercury.analysis.ReferenceIndex;
+import org.cadixdev.mercury.remapper.MappingDiff;
 import org.cadixdev.mercury.remapper.MercuryRemapper;
 import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+import org.eclipse.jdt.core.dom.TypeDeclaration;
 import org.junit.jupiter.api.Test;
 
 import java.io.ByteArrayOutputStream;
@@ -29,7 +42,16 @@
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 class RemappingTests {
 
@@ -45,6 +67,8 @@ class RemappingTests {
     //      - In source code
     //      - In Javadoc references
     //      - Within lambda expressions and anonymous classes
+    //      - Local variables in nested blocks and lambda expressions that
+    //        clash with remapped parameter and field names
     // 3. Method overriding and generics
     //    This test is used to verify that Mercury can handle child classes
     //    overriding methods from their parents:
@@ -60,12 +84,496 @@ class RemappingTests {
 
     @Test
     void remap() throws Exception {
+        this.remap(mercury -> {});
+    }
+
+    @Test
+    void remapWithLazyBindingResolution() throws Exception {
+        this.remap(mercury -> mercury.setLazyBindingResolution(true));
+    }
+
+    @Test
+    void remapWithFilePruning() throws Exception {
+        this.remap(mercury -> mercury.setFilePruning(true));
+    }
+
+    @Test
+    void remapWithClassPathCheck() throws Exception {
+        this.remap(mercury -> mercury.setClassPathCheck(true));
+    }
+
+    @Test
+    void remapWithClassPathCheckAndMissingType() throws Exception {
+        // The missing type is not imported, so the check cannot report it
+        final String source = "package test;\n"
+                + "\n"
+                + "public class MissingTest {\n"
+                + "\n"
+                + "    private com.missing.Thing thing;\n"
+                + "\n"
+                + "    public com.example.other.OtherClass get(final com.missing.Thing thing) {\n"
+                + "        return null;\n"
+                + "    }\n"
+                + "\n"
+                + "}\n";
+
+        final String expected = this.remapWithMissingType(source, mercury -> {});
+        assertTrue(expected.contains("net.example.newother"));
+        assertEquals(expected, this.remapWithMissingType(source, mercury -> mercury.setClassPathCheck(true)));
+    }
+
+    @Test
+    void failOnMissingImports() throws Exception {
+        this.failOnMissingImport("import com.missing.Thing;\n", "com.missing.Thing");
+        this.failOnMissingImport("import com.missing.*;\n", "com.missing.*");
+        this.failOnMissingImport("import static com.missing.Util.helper;\n", "com.missing.Util");
+    }
+
+    void failOnMissingImport(final String imports, final String missingType) throws Exception {
+        final String source = "package test;\n"
+                + "\n"
+                + imports
+                + "\n"
+                + "public class MissingTest {\n"
+                + "\n"
+                + "    private Object thing;\n"
+                + "\n"
+                + "}\n";
+
+        // The check fails before any source file is parsed
+        final List<ITypeBinding> bindings = new ArrayList<>();
+        final IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> this.checkClassPath(source, mercury -> {}, bindings));
+        assertTrue(e.getMessage().startsWith("Missing types on the class path: "), e.getMessage());
+        assertTrue(e.getMessage().contains(missingType), e.getMessage());
+        assertTrue(bindings.isEmpty());
+
+        // Graceful checks only parse the source files as usual
+        this.checkClassPath(source, mercury -> mercury.setGracefulClasspathChecks(true), bindings);
+        assertEquals(1, bindings.size());
+    }
+
+    @Test
+    void trustClassPathCheck() throws Exception {
+        // The check cannot see the missing type, since it is not imported
+        final String source = "package test;\n"
+                + "\n"
+                + "public class MissingTest {\n"
+                + "\n"
+                + "    private com.missing.Thing thing;\n"
+                + "\n"
+                + "}\n";
+
+        final List<ITypeBinding> bindings = new ArrayList<>();
+        this.checkClassPath(source, mercury -> {}, bindings);
+        assertTrue(bindings.get(0).isRecovered());
+
+        // Without bindings recovery, the missing type has no binding at all
+        bindings.clear();
+        this.checkClassPath(source, mercury -> mercury.setTrustClassPathCheck(true), bindings);
+        assertEquals(1, bindings.size());
+        assertNull(bindings.get(0));
+    }
+
+    void checkClassPath(final String source, final Consumer<Mercury> configure, final List<ITypeBinding> bindings) throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        try {
+            final Path in = tempDir.resolve("a");
+            Files.createDirectories(in.resolve("test"));
+            Files.write(in.resolve("test/MissingTest.java"), source.getBytes());
+
+            final Mercury mercury = new Mercury();
+            mercury.setSourceCompatibility(JavaCore.VERSION_11);
+            mercury.setClassPathCheck(true);
+            mercury.getProcessors().add(new SourceProcessor() {
+                @Override
+                public int getFlags() {
+                    return FLAG_RESOLVE_BINDINGS;
+                }
+
+                @Override
+                public void process(final SourceContext context) {
+                    // Records the binding of the type of the first field
+                    final TypeDeclaration type = (TypeDeclaration) context.getCompilationUnit().types().get(0);
+                    bindings.add(type.getFields()[0].getType().resolveBinding());
+                }
+            });
+            configure.accept(mercury);
+            mercury.process(in);
+        } finally {
+            this.delete(tempDir);
+        }
+    }
+
+    String remapWithMissingType(final String source, final Consumer<Mercury> configure) throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path in = tempDir.resolve("a");
+        final Path out = tempDir.resolve("b");
+        Files.createDirectories(in.resolve("test"));
+        Files.createDirectories(out);
+
+        this.copyAll(in);
+        Files.write(in.resolve("test/MissingTest.java"), source.getBytes());
+
+        final Mercury mercury = new Mercury();
+        mercury.setSourceCompatibility(JavaCore.VERSION_11);
+        mercury.getProcessors().add(MercuryRemapper.create(this.readMappings()));
+        mercury.setFlexibleAnonymousClassMemberLookups(true);
+        mercury.setGracefulClasspathChecks(true);
+        configure.accept(mercury);
+        mercury.rewrite(in, out);
+
+        this.verifyAll(out);
+        final String result = new String(Files.readAllBytes(out.resolve("test/MissingTest.java")));
+        this.delete(tempDir);
+        return result;
+    }
+
+    @Test
+    void remapWithNameFilter() throws Exception {
+        // Lazy binding resolution skips names that are not part of the mappings
+        final Map<String, String> expected = this.remapAll(MercuryRemapper.create(this.readMappings()), mercury -> {});
+        final Map<String, String> actual = this.remapAll(MercuryRemapper.create(this.readMappings()),
+                mercury -> mercury.setLazyBindingResolution(true));
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void remapWithoutJavadoc() throws Exception {
+        // Doc comments are parsed as long as one processor needs them
+        final Map<String, String> expected = this.remapAll(MercuryRemapper.create(this.readMappings(), false), mercury -> {
+            mercury.getProcessors().add(new SourceRewriter() {
+                @Override
+                public void rewrite(final RewriteContext context) {
+                }
+            });
+        });
+        final Map<String, String> actual = this.remapAll(MercuryRemapper.create(this.readMappings(), false), mercury -> {});
+
+        assertTrue(actual.get("JavadocTest.java").contains("{@link ObfClass core}"));
+        assertTrue(actual.get("JavadocTest.java").contains("private final Core core = new Core();"));
+        assertEquals(expected, actual);
+    }
+
+    Map<String, String> remapAll(final SourceProcessor remapper, final Consumer<Mercury> configure) throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path in = tempDir.resolve("a");
+        final Path out = tempDir.resolve("b");
+        Files.createDirectories(in);
+        Files.createDirectories(out);
+
+        this.copyAll(in);
+
+        final Mercury mercury = new Mercury();
+        mercury.setSourceCompatibility(JavaCore.VERSION_11);
+        mercury.getProcessors().add(remapper);
+        mercury.setFlexibleAnonymousClassMemberLookups(true);
+        configure.accept(mercury);
+        mercury.rewrite(in, out);
+
+        final Map<String, String> result = this.readAll(out);
+        this.delete(tempDir);
+        return result;
+    }
+
+    @Test
+    void remapImportAndReferences() throws Exception {
+        // The static import is renamed while the imports are rewritten as well
+        final String source = "package user;\n"
+                + "\n"
+                + "import static lib.Values.NAME;\n"
+                + "\n"
+                + "import lib.Old;\n"
+                + "\n"
+                + "public class User {\n"
+                + "\n"
+                + "    public Old get() {\n"
+                + "        return NAME != null ? new Old() : null;\n"
+                + "    }\n"
+                + "\n"
+                + "}\n";
+
+        final String expected = this.remapImport(source, mercury -> {
+            // Structural changes pass all renames to the ASTRewrite
+            mercury.getProcessors().add(new SourceRewriter() {
+                @Override
+                public void rewrite(final RewriteContext context) {
+                    context.createASTRewrite();
+                }
+            });
+        });
+        assertTrue(expected.contains("import static lib.Values.TITLE;"));
+        assertTrue(expected.contains("import other.New;"));
+        assertTrue(expected.contains("return TITLE != null ? new New() : null;"));
+        assertFalse(expected.contains("NAME"));
+        assertEquals(expected, this.remapImport(source, mercury -> {}));
+    }
+
+    String remapImport(final String source, final Consumer<Mercury> configure) throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path in = tempDir.resolve("a");
+        final Path out = tempDir.resolve("b");
+        Files.createDirectories(in.resolve("lib"));
+        Files.createDirectories(in.resolve("user"));
+        Files.createDirectories(out);
+
+        Files.write(in.resolve("lib/Values.java"), "package lib; public class Values { public static final String NAME = \"\"; }".getBytes());
+        Files.write(in.resolve("lib/Old.java"), "package lib; public class Old {}".getBytes());
+        Files.write(in.resolve("user/User.java"), source.getBytes());
+
+        final MappingSet mappings = MappingSet.create();
+        mappings.getOrCreateTopLevelClassMapping("lib/Values").getOrCreateFieldMapping("NAME", "Ljava/lang/String;").setDeobfuscatedName("TITLE");
+        mappings.getOrCreateTopLevelClassMapping("lib/Old").setDeobfuscatedName("other/New");
+
+        final Mercury mercury = new Mercury();
+        mercury.setSourceCompatibility(JavaCore.VERSION_11);
+        mercury.getProcessors().add(MercuryRemapper.create(mappings));
+        configure.accept(mercury);
+        mercury.rewrite(in, out);
+
+        final String result = new String(Files.readAllBytes(out.resolve("user/User.java")));
+        this.delete(tempDir);
+        return result;
+    }
+
+    @Test
+    void remapWithReferenceIndex() throws Exception {
+        final Path file = Files.createTempFile("mercury-test", ".idx");
+        this.remap(mercury -> mercury.setReferenceIndexFile(file));
+
+        final ReferenceIndex index = ReferenceIndex.open(file);
+        assertTrue(index.getFiles().contains("ParameterTest.java"));
+        assertTrue(index.findFiles("test/ObfClass").contains("test/ObfClass.java"));
+
+        // The open index does not keep the file, so it can be replaced
+        final ReferenceIndex.Builder builder = new ReferenceIndex.Builder(file.getParent());
+        builder.addAll(index, name -> name.equals("ParameterTest.java"));
+        builder.write(file);
+        assertFalse(Files.exists(file.resolveSibling(file.getFileName() + ".tmp")));
+        assertTrue(index.findFiles("test/ObfClass").contains("test/ObfClass.java"));
+        assertEquals(Collections.singletonList("ParameterTest.java"), ReferenceIndex.open(file).getFiles());
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    void remapChained() throws Exception {
+        // Empty mappings in the chain should not change the result
+        this.remap(MercuryRemapper.createChained(Arrays.asList(MappingSet.create(), this.readMappings(), MappingSet.create())), mercury -> {});
+    }
+
+    @Test
+    void remapChainedLinks() throws Exception {
+        // Split the test mappings into two links that compose to the same result:
+        // the class is renamed by both links, the method only by the second one
+        final MappingSet first = this.readMappings();
+        final ClassMapping<?, ?> obfClass = first.getOrCreateTopLevelClassMapping("test/ObfClass");
+        obfClass.setDeobfuscatedName("test/Mid");
+        obfClass.getOrCreateMethodMapping("name", "()Ljava/lang/String;").setDeobfuscatedName("name");
+
+        final MappingSet second = MappingSet.create();
+        second.getOrCreateTopLevelClassMapping("test/Mid")
+                .setDeobfuscatedName("Core")
+                .getOrCreateMethodMapping("name", "()Ljava/lang/String;")
+                .setDeobfuscatedName("firstName");
+
+        this.remap(MercuryRemapper.createChained(Arrays.asList(first, second)), mercury -> {});
+    }
+
+    @Test
+    void remapMultipleTargets() throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path in = tempDir.resolve("a");
+        final Path out = tempDir.resolve("b");
+        final Path identity = tempDir.resolve("c");
+        Files.createDirectories(in);
+
+        this.copyAll(in);
+
+        // Run Mercury once for both targets
+        final Mercury mercury = new Mercury();
+        mercury.setSourceCompatibility(JavaCore.VERSION_11);
+        mercury.getProcessors().add(MercuryRemapper.create(Arrays.asList(
+                MercuryRemapper.Target.of(this.readMappings(), out),
+                MercuryRemapper.Target.of(MappingSet.create(), identity)
+        )));
+        mercury.setFlexibleAnonymousClassMemberLookups(true);
+        mercury.process(in);
+
+        this.verifyAll(out);
+
+        // Empty mappings should not change anything
+        assertEquals(
+                new String(Files.readAllBytes(in.resolve("ParameterTest.java"))),
+                new String(Files.readAllBytes(identity.resolve("ParameterTest.java")))
+        );
+
+        this.delete(tempDir);
+    }
+
+    @Test
+    void remapIncrementally() throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path in = tempDir.resolve("a");
+        final Path previous = tempDir.resolve("b");
+        final Path out = tempDir.resolve("c");
+        Files.createDirectories(in);
+
+        this.copyAll(in);
+
+        // Remap with empty mappings first
+        final MappingSet oldMappings = MappingSet.create();
+        final Mercury mercury = new Mercury();
+        mercury.setSourceCompatibility(JavaCore.VERSION_11);
+        mercury.getProcessors().add(MercuryRemapper.create(oldMappings));
+        mercury.setFlexibleAnonymousClassMemberLookups(true);
+        mercury.rewrite(in, previous);
+
+        // Then update the output to the test mappings
+        final MappingSet newMappings = this.readMappings();
+        final MappingDiff diff = MappingDiff.compute(oldMappings, newMappings);
+        assertTrue(diff.getAffectedNames().contains("ObfClass"));
+        assertTrue(MappingDiff.compute(newMappings, newMappings).isEmpty());
+
+        mercury.getProcessors().set(0, MercuryRemapper.create(newMappings));
+        diff.rewrite(mercury, in, previous, out);
+
+        this.verifyAll(out);
+        this.delete(tempDir);
+    }
+
+    @Test
+    void remapIncrementallyWithReferenceIndex() throws Exception {
+        this.remapIncrementallyWithReferenceIndex(mercury -> {});
+    }
+
+    @Test
+    void remapIncrementallyWithFilteredReferenceIndex() throws Exception {
+        // Only the names of the old mappings are recorded
+        this.remapIncrementallyWithReferenceIndex(mercury -> mercury.setLazyBindingResolution(true));
+    }
+
+    void remapIncrementallyWithReferenceIndex(final Consumer<Mercury> configure) throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path in = tempDir.resolve("a");
+        final Path previous = tempDir.resolve("b");
+        final Path out = tempDir.resolve("c");
+        final Path file = tempDir.resolve("references.idx");
+        Files.createDirectories(in);
+
+        this.copyAll(in);
+
+        // Remap with empty mappings first, recording the references
+        final MappingSet oldMappings = MappingSet.create();
+        final Mercury mercury = new Mercury();
+        mercury.setSourceCompatibility(JavaCore.VERSION_11);
+        mercury.getProcessors().add(MercuryRemapper.create(oldMappings));
+        mercury.setFlexibleAnonymousClassMemberLookups(true);
+        mercury.setReferenceIndexFile(file);
+        configure.accept(mercury);
+        mercury.rewrite(in, previous);
+        final List<String> files = ReferenceIndex.open(file).getFiles();
+
+        // Then look up the affected files in the index
+        final MappingSet newMappings = this.readMappings();
+        mercury.getProcessors().set(0, MercuryRemapper.create(newMappings));
+        MappingDiff.compute(oldMappings, newMappings).rewrite(mercury, in, previous, out);
+
+        this.verifyAll(out);
+
+        // The references of the files that were not processed again are kept
+        final ReferenceIndex index = ReferenceIndex.open(file);
+        assertTrue(index.getFiles().containsAll(files));
+        assertTrue(index.findFiles("test/ObfClass").contains("test/ObfClass.java"));
+
+        this.delete(tempDir);
+    }
+
+    @Test
+    void remapSingleFile() throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path in = tempDir.resolve("a");
+        Files.createDirectories(in);
+
+        this.copyAll(in);
+
+        final Mercury mercury = new Mercury();
+        mercury.setSourceCompatibility(JavaCore.VERSION_11);
+        mercury.getProcessors().add(MercuryRemapper.create(this.readMappings()));
+        mercury.setFlexibleAnonymousClassMemberLookups(true);
+
+        // The environment is reused for the second file
+        for (final String file : Arrays.asList("ParameterTest.java", "JavadocTest.java")) {
+            final char[] source = new String(Files.readAllBytes(in.resolve(file))).toCharArray();
+            assertEquals(this.readExpected(file), mercury.rewrite(in, file, source));
+        }
+
+        this.delete(tempDir);
+    }
+
+    @Test
+    void remapSingleFileTwice() throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path in = tempDir.resolve("a");
+        Files.createDirectories(in);
+
+        this.copyAll(in);
+
+        final int[] runs = new int[2];
+        final Mercury mercury = new Mercury();
+        mercury.setSourceCompatibility(JavaCore.VERSION_11);
+        mercury.getProcessors().add(MercuryRemapper.create(this.readMappings()));
+        mercury.getProcessors().add(new SourceProcessor() {
+            @Override
+            public void initialize(final Mercury mercury) {
+                runs[0]++;
+            }
+
+            @Override
+            public void process(final SourceContext context) {
+            }
+
+            @Override
+            public void finish(final Mercury mercury) {
+                runs[1]++;
+            }
+        });
+        mercury.setFlexibleAnonymousClassMemberLookups(true);
+
+        // Each call is a separate run with the same environment
+        final char[] source = new String(Files.readAllBytes(in.resolve("ParameterTest.java"))).toCharArray();
+        assertEquals(this.readExpected("ParameterTest.java"), mercury.rewrite(in, "ParameterTest.java", source));
+        assertEquals(this.readExpected("ParameterTest.java"), mercury.rewrite(in, "ParameterTest.java", source));
+        assertArrayEquals(new int[] { 2, 2 }, runs);
+
+        this.delete(tempDir);
+    }
+
+    void remap(final Consumer<Mercury> configure) throws Exception {
+        this.remap(MercuryRemapper.create(this.readMappings()), configure);
+    }
+
+    void remap(final SourceProcessor remapper, final Consumer<Mercury> configure) throws Exception {
         final Path tempDir = Files.createTempDirectory("mercury-test");
         final Path in = tempDir.resolve("a");
         final Path out = tempDir.resolve("b");
         Files.createDirectories(in);
         Files.createDirectories(out);
 
+        this.copyAll(in);
+
+        // Run Mercury
+        final Mercury mercury = new Mercury();
+        mercury.setSourceCompatibility(JavaCore.VERSION_11);
+        mercury.getProcessors().add(remapper);
+        mercury.setFlexibleAnonymousClassMemberLookups(true);
+        configure.accept(mercury);
+        mercury.rewrite(in, out);
+
+        this.verifyAll(out);
+        this.delete(tempDir);
+    }
+
+    void copyAll(final Path in) throws IOException {
         // Copy our test classes to the temporary directory
         // - Test 1
         this.copy(in, "test/test/Javadocs.java");
@@ -75,6 +583,7 @@ void remap() throws Exception {
         this.copy(in, "NameQualifiedTest.java");
         // - Test 2
         this.copy(in, "ParameterTest.java");
+        this.copy(in, "LocalScopeTest.java");
         // - Test 3
         //this.copy(in, "OverrideChild.java");
         //this.copy(in, "OverrideParent.java");
@@ -88,21 +597,19 @@ void remap() throws Exception {
         this.copy(in, "com/example/other/AnotherClass.java");
         this.copy(in, "com/example/other/OtherClass.java");
         this.copy(in, "com/example/pkg/Constants.java");
+    }
 
+    MappingSet readMappings() throws IOException {
         // Load our test mappings
         final MappingSet mappings = MappingSet.create();
         try (final MappingsReader reader = MappingFormats.byId("jam")
                 .createReader(RemappingTests.class.getResourceAsStream("/test.jam"))) {
             reader.read(mappings);
         }
+        return mappings;
+    }
 
-        // Run Mercury
-        final Mercury mercury = new Mercury();
-        mercury.setSourceCompatibility(JavaCore.VERSION_11);
-        mercury.getProcessors().add(MercuryRemapper.create(mappings));
-        mercury.setFlexibleAnonymousClassMemberLookups(true);
-        mercury.rewrite(in, out);
-
+    void verifyAll(final Path out) throws IOException {
         // Check that the output is as expected
         // - Test 1
         this.verify(out, "Core.java");
@@ -110,6 +617,7 @@ void remap() throws Exception {
         this.verify(out, "NameQualifiedTest.java");
         // - Test 2
         this.verify(out, "ParameterTest.java");
+        this.verify(out, "LocalScopeTest.java");
         // - Test 3
         //this.verify(out, "OverrideChild.java");
         //this.verify(out, "OverrideParent.java");
@@ -123,7 +631,9 @@ void remap() throws Exception {
         this.verify(out, "net/example/newother/AnotherClass.java");
         this.verify(out, "net/example/newother/OtherClass.java");
         this.verify(out, "net/example/pkg/Util.java");
+    }
 
+    void delete(final Path tempDir) throws IOException {
         // Delete the directory
         Files.walk(tempDir)
                 .sorted(Comparator.reverseOrder())
@@ -155,14 +665,27 @@ void verify(final Path dir, final String file) throws IOException {
         assertTrue(Files.exists(path), file + " doesn't exists!");
 
         // Check the file matches the expected output
-        final String expected;
+        final String expected = this.readExpected(file);
+        final String actual = new String(Files.readAllBytes(path));
+        assertEquals(expected, actual, "Remapped code for " + file + " does not match expected");
+    }
+
+    Map<String, String> readAll(final Path dir) throws IOException {
+        try (final Stream<Path> files = Files.walk(dir)) {
+            final Map<String, String> result = new TreeMap<>();
+            for (final Path file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                result.put(dir.relativize(file).toString(), new String(Files.readAllBytes(file)));
+            }
+            return result;
+        }
+    }
+
+    String readExpected(final String file) throws IOException {
         try (final InputStream in = RemappingTests.class.getResourceAsStream("/b/" + file)) {
             final ByteArrayOutputStream baos = new ByteArrayOutputStream();
             ByteStreams.copy(in, baos);
-            expected = baos.toString();
+            return baos.toString();
         }
-        final String actual = new String(Files.readAllBytes(path));
-        assertEquals(expected, actual, "Remapped code for " + file + " does not match expected");
     }
 
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.test;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles small libraries for the tests, so they do not depend on binary
+ * files checked into the repository.
+ */
+final class TestClasses {
+
+    private TestClasses() {
+    }
+
+    /**
+     * Writes the given sources to a directory and compiles them.
+     *
+     * @param dir The directory to write the sources and classes to
+     * @param sources The sources, by their path (e.g. {@code com/example/Test.java})
+     * @param classPath The libraries the sources are compiled against
+     * @return The directory containing the compiled classes
+     * @throws IOException If an I/O error occurs
+     */
+    static Path compile(final Path dir, final Map<String, String> sources, final Path... classPath) throws IOException {
+        final Path sourceDir = dir.resolve("src");
+        final Path classesDir = dir.resolve("classes");
+        Files.createDirectories(classesDir);
+
+        final List<String> arguments = new ArrayList<>(Arrays.asList("-d", classesDir.toString(), "--release", "8", "-nowarn"));
+        if (classPath.length > 0) {
+            arguments.add("-cp");
+            arguments.add(Arrays.stream(classPath).map(Path::toString).collect(Collectors.joining(File.pathSeparator)));
+        }
+        for (final Map.Entry<String, String> source : sources.entrySet()) {
+            final Path file = sourceDir.resolve(source.getKey());
+            Files.createDirectories(file.getParent());
+            Files.write(file, source.getValue().getBytes(StandardCharsets.UTF_8));
+            arguments.add(file.toString());
+        }
+
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertTrue(compiler.run(null, null, null, arguments.toArray(new String[0])) == 0, "Failed to compile test classes");
+        return classesDir;
+    }
+
+    /**
+     * Compiles the given sources into a jar.
+     *
+     * @param jar The jar to create
+     * @param sources The sources, by their path
+     * @param classPath The libraries the sources are compiled against
+     * @return The jar
+     * @throws IOException If an I/O error occurs
+     */
+    static Path compileJar(final Path jar, final Map<String, String> sources, final Path... classPath) throws IOException {
+        final Path classesDir = compile(jar.resolveSibling(jar.getFileName() + ".tmp"), sources, classPath);
+
+        final List<Path> files;
+        try (final Stream<Path> stream = Files.walk(classesDir)) {
+            files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+
+        try (final OutputStream out = Files.newOutputStream(jar); final ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (final Path file : files) {
+                zip.putNextEntry(new ZipEntry(classesDir.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/")));
+                zip.write(Files.readAllBytes(file));
+                zip.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+}
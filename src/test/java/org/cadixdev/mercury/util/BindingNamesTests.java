@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.AbstractTypeDeclaration;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+import org.eclipse.jdt.core.dom.SimpleName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+class BindingNamesTests {
+
+    private static final String SOURCE = "package com.example;\n"
+            + "\n"
+            + "import java.util.List;\n"
+            + "import java.util.Map;\n"
+            + "\n"
+            + "public class Outer<T> {\n"
+            + "\n"
+            + "    static class Inner$Dollar {\n"
+            + "    }\n"
+            + "\n"
+            + "    class Member {\n"
+            + "    }\n"
+            + "\n"
+            + "    Map.Entry<String, List<T>> entry;\n"
+            + "    int[][] array;\n"
+            + "    Outer<String>.Member member;\n"
+            + "\n"
+            + "    <U extends Number> U method(final Inner$Dollar[] inner) {\n"
+            + "        class Local {\n"
+            + "        }\n"
+            + "        final Runnable runnable = new Runnable() {\n"
+            + "            @Override\n"
+            + "            public void run() {\n"
+            + "                new Local();\n"
+            + "            }\n"
+            + "        };\n"
+            + "        return null;\n"
+            + "    }\n"
+            + "\n"
+            + "}\n";
+
+    @Test
+    void sameNamesAsBindings() {
+        final List<ITypeBinding> bindings = new ArrayList<>();
+        parse().accept(new ASTVisitor() {
+            @Override
+            public boolean visit(final SimpleName node) {
+                final ITypeBinding binding = node.resolveTypeBinding();
+                if (binding != null) {
+                    bindings.add(binding);
+                    bindings.add(binding.getErasure());
+                    if (binding.isArray()) {
+                        bindings.add(binding.getElementType());
+                    }
+                }
+                return true;
+            }
+        });
+
+        final BindingNames names = new BindingNames();
+        boolean withoutName = false;
+        // Look up every binding twice, to compare the cached names as well
+        for (int i = 0; i < 2; i++) {
+            for (final ITypeBinding binding : bindings) {
+                final String expected = binding.getBinaryName();
+                assertEquals(expected, names.getBinaryName(binding), binding.getKey());
+                assertEquals(expected != null ? expected.replace('.', '/') : null, names.getInternalName(binding), binding.getKey());
+                withoutName |= expected == null;
+            }
+        }
+
+        // Type variables have no binary name
+        assertTrue(withoutName);
+    }
+
+    @Test
+    void typeVariableHasNoName() {
+        final ITypeBinding[] typeParameters = ((AbstractTypeDeclaration) parse().types().get(0))
+                .resolveBinding()
+                .getTypeParameters();
+
+        final BindingNames names = new BindingNames();
+        assertNull(names.getBinaryName(typeParameters[0]));
+        assertNull(names.getInternalName(typeParameters[0]));
+        assertNull(names.getBinaryName(typeParameters[0]));
+    }
+
+    static CompilationUnit parse() {
+        final ASTParser parser = ASTParser.newParser(AST.getJLSLatest());
+        final Map<String, String> options = JavaCore.getOptions();
+        JavaCore.setComplianceOptions(JavaCore.VERSION_11, options);
+        parser.setCompilerOptions(options);
+        parser.setEnvironment(new String[0], new String[0], null, true);
+        parser.setResolveBindings(true);
+        parser.setUnitName("Outer.java");
+        parser.setSource(SOURCE.toCharArray());
+        return (CompilationUnit) parser.createAST(null);
+    }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+import java.util.function.Function;
+
+class LocalScopeTest {
+
+    private int a;
+
+    public void fieldInLambda() {
+        final Runnable runnable = () -> {
+            final int value = 1;
+            a += value;
+        };
+        runnable.run();
+    }
+
+    public void fieldInBlock(boolean flag) {
+        if (flag) {
+            int value = 2;
+            a = value;
+        }
+        a++;
+    }
+
+    public int paramInLambda(int var0) {
+        final Function<Integer, Integer> function = i -> {
+            int count = i;
+            return count + var0;
+        };
+        return function.apply(1);
+    }
+
+    public int paramInBlock(int var0) {
+        for (int i = 0; i < var0; i++) {
+            int count = i;
+            var0 -= count;
+        }
+        return var0;
+    }
+
+}
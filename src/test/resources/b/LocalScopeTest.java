@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+import java.util.function.Function;
+
+class LocalScopeTest {
+
+    private int value;
+
+    public void fieldInLambda() {
+        final Runnable runnable = () -> {
+            final int value = 1;
+            this.value += value;
+        };
+        runnable.run();
+    }
+
+    public void fieldInBlock(boolean flag) {
+        if (flag) {
+            int value = 2;
+            this.value = value;
+        }
+        value++;
+    }
+
+    public int paramInLambda(int count) {
+        final Function<Integer, Integer> function = i -> {
+            int count1 = i;
+            return count1 + count;
+        };
+        return function.apply(1);
+    }
+
+    public int paramInBlock(int count) {
+        for (int i = 0; i < count; i++) {
+            int count1 = i;
+            count -= count1;
+        }
+        return count;
+    }
+
+}